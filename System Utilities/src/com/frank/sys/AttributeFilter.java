@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * AttributeFilter.java is PROPRIETARY/CONFIDENTIAL built in 2:05:31 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The filter of the paths with their basic file attributes.
+ * <p>
+ * The attributes are read once for every entry by the iterator and passed to
+ * the filter, so filtering on the type, the size or the time of a file costs
+ * no more system call.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @see FileIterator#FileIterator(Path, AttributeFilter)
+ */
+public interface AttributeFilter
+{
+	/**
+	 * Tests whether or not the specified path should be accepted.
+	 * 
+	 * @param path
+	 *            the path to test
+	 * @param attributes
+	 *            the basic file attributes of the path
+	 * @return <code>true</code> if and only if the path should be accepted
+	 */
+	public boolean accept(Path path, BasicFileAttributes attributes);
+}
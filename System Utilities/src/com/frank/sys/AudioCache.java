@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * AudioCache.java is PROPRIETARY/CONFIDENTIAL built in 1:02:47 AM, Oct 19,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * The cache of the decoded audio files.
+ * <p>
+ * An audio file is decoded to PCM once and kept in memory as a
+ * {@linkplain Clip}, later plays of the file read the clip without any disk
+ * I/O or decoding. A clip is keyed by the absolute path of the file and
+ * validated by its modification time and length, so a changed file is
+ * decoded again.
+ * </p>
+ * <p>
+ * The clips are limited by a budget of bytes, the least recently used clips
+ * are evicted when the budget is exceeded. A file whose audio exceeds the
+ * budget is not decoded into memory, {@link #getStream(File)} streams it from
+ * the file as {@linkplain AudioSystem} does. The files known in advance can
+ * be decoded by {@link #preload(File...)}.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @see AudioUtils
+ */
+public class AudioCache
+{
+	/**
+	 * The default budget in bytes.
+	 */
+	public static final long	DEFAULT_BUDGET	= 16L << 20;
+	/**
+	 * The shared cache, created when first used.
+	 */
+	private static AudioCache	defaults;
+
+	/**
+	 * A decoded audio clip.
+	 * <p>
+	 * A clip is immutable, every call to {@link #getStream()} returns a new
+	 * stream over the same data.
+	 * </p>
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public static final class Clip
+	{
+		private final AudioFormat	format;
+		private final byte[]		data;
+
+		Clip(AudioFormat format, byte[] data)
+		{
+			this.format = format;
+			this.data = data;
+		}
+
+		/**
+		 * Returns the PCM format of the clip.
+		 * 
+		 * @return the format
+		 */
+		public AudioFormat getFormat()
+		{
+			return format;
+		}
+
+		/**
+		 * Returns the size of the PCM data in bytes.
+		 * 
+		 * @return the size
+		 */
+		public int getSize()
+		{
+			return data.length;
+		}
+
+		/**
+		 * Returns the count of the frames.
+		 * 
+		 * @return the count of the frames
+		 */
+		public long getFrameLength()
+		{
+			return data.length / Math.max(1, format.getFrameSize());
+		}
+
+		/**
+		 * Returns a new stream over the PCM data.
+		 * 
+		 * @return the audio input stream
+		 */
+		public AudioInputStream getStream()
+		{
+			return new AudioInputStream(new ByteArrayInputStream(data), format, getFrameLength());
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("Clip[%s, %d bytes]", format, data.length);
+		}
+	}
+
+	/**
+	 * The cached clip of a file.
+	 */
+	private static final class Entry
+	{
+		private final Clip	clip;
+		private final long	modified;
+		private final long	length;
+
+		Entry(Clip clip, long modified, long length)
+		{
+			this.clip = clip;
+			this.modified = modified;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * The clips by the absolute paths, in the order of the access.
+	 */
+	private final LinkedHashMap<String, Entry>	entries	= new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long								budget;
+	/**
+	 * The bytes of the cached clips.
+	 */
+	private long								size;
+	private long								hits;
+	private long								misses;
+	private long								evictions;
+
+	/**
+	 * Construct an instance of <tt>AudioCache</tt> with the default budget.
+	 */
+	public AudioCache()
+	{
+		this(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Construct an instance of <tt>AudioCache</tt>.
+	 * 
+	 * @param budget
+	 *            the budget in bytes
+	 */
+	public AudioCache(long budget)
+	{
+		setBudget(budget);
+	}
+
+	/**
+	 * Returns the shared cache used by {@linkplain AudioUtils}.
+	 * 
+	 * @return the shared cache
+	 */
+	public static synchronized AudioCache getDefault()
+	{
+		if (defaults == null)
+			defaults = new AudioCache();
+		return defaults;
+	}
+
+	/**
+	 * Returns the budget.
+	 * 
+	 * @return the budget in bytes
+	 */
+	public synchronized long getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Set the budget, the least recently used clips are evicted until the
+	 * clips fit.
+	 * 
+	 * @param budget
+	 *            the budget in bytes
+	 */
+	public synchronized void setBudget(long budget)
+	{
+		if (budget < 0)
+			throw new IllegalArgumentException(String.format("The budget %d must not be negative.", budget));
+		this.budget = budget;
+		evict();
+	}
+
+	/**
+	 * Returns a stream of the specified audio file, over the cached clip if
+	 * the audio fits the budget, otherwise read from the file.
+	 * 
+	 * @param file
+	 *            the audio file
+	 * @return the audio input stream
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws UnsupportedAudioFileException
+	 *             if the file is not a supported audio file
+	 */
+	public AudioInputStream getStream(File file) throws IOException, UnsupportedAudioFileException
+	{
+		Clip clip = get(file);
+		return clip == null ? AudioSystem.getAudioInputStream(file) : clip.getStream();
+	}
+
+	/**
+	 * Returns the clip of the specified audio file, decoded if it is not
+	 * cached or the file is changed.
+	 * <p>
+	 * The size of the audio is checked before the decoding, by the length of
+	 * the stream or of the file if it is unknown, and the decoding is given up
+	 * as soon as it exceeds the budget. The file is decoded outside the lock,
+	 * so the concurrent first calls for the same file may decode it more than
+	 * once.
+	 * </p>
+	 * 
+	 * @param file
+	 *            the audio file
+	 * @return the clip, <code>null</code> if the audio exceeds the budget
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws UnsupportedAudioFileException
+	 *             if the file is not a supported audio file
+	 */
+	public Clip get(File file) throws IOException, UnsupportedAudioFileException
+	{
+		String key = file.getAbsolutePath();
+		long modified = file.lastModified();
+		long length = file.length();
+		long limit;
+		synchronized (this)
+		{
+			Entry e = entries.get(key);
+			if (e != null && e.modified == modified && e.length == length)
+			{
+				hits++;
+				return e.clip;
+			}
+			misses++;
+			limit = budget;
+		}
+		Clip clip = decode(file, limit);
+		if (clip == null)
+			return null;
+		synchronized (this)
+		{
+			Entry old = entries.remove(key);
+			if (old != null)
+				size -= old.clip.getSize();
+			if (clip.getSize() <= budget)
+			{
+				entries.put(key, new Entry(clip, modified, length));
+				size += clip.getSize();
+				evict();
+			}
+		}
+		return clip;
+	}
+
+	/**
+	 * Decode the specified audio files into the cache, the files exceeding the
+	 * budget are skipped.
+	 * 
+	 * @param files
+	 *            the audio files
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws UnsupportedAudioFileException
+	 *             if a file is not a supported audio file
+	 */
+	public void preload(File... files) throws IOException, UnsupportedAudioFileException
+	{
+		for (File file : files)
+			get(file);
+	}
+
+	/**
+	 * Remove the clip of the specified file.
+	 * 
+	 * @param file
+	 *            the audio file
+	 * @return <tt>true</tt> if the clip is removed
+	 */
+	public synchronized boolean invalidate(File file)
+	{
+		Entry e = entries.remove(file.getAbsolutePath());
+		if (e == null)
+			return false;
+		size -= e.clip.getSize();
+		return true;
+	}
+
+	/**
+	 * Remove all the clips.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Evict the least recently used clips until the clips fit the budget.
+	 */
+	private void evict()
+	{
+		for (Iterator<Entry> it = entries.values().iterator(); size > budget && it.hasNext();)
+		{
+			size -= it.next().clip.getSize();
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Decode the file to PCM, the other encodings are converted to 16 bits
+	 * signed PCM. Returns <code>null</code> if the PCM data exceeds the limit.
+	 */
+	private static Clip decode(File file, long limit) throws IOException, UnsupportedAudioFileException
+	{
+		// The largest array.
+		limit = Math.min(limit, Integer.MAX_VALUE - 8);
+		AudioInputStream ais = AudioSystem.getAudioInputStream(file);
+		try
+		{
+			AudioFormat format = ais.getFormat();
+			AudioFormat.Encoding encoding = format.getEncoding();
+			if (!AudioFormat.Encoding.PCM_SIGNED.equals(encoding)
+					&& !AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding))
+			{
+				format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+						format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false);
+				ais = AudioSystem.getAudioInputStream(format, ais);
+			}
+			long frames = ais.getFrameLength();
+			int frameSize = format.getFrameSize();
+			// The length of the file if the length of the stream is unknown.
+			long expected = frames != AudioSystem.NOT_SPECIFIED && frameSize > 0 ? frames * frameSize : file
+					.length();
+			if (expected > limit)
+				return null;
+			byte[] data = read(ais, limit);
+			return data == null ? null : new Clip(format, data);
+		}
+		finally
+		{
+			ais.close();
+		}
+	}
+
+	/**
+	 * Read the stream to the end, into an array of the exact size if the
+	 * length of the stream is known. Returns <code>null</code> if the stream
+	 * exceeds the limit.
+	 */
+	private static byte[] read(AudioInputStream ais, long limit) throws IOException
+	{
+		long frames = ais.getFrameLength();
+		int frameSize = ais.getFormat().getFrameSize();
+		if (frames != AudioSystem.NOT_SPECIFIED && frameSize > 0)
+		{
+			// Checked against the limit by the caller.
+			byte[] data = new byte[(int) (frames * frameSize)];
+			int off = 0;
+			for (int n; off < data.length && (n = ais.read(data, off, data.length - off)) != -1;)
+				off += n;
+			if (off == data.length)
+				return data;
+			// Shorter than declared.
+			byte[] copy = new byte[off];
+			System.arraycopy(data, 0, copy, 0, off);
+			return copy;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int n; (n = ais.read(buffer)) != -1;)
+		{
+			if (out.size() + n > limit)
+				return null;
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns the bytes of the cached clips.
+	 * 
+	 * @return the size in bytes
+	 */
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the count of the cached clips.
+	 * 
+	 * @return the count of the clips
+	 */
+	public synchronized int getCount()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the count of the calls served from the cache.
+	 * 
+	 * @return the count of the hits
+	 */
+	public synchronized long getHitCount()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the count of the calls not served from the cache.
+	 * 
+	 * @return the count of the misses
+	 */
+	public synchronized long getMissCount()
+	{
+		return misses;
+	}
+
+	/**
+	 * Returns the count of the clips evicted by the budget.
+	 * 
+	 * @return the count of the evictions
+	 */
+	public synchronized long getEvictionCount()
+	{
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("AudioCache[clips=%d, size=%d/%d, hits=%d, misses=%d, evictions=%d]", entries.size(),
+				size, budget, hits, misses, evictions);
+	}
+}
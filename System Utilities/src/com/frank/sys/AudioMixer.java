@@ -0,0 +1,535 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * AudioMixer.java is PROPRIETARY/CONFIDENTIAL built in 1:41:05 AM, Oct 19,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * The software mixer of the audio streams.
+ * <p>
+ * The mixer sums any count of the concurrent audio streams into a single
+ * output, a {@linkplain SourceDataLine} or an {@linkplain OutputStream}, so
+ * playing many sounds at once takes one line of the device. Every stream is
+ * a {@linkplain Voice} with its own gain, converted to the format of the
+ * mixer when it is added. The sum is clipped to 16 bits.
+ * </p>
+ * <p>
+ * The voices are added by any thread through a lock free queue and admitted
+ * by the mixing thread before the next buffer. The buffers of the mixing
+ * are allocated when the mixer and the voices are created, mixing a buffer
+ * allocates nothing.
+ * </p>
+ * <p>
+ * As a {@linkplain Task}, the mixer is run by a thread or a
+ * {@linkplain TaskExecutor}, writes a buffer per step and is idle while there
+ * is no voice. Without running it, the output can be pulled by
+ * {@link #mix(byte[], int, int)} from a single thread, e.g. to mix to a
+ * file.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @see AudioUtils
+ */
+public class AudioMixer extends Task
+{
+	/**
+	 * The default duration of the buffers in milliseconds.
+	 */
+	public static final int		DEFAULT_BUFFER_MILLIS	= 20;
+	/**
+	 * The default maximum count of the voices mixed at once.
+	 */
+	public static final int		DEFAULT_MAX_VOICES		= 32;
+	/**
+	 * The shared mixer, created when first used.
+	 */
+	private static AudioMixer	defaults;
+
+	/**
+	 * A stream mixed by the mixer.
+	 * <p>
+	 * The gain and the stop of a voice take effect from the next buffer.
+	 * </p>
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public static final class Voice
+	{
+		private final AudioInputStream	stream;
+		/**
+		 * The bytes read for a buffer of the mixer.
+		 */
+		private final byte[]			buffer;
+		private volatile float			gain;
+		private volatile boolean		stopped;
+		private volatile boolean		done;
+
+		Voice(AudioInputStream stream, int bufferSize, float gain)
+		{
+			this.stream = stream;
+			this.buffer = new byte[bufferSize];
+			setGain(gain);
+		}
+
+		/**
+		 * Returns the gain.
+		 * 
+		 * @return the linear gain
+		 */
+		public float getGain()
+		{
+			return gain;
+		}
+
+		/**
+		 * Set the gain.
+		 * 
+		 * @param gain
+		 *            the linear gain, <code>1</code> for the original level
+		 */
+		public void setGain(float gain)
+		{
+			if (gain < 0 || Float.isNaN(gain) || Float.isInfinite(gain))
+				throw new IllegalArgumentException(String.format("The gain %f must be finite and not negative.",
+						gain));
+			this.gain = gain;
+		}
+
+		/**
+		 * Stop mixing the voice, its stream is closed by the mixer.
+		 */
+		public void stop()
+		{
+			stopped = true;
+		}
+
+		/**
+		 * Returns <tt>true</tt> if the stream is mixed to the end or the voice
+		 * is stopped and removed.
+		 * 
+		 * @return <tt>true</tt> if the voice is done
+		 */
+		public boolean isDone()
+		{
+			return done;
+		}
+
+		/**
+		 * Read the stream into the buffer until it is full or the stream ends.
+		 */
+		private int read(int len) throws IOException
+		{
+			int off = 0;
+			for (int n; off < len && (n = stream.read(buffer, off, len - off)) != -1;)
+				off += n;
+			return off;
+		}
+
+		private void close()
+		{
+			done = true;
+			try
+			{
+				stream.close();
+			}
+			catch (IOException e)
+			{
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("Voice[gain=%.2f, done=%b]", gain, done);
+		}
+	}
+
+	private final AudioFormat		format;
+	private final SourceDataLine	line;
+	private final OutputStream		out;
+	/**
+	 * The size of the buffers in bytes, whole frames.
+	 */
+	private final int				bufferSize;
+	/**
+	 * The voices added but not admitted yet.
+	 */
+	private final Queue<Voice>		pending	= new ConcurrentLinkedQueue<Voice>();
+	/**
+	 * The voices mixed, accessed only by the mixing thread.
+	 */
+	private final Voice[]			voices;
+	private int						count;
+	/**
+	 * The sums of the samples of a buffer.
+	 */
+	private final int[]				sums;
+	/**
+	 * The mixed buffer written to the output.
+	 */
+	private final byte[]			output;
+	private volatile int			activeCount;
+	private volatile long			mixedFrames;
+
+	/**
+	 * Construct an instance of <tt>AudioMixer</tt> playing to the specified
+	 * line, opened when the mixer is started if it is not open.
+	 * 
+	 * @param format
+	 *            the format of the mixer, 16 bits signed PCM
+	 * @param line
+	 *            the line to play
+	 */
+	public AudioMixer(AudioFormat format, SourceDataLine line)
+	{
+		this(format, line, null, DEFAULT_BUFFER_MILLIS, DEFAULT_MAX_VOICES);
+	}
+
+	/**
+	 * Construct an instance of <tt>AudioMixer</tt> writing the mixed PCM
+	 * data to the specified output stream.
+	 * 
+	 * @param format
+	 *            the format of the mixer, 16 bits signed PCM
+	 * @param out
+	 *            the output stream, <code>null</code> if the output is only
+	 *            pulled by {@link #mix(byte[], int, int)}
+	 */
+	public AudioMixer(AudioFormat format, OutputStream out)
+	{
+		this(format, null, out, DEFAULT_BUFFER_MILLIS, DEFAULT_MAX_VOICES);
+	}
+
+	/**
+	 * Construct an instance of <tt>AudioMixer</tt>.
+	 * 
+	 * @param format
+	 *            the format of the mixer, 16 bits signed PCM
+	 * @param line
+	 *            the line to play, <code>null</code> if none
+	 * @param out
+	 *            the output stream, <code>null</code> if none
+	 * @param bufferMillis
+	 *            the duration of the buffers in milliseconds
+	 * @param maxVoices
+	 *            the maximum count of the voices mixed at once, the other
+	 *            voices wait
+	 */
+	public AudioMixer(AudioFormat format, SourceDataLine line, OutputStream out, int bufferMillis, int maxVoices)
+	{
+		if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) || format.getSampleSizeInBits() != 16
+				|| format.getSampleRate() <= 0)
+			throw new IllegalArgumentException(String.format("The format %s is not 16 bits signed PCM.", format));
+		if (line != null && out != null)
+			throw new IllegalArgumentException("The line and the output stream are exclusive.");
+		if (bufferMillis <= 0)
+			throw new IllegalArgumentException(String.format("The buffer duration %dms must be positive.",
+					bufferMillis));
+		if (maxVoices <= 0)
+			throw new IllegalArgumentException(String.format("The maximum count of the voices %d must be positive.",
+					maxVoices));
+		this.format = format;
+		this.line = line;
+		this.out = out;
+		int frames = Math.max(1, Math.round(format.getSampleRate() * bufferMillis / 1000));
+		bufferSize = frames * format.getFrameSize();
+		voices = new Voice[maxVoices];
+		sums = new int[bufferSize / 2];
+		output = new byte[bufferSize];
+	}
+
+	/**
+	 * Returns the shared mixer used by {@linkplain AudioUtils}, playing 44.1
+	 * kHz 16 bits stereo to the default line of the system by a daemon
+	 * thread.
+	 * 
+	 * @return the shared mixer
+	 * @throws LineUnavailableException
+	 *             if no line is available
+	 */
+	public static synchronized AudioMixer getDefault() throws LineUnavailableException
+	{
+		if (defaults == null)
+		{
+			AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+			AudioMixer mixer = new AudioMixer(format, (SourceDataLine) AudioSystem.getLine(new DataLine.Info(
+					SourceDataLine.class, format)));
+			Thread t = new Thread(mixer, "AudioMixer");
+			t.setDaemon(true);
+			t.start();
+			defaults = mixer;
+		}
+		return defaults;
+	}
+
+	/**
+	 * Returns the format of the mixer.
+	 * 
+	 * @return the format
+	 */
+	public AudioFormat getFormat()
+	{
+		return format;
+	}
+
+	/**
+	 * Add a stream of the original level.
+	 * 
+	 * @param ais
+	 *            the audio input stream, closed by the mixer at the end
+	 * @return the voice of the stream
+	 * @see #add(AudioInputStream, float)
+	 */
+	public Voice add(AudioInputStream ais)
+	{
+		return add(ais, 1);
+	}
+
+	/**
+	 * Add a stream to mix, converted to the format of the mixer. It is lock
+	 * free and may be called by any thread.
+	 * 
+	 * @param ais
+	 *            the audio input stream, closed by the mixer at the end
+	 * @param gain
+	 *            the linear gain
+	 * @return the voice of the stream
+	 * @throws IllegalArgumentException
+	 *             if the stream can not be converted to the format
+	 */
+	public Voice add(AudioInputStream ais, float gain)
+	{
+		if (!ais.getFormat().matches(format))
+			ais = AudioSystem.getAudioInputStream(format, ais);
+		Voice voice = new Voice(ais, bufferSize, gain);
+		pending.offer(voice);
+		signal();
+		return voice;
+	}
+
+	/**
+	 * Returns the count of the voices being mixed.
+	 * 
+	 * @return the count of the active voices
+	 */
+	public int getActiveCount()
+	{
+		return activeCount;
+	}
+
+	/**
+	 * Returns the count of the voices waiting to be mixed.
+	 * 
+	 * @return the count of the pending voices
+	 */
+	public int getPendingCount()
+	{
+		return pending.size();
+	}
+
+	/**
+	 * Returns the count of the frames mixed.
+	 * 
+	 * @return the count of the frames
+	 */
+	public long getMixedFrames()
+	{
+		return mixedFrames;
+	}
+
+	/**
+	 * Mix the next buffer of the voices into the specified array, silence if
+	 * there is no voice.
+	 * <p>
+	 * It is called by the thread running the mixer, or by a single thread if
+	 * the mixer is not run.
+	 * </p>
+	 * 
+	 * @param b
+	 *            the array
+	 * @param off
+	 *            the offset in the array
+	 * @param len
+	 *            the maximum count of the bytes
+	 * @return the count of the bytes mixed, whole frames of at most a buffer
+	 */
+	public int mix(byte[] b, int off, int len)
+	{
+		for (Voice v; count < voices.length && (v = pending.poll()) != null;)
+			voices[count++] = v;
+		int frameSize = format.getFrameSize();
+		int n = Math.min(len / frameSize * frameSize, bufferSize);
+		int samples = n / 2;
+		for (int i = 0; i < samples; i++)
+			sums[i] = 0;
+		boolean bigEndian = format.isBigEndian();
+		for (int k = 0; k < count;)
+		{
+			Voice v = voices[k];
+			int read = 0;
+			if (!v.stopped)
+			{
+				try
+				{
+					read = v.read(n);
+				}
+				catch (IOException e)
+				{
+					// The broken stream is removed.
+				}
+				float gain = v.gain;
+				byte[] vb = v.buffer;
+				for (int i = 0, j = 0; j + 1 < read; i++, j += 2)
+				{
+					int s = bigEndian ? vb[j] << 8 | vb[j + 1] & 0xff : vb[j + 1] << 8 | vb[j] & 0xff;
+					sums[i] += gain == 1 ? s : (int) (s * gain);
+				}
+			}
+			if (read < n)
+			{
+				v.close();
+				voices[k] = voices[--count];
+				voices[count] = null;
+			}
+			else
+				k++;
+		}
+		for (int i = 0, j = off; i < samples; i++, j += 2)
+		{
+			int s = sums[i];
+			if (s > Short.MAX_VALUE)
+				s = Short.MAX_VALUE;
+			else if (s < Short.MIN_VALUE)
+				s = Short.MIN_VALUE;
+			if (bigEndian)
+			{
+				b[j] = (byte) (s >> 8);
+				b[j + 1] = (byte) s;
+			}
+			else
+			{
+				b[j] = (byte) s;
+				b[j + 1] = (byte) (s >> 8);
+			}
+		}
+		activeCount = count;
+		mixedFrames += n / frameSize;
+		return n;
+	}
+
+	/**
+	 * @see com.frank.sys.Task#taskStarted()
+	 */
+	@Override
+	protected void taskStarted() throws Throwable
+	{
+		if (line != null)
+		{
+			if (!line.isOpen())
+				line.open(format, bufferSize * 4);
+			line.start();
+		}
+	}
+
+	/**
+	 * @see com.frank.sys.Task#taskResumed()
+	 */
+	@Override
+	protected void taskResumed() throws Throwable
+	{
+	}
+
+	/**
+	 * Mix and write a buffer, or get idle while there is no voice. The line
+	 * blocks the writes to the rate of the device.
+	 * 
+	 * @see com.frank.sys.Task#taskRunning()
+	 */
+	@Override
+	protected void taskRunning() throws Throwable
+	{
+		if (count == 0 && pending.isEmpty())
+		{
+			idle();
+			// A voice added before the idle.
+			if (!pending.isEmpty())
+				signal();
+			return;
+		}
+		int n = mix(output, 0, output.length);
+		if (line != null)
+			line.write(output, 0, n);
+		else if (out != null)
+			out.write(output, 0, n);
+	}
+
+	/**
+	 * Play the rest of the line and close the streams of the voices left.
+	 * 
+	 * @see com.frank.sys.Task#taskStopped()
+	 */
+	@Override
+	protected void taskStopped() throws Throwable
+	{
+		try
+		{
+			if (line != null)
+			{
+				line.drain();
+				line.close();
+			}
+			else if (out != null)
+				out.flush();
+		}
+		finally
+		{
+			while (count > 0)
+			{
+				voices[--count].close();
+				voices[count] = null;
+			}
+			for (Voice v; (v = pending.poll()) != null;)
+				v.close();
+			activeCount = 0;
+		}
+	}
+
+	/**
+	 * Close the line to release the blocked write.
+	 * 
+	 * @see com.frank.sys.Task#taskForcedStop()
+	 */
+	@Override
+	protected void taskForcedStop()
+	{
+		if (line != null)
+		{
+			line.stop();
+			line.flush();
+			line.close();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("AudioMixer[%s, active=%d, pending=%d]", format, activeCount, pending.size());
+	}
+}
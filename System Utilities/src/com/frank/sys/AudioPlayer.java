@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * AudioPlayer.java is PROPRIETARY/CONFIDENTIAL built in 12:18:33 AM, Oct 19,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * The audio playback engine.
+ * <p>
+ * The audio streams are played by a fixed pool of workers, the plays exceed
+ * the workers wait in a queue, and every play returns a
+ * {@linkplain Future} completed when the audio is drained to the line.
+ * Cancelling the future with interruption stops the play within a buffer.
+ * </p>
+ * <p>
+ * The opened {@linkplain SourceDataLine}s are pooled by the audio format, a
+ * line is stopped and returned to the pool after a play and reused by the
+ * next play of the same format, as opening a line is much slower than
+ * playing a short clip. At most as many lines as the workers are kept idle,
+ * the eldest idle line of any format is closed first. The audio is copied to the line by the buffers of a
+ * fixed duration, tens of milliseconds by default.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @see AudioUtils
+ */
+public class AudioPlayer
+{
+	/**
+	 * The default count of the workers.
+	 */
+	public static final int				DEFAULT_THREADS			= 4;
+	/**
+	 * The default duration of the buffers in milliseconds.
+	 */
+	public static final int				DEFAULT_BUFFER_MILLIS	= 50;
+	/**
+	 * The size of the buffers of the formats without a frame rate.
+	 */
+	private static final int			UNKNOWN_RATE_BUFFER		= 4096;
+	/**
+	 * The sequence number of the players.
+	 */
+	private static final AtomicInteger	sequence				= new AtomicInteger();
+	/**
+	 * The shared player, created when first used.
+	 */
+	private static AudioPlayer			defaults;
+
+	/**
+	 * The pool of the workers.
+	 */
+	protected final ThreadPoolExecutor								pool;
+	/**
+	 * The duration of the buffers in milliseconds.
+	 */
+	protected final int												bufferMillis;
+	/**
+	 * The idle lines by the formats.
+	 */
+	private final ConcurrentMap<FormatKey, Queue<SourceDataLine>>	lines		= new ConcurrentHashMap<FormatKey, Queue<SourceDataLine>>();
+	/**
+	 * The count of the idle lines.
+	 */
+	private final AtomicInteger										idleLines	= new AtomicInteger();
+	/**
+	 * The idle lines of all the formats, the eldest first.
+	 */
+	private final Queue<SourceDataLine>								idleOrder	= new ConcurrentLinkedQueue<SourceDataLine>();
+	/**
+	 * The count of the lines opened.
+	 */
+	private final AtomicInteger										openedLines	= new AtomicInteger();
+
+	/**
+	 * Construct an instance of <tt>AudioPlayer</tt> with the default workers
+	 * and buffers.
+	 */
+	public AudioPlayer()
+	{
+		this(DEFAULT_THREADS, DEFAULT_BUFFER_MILLIS);
+	}
+
+	/**
+	 * Construct an instance of <tt>AudioPlayer</tt>.
+	 * 
+	 * @param threads
+	 *            the count of the workers, the maximum count of the concurrent
+	 *            plays
+	 * @param bufferMillis
+	 *            the duration of the buffers in milliseconds
+	 */
+	public AudioPlayer(int threads, int bufferMillis)
+	{
+		if (threads <= 0)
+			throw new IllegalArgumentException(String.format("The count of the threads %d must be positive.",
+					threads));
+		if (bufferMillis <= 0)
+			throw new IllegalArgumentException(String.format("The buffer duration %dms must be positive.",
+					bufferMillis));
+		this.bufferMillis = bufferMillis;
+		final String prefix = String.format("AudioPlayer-%d-", sequence.incrementAndGet());
+		pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory()
+				{
+					private final AtomicInteger	count	= new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						Thread t = new Thread(r, prefix + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Returns the shared player used by {@linkplain AudioUtils}.
+	 * 
+	 * @return the shared player
+	 */
+	public static synchronized AudioPlayer getDefault()
+	{
+		if (defaults == null)
+			defaults = new AudioPlayer();
+		return defaults;
+	}
+
+	/**
+	 * Play the specified audio input stream asynchronously.
+	 * 
+	 * @param ais
+	 *            the audio input stream, not closed after the play
+	 * @return the future of the play
+	 */
+	public Future<Void> play(final AudioInputStream ais)
+	{
+		return pool.submit(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws Exception
+			{
+				playAndWait(ais);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Play the specified audio file asynchronously, the file is decoded by
+	 * the worker.
+	 * 
+	 * @param file
+	 *            the audio file
+	 * @return the future of the play
+	 */
+	public Future<Void> play(final File file)
+	{
+		return pool.submit(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws Exception
+			{
+				playAndWait(file);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Play the specified audio file in the current thread, returns after the
+	 * audio is drained. The file is read through the shared
+	 * {@linkplain AudioCache}, from memory if it fits the budget of the cache.
+	 * 
+	 * @param file
+	 *            the audio file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws UnsupportedAudioFileException
+	 *             if the file is not a supported audio file
+	 * @throws LineUnavailableException
+	 *             if no line is available for the format
+	 */
+	public void playAndWait(File file) throws IOException, UnsupportedAudioFileException, LineUnavailableException
+	{
+		AudioInputStream ais = AudioCache.getDefault().getStream(file);
+		try
+		{
+			playAndWait(ais);
+		}
+		finally
+		{
+			ais.close();
+		}
+	}
+
+	/**
+	 * Play the specified audio input stream in the current thread, returns
+	 * after the audio is drained or the thread is interrupted.
+	 * 
+	 * @param ais
+	 *            the audio input stream, not closed after the play
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws LineUnavailableException
+	 *             if no line is available for the format
+	 */
+	public void playAndWait(AudioInputStream ais) throws IOException, LineUnavailableException
+	{
+		AudioFormat format = ais.getFormat();
+		byte[] buffer = new byte[bufferSize(format)];
+		SourceDataLine line = acquire(format, buffer.length);
+		boolean reusable = false;
+		try
+		{
+			line.start();
+			for (int n; (n = ais.read(buffer, 0, buffer.length)) != -1;)
+			{
+				if (Thread.currentThread().isInterrupted())
+				{
+					line.stop();
+					line.flush();
+					reusable = true;
+					return;
+				}
+				line.write(buffer, 0, n);
+			}
+			line.drain();
+			line.stop();
+			reusable = true;
+		}
+		finally
+		{
+			if (reusable)
+				release(format, line);
+			else
+				close(line);
+		}
+	}
+
+	/**
+	 * Returns the size of the buffers of the specified format, whole frames
+	 * of {@link #bufferMillis}.
+	 */
+	private int bufferSize(AudioFormat format)
+	{
+		int frameSize = Math.max(1, format.getFrameSize());
+		float rate = format.getFrameRate();
+		if (rate <= 0)
+			return Math.max(1, UNKNOWN_RATE_BUFFER / frameSize) * frameSize;
+		return Math.max(1, Math.round(rate * bufferMillis / 1000)) * frameSize;
+	}
+
+	/**
+	 * Take an idle line of the format from the pool, or open a new one with
+	 * the buffer of twice the specified size.
+	 */
+	private SourceDataLine acquire(AudioFormat format, int bufferSize) throws LineUnavailableException
+	{
+		Queue<SourceDataLine> idle = lines.get(new FormatKey(format));
+		SourceDataLine line = idle == null ? null : idle.poll();
+		if (line != null)
+		{
+			idleOrder.remove(line);
+			idleLines.decrementAndGet();
+			return line;
+		}
+		line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
+		line.open(format, bufferSize * 2);
+		openedLines.incrementAndGet();
+		return line;
+	}
+
+	/**
+	 * Return the line to the pool, closing the eldest idle line if the pool is
+	 * full, or close it if the player is shut down.
+	 */
+	private void release(AudioFormat format, SourceDataLine line)
+	{
+		FormatKey key = new FormatKey(format);
+		Queue<SourceDataLine> idle = lines.get(key);
+		if (idle == null)
+		{
+			Queue<SourceDataLine> q = new ConcurrentLinkedQueue<SourceDataLine>();
+			idle = lines.putIfAbsent(key, q);
+			if (idle == null)
+				idle = q;
+		}
+		if (pool.isShutdown())
+		{
+			close(line);
+			return;
+		}
+		idleOrder.offer(line);
+		idle.offer(line);
+		idleLines.incrementAndGet();
+		// At most one idle line per worker.
+		while (idleLines.get() > pool.getCorePoolSize() && closeEldest())
+			;
+	}
+
+	/**
+	 * Close the eldest idle line, returns <tt>false</tt> if there is no idle
+	 * line.
+	 */
+	private boolean closeEldest()
+	{
+		for (SourceDataLine eldest; (eldest = idleOrder.poll()) != null;)
+			// Skipped if a play takes it meanwhile.
+			for (Queue<SourceDataLine> idle : lines.values())
+				if (idle.remove(eldest))
+				{
+					idleLines.decrementAndGet();
+					close(eldest);
+					return true;
+				}
+		return false;
+	}
+
+	private void close(SourceDataLine line)
+	{
+		line.close();
+		openedLines.decrementAndGet();
+	}
+
+	/**
+	 * Returns the count of the plays in progress.
+	 * 
+	 * @return the count of the active plays
+	 */
+	public int getActiveCount()
+	{
+		return pool.getActiveCount();
+	}
+
+	/**
+	 * Returns the count of the plays waiting for a worker.
+	 * 
+	 * @return the count of the queued plays
+	 */
+	public int getQueuedCount()
+	{
+		return pool.getQueue().size();
+	}
+
+	/**
+	 * Returns the count of the lines opened by the player, in use or idle.
+	 * 
+	 * @return the count of the opened lines
+	 */
+	public int getOpenedLineCount()
+	{
+		return openedLines.get();
+	}
+
+	/**
+	 * Returns the count of the idle lines in the pool.
+	 * 
+	 * @return the count of the idle lines
+	 */
+	public int getIdleLineCount()
+	{
+		return idleLines.get();
+	}
+
+	/**
+	 * Shut down the workers after the queued plays and close the idle lines.
+	 */
+	public void shutdown()
+	{
+		pool.shutdown();
+		for (Queue<SourceDataLine> idle : lines.values())
+			for (SourceDataLine line; (line = idle.poll()) != null;)
+			{
+				idleLines.decrementAndGet();
+				close(line);
+			}
+		idleOrder.clear();
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("AudioPlayer[threads=%d, active=%d, queued=%d, lines=%d, idle=%d]",
+				pool.getCorePoolSize(), getActiveCount(), getQueuedCount(), getOpenedLineCount(),
+				getIdleLineCount());
+	}
+
+	/**
+	 * The key of an audio format, {@linkplain AudioFormat} has no equality.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	private static final class FormatKey
+	{
+		private final String	encoding;
+		private final float		sampleRate;
+		private final int		sampleSize;
+		private final int		channels;
+		private final int		frameSize;
+		private final float		frameRate;
+		private final boolean	bigEndian;
+
+		FormatKey(AudioFormat f)
+		{
+			encoding = f.getEncoding().toString();
+			sampleRate = f.getSampleRate();
+			sampleSize = f.getSampleSizeInBits();
+			channels = f.getChannels();
+			frameSize = f.getFrameSize();
+			frameRate = f.getFrameRate();
+			bigEndian = f.isBigEndian();
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof FormatKey))
+				return false;
+			FormatKey k = (FormatKey) obj;
+			return encoding.equals(k.encoding) && Float.compare(sampleRate, k.sampleRate) == 0
+					&& sampleSize == k.sampleSize && channels == k.channels && frameSize == k.frameSize
+					&& Float.compare(frameRate, k.frameRate) == 0 && bigEndian == k.bigEndian;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int h = encoding.hashCode();
+			h = h * 31 + Float.floatToIntBits(sampleRate);
+			h = h * 31 + sampleSize;
+			h = h * 31 + channels;
+			h = h * 31 + frameSize;
+			h = h * 31 + Float.floatToIntBits(frameRate);
+			return h * 31 + (bigEndian ? 1 : 0);
+		}
+	}
+}
@@ -8,16 +8,24 @@ package com.frank.sys;
 import java.io.File;
 import java.io.InputStream;
 
-import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.DataLine;
-import javax.sound.sampled.SourceDataLine;
 
 /**
  * Audio utilities.<br>
  * It deals with the audio works, recalling Java<sup>TM</sup> sound interfaces
  * to play audio data.
+ * <p>
+ * The audio is played by the shared {@linkplain AudioPlayer}, which plays on a
+ * fixed pool of threads and reuses the opened lines. The audio files fitting
+ * the budget of the shared {@linkplain AudioCache} are decoded once into it,
+ * so the repeated plays of a file read no disk, the larger files are
+ * streamed.
+ * </p>
+ * <p>
+ * The many sounds played at once can be mixed by the shared
+ * {@linkplain AudioMixer} into a single line instead.
+ * </p>
  * 
  * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
  * @version 1.0.0
@@ -34,7 +42,7 @@ public class AudioUtils
 	{
 		try
 		{
-			playSynchronized(AudioSystem.getAudioInputStream(audioFile));
+			AudioPlayer.getDefault().play(audioFile);
 		}
 		catch (Exception e)
 		{
@@ -68,40 +76,7 @@ public class AudioUtils
 	 */
 	public static void playSynchronized(final AudioInputStream ais)
 	{
-		new Thread()
-		{
-			public void run()
-			{
-				try
-				{
-					AudioFormat format = ais.getFormat();
-					int bufferSize = format.getFrameSize()
-							* Math.round(format.getFrameRate() / 10);
-					byte[] buffer = new byte[bufferSize];
-					SourceDataLine line;
-					DataLine.Info info = new DataLine.Info(
-							SourceDataLine.class, format);
-					line = (SourceDataLine) AudioSystem.getLine(info);
-					line.open(format, bufferSize);
-					// start the line
-					line.start();
-					// copy data to the line
-					int numBytesRead = 0;
-					while (numBytesRead != -1)
-					{
-						numBytesRead = ais.read(buffer, 0, buffer.length);
-						if (numBytesRead != -1)
-							line.write(buffer, 0, numBytesRead);
-					}
-					// wait until all data is played, then close the line
-					line.drain();
-					line.close();
-				}
-				catch (Throwable t)
-				{
-				}
-			}
-		}.start();
+		AudioPlayer.getDefault().play(ais);
 	}
 
 	/**
@@ -114,27 +89,7 @@ public class AudioUtils
 	{
 		try
 		{
-			AudioFormat format = ais.getFormat();
-			int bufferSize = format.getFrameSize()
-					* Math.round(format.getFrameRate() / 10);
-			byte[] buffer = new byte[bufferSize];
-			SourceDataLine line;
-			DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
-			line = (SourceDataLine) AudioSystem.getLine(info);
-			line.open(format, bufferSize);
-			// start the line
-			line.start();
-			// copy data to the line
-			int numBytesRead = 0;
-			while (numBytesRead != -1)
-			{
-				numBytesRead = ais.read(buffer, 0, buffer.length);
-				if (numBytesRead != -1)
-					line.write(buffer, 0, numBytesRead);
-			}
-			// wait until all data is played, then close the line
-			line.drain();
-			line.close();
+			AudioPlayer.getDefault().playAndWait(ais);
 		}
 		catch (Throwable t)
 		{
@@ -151,7 +106,72 @@ public class AudioUtils
 	{
 		try
 		{
-			play(AudioSystem.getAudioInputStream(audioFile));
+			AudioPlayer.getDefault().playAndWait(audioFile);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Play the specified audio input stream mixed with the other sounds into
+	 * a single line, returns immediately.
+	 * 
+	 * @param ais
+	 *            The specified audio input stream.
+	 * @param gain
+	 *            The linear gain of the audio.
+	 * @return The voice of the audio, <code>null</code> if it can not be
+	 *         played.
+	 */
+	public static AudioMixer.Voice playMixed(AudioInputStream ais, float gain)
+	{
+		try
+		{
+			return AudioMixer.getDefault().add(ais, gain);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Play the specified audio file mixed with the other sounds into a single
+	 * line, returns immediately.
+	 * 
+	 * @param audioFile
+	 *            The file of specified audio.
+	 * @return The voice of the audio, <code>null</code> if it can not be
+	 *         played.
+	 */
+	public static AudioMixer.Voice playMixed(File audioFile)
+	{
+		try
+		{
+			return AudioMixer.getDefault().add(AudioCache.getDefault().getStream(audioFile));
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Decode the specified audio files into the cache in advance, so their
+	 * first plays start without decoding.
+	 * 
+	 * @param audioFiles
+	 *            The files of specified audio.
+	 */
+	public static void preload(File... audioFiles)
+	{
+		try
+		{
+			AudioCache.getDefault().preload(audioFiles);
 		}
 		catch (Exception e)
 		{
@@ -0,0 +1,1060 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * BinarySerializer.java is PROPRIETARY/CONFIDENTIAL built in 5:14:08 PM, Oct
+ * 18, 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The compact binary serializer.
+ * <p>
+ * The fields of an object are written in a fixed order without their names,
+ * the primitive fields as raw values and the reference fields as tagged
+ * values. The classes are written by name once per stream and then by index,
+ * the shared and cyclic references are written as back references, so the
+ * object graph is restored exactly. The field layout and the constructor of
+ * every class are reflected once and cached, and the objects are instantiated
+ * without calling their constructors as Java<sup>TM</sup> serialization does.
+ * The objects need not be {@linkplain java.io.Serializable}.
+ * </p>
+ * <p>
+ * The common collections and maps of <code>java.util</code> are written as
+ * their elements, the dates and the big numbers as their values. The other
+ * classes of the platform, and the classes customizing their serialization
+ * with <code>writeObject</code>, <code>readObject</code>,
+ * <code>writeReplace</code>, <code>readResolve</code> or
+ * {@linkplain Externalizable}, are embedded in Java<sup>TM</sup>
+ * serialization, so they must be {@linkplain java.io.Serializable}. The
+ * transient and static fields are skipped. The format is bound to the field
+ * layout of the classes, the stream must be read with the same versions of the
+ * classes as it was written.
+ * </p>
+ * <p>
+ * The serializer is thread safe.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class BinarySerializer implements Serializer
+{
+	/**
+	 * The magic number of the stream.
+	 */
+	private static final int							MAGIC		= 0xB5;
+	/**
+	 * The version of the format.
+	 */
+	private static final int							VERSION		= 1;
+	/**
+	 * The UTF-8 charset.
+	 */
+	private static final Charset						UTF8		= Charset.forName("UTF-8");
+
+	private static final int							NULL		= 0;
+	private static final int							REF			= 1;
+	private static final int							TRUE		= 2;
+	private static final int							FALSE		= 3;
+	private static final int							BYTE		= 4;
+	private static final int							SHORT		= 5;
+	private static final int							CHAR		= 6;
+	private static final int							INT			= 7;
+	private static final int							LONG		= 8;
+	private static final int							FLOAT		= 9;
+	private static final int							DOUBLE		= 10;
+	private static final int							STRING		= 11;
+	private static final int							ENUM		= 12;
+	private static final int							CLASS		= 13;
+	private static final int							ARRAY		= 14;
+	private static final int							OBJECT		= 15;
+	private static final int							COLLECTION	= 16;
+	private static final int							MAP			= 17;
+	private static final int							JAVA		= 18;
+	private static final int							DATE		= 19;
+	private static final int							BIG_INTEGER	= 20;
+	private static final int							BIG_DECIMAL	= 21;
+
+	/**
+	 * The collections and maps written as their elements.
+	 */
+	private static final Map<Class<?>, Boolean>			CONTAINERS;
+	/**
+	 * The <code>accessOrder</code> field of {@linkplain LinkedHashMap},
+	 * <code>null</code> if it is inaccessible, then all the linked hash maps
+	 * are embedded in Java serialization.
+	 */
+	private static final Field							ACCESS_ORDER;
+	/**
+	 * The primitive types by name.
+	 */
+	private static final Map<String, Class<?>>			PRIMITIVES;
+	/**
+	 * The cached layouts of the classes.
+	 */
+	private static final ConcurrentHashMap<Class<?>, Layout>	layouts		= new ConcurrentHashMap<Class<?>, Layout>();
+	static
+	{
+		CONTAINERS = new HashMap<Class<?>, Boolean>();
+		for (Class<?> c : Arrays.<Class<?>> asList(ArrayList.class, LinkedList.class, ArrayDeque.class,
+				HashSet.class, LinkedHashSet.class, TreeSet.class))
+			CONTAINERS.put(c, Boolean.FALSE);
+		for (Class<?> c : Arrays.<Class<?>> asList(HashMap.class, LinkedHashMap.class, TreeMap.class,
+				Hashtable.class, ConcurrentHashMap.class))
+			CONTAINERS.put(c, Boolean.TRUE);
+		Field f = null;
+		try
+		{
+			f = LinkedHashMap.class.getDeclaredField("accessOrder");
+			f.setAccessible(true);
+		}
+		catch (Exception e)
+		{
+			// Not accessible on this JVM.
+			f = null;
+		}
+		ACCESS_ORDER = f;
+		PRIMITIVES = new HashMap<String, Class<?>>();
+		for (Class<?> c : Arrays.<Class<?>> asList(boolean.class, byte.class, short.class, char.class, int.class,
+				long.class, float.class, double.class, void.class))
+			PRIMITIVES.put(c.getName(), c);
+	}
+
+	/**
+	 * The class loader resolving the classes, <code>null</code> for the
+	 * context class loader of the reading thread.
+	 */
+	protected final ClassLoader							loader;
+
+	/**
+	 * Construct an instance of <tt>BinarySerializer</tt> resolving the classes
+	 * with the context class loader.
+	 */
+	public BinarySerializer()
+	{
+		this(null);
+	}
+
+	/**
+	 * Construct an instance of <tt>BinarySerializer</tt>.
+	 * 
+	 * @param loader
+	 *            the class loader resolving the classes, <code>null</code> for
+	 *            the context class loader of the reading thread
+	 */
+	public BinarySerializer(ClassLoader loader)
+	{
+		this.loader = loader;
+	}
+
+	/**
+	 * @see com.frank.sys.Serializer#write(java.io.OutputStream,
+	 *      java.lang.Object)
+	 */
+	@Override
+	public void write(OutputStream out, Object obj) throws IOException
+	{
+		DataOutputStream dos = new DataOutputStream(out);
+		dos.writeByte(MAGIC);
+		dos.writeByte(VERSION);
+		new Output(dos).writeValue(obj);
+		dos.flush();
+	}
+
+	/**
+	 * @see com.frank.sys.Serializer#read(java.io.InputStream)
+	 */
+	@Override
+	public Object read(InputStream in) throws IOException, ClassNotFoundException
+	{
+		DataInputStream dis = new DataInputStream(in);
+		if (dis.readUnsignedByte() != MAGIC)
+			throw new StreamCorruptedException("Not a binary serialized stream.");
+		int version = dis.readUnsignedByte();
+		if (version != VERSION)
+			throw new StreamCorruptedException(String.format("Unsupported version: %d", version));
+		ClassLoader cl = loader;
+		if (cl == null)
+			cl = Thread.currentThread().getContextClassLoader();
+		if (cl == null)
+			cl = BinarySerializer.class.getClassLoader();
+		return new Input(dis, cl).readValue();
+	}
+
+	/**
+	 * Returns the cached layout of the specified class.
+	 * 
+	 * @param c
+	 *            the class
+	 * @return the layout
+	 */
+	private static Layout layout(Class<?> c)
+	{
+		Layout layout = layouts.get(c);
+		if (layout == null)
+		{
+			layout = new Layout(c);
+			Layout old = layouts.putIfAbsent(c, layout);
+			if (old != null)
+				layout = old;
+		}
+		return layout;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the specified container is written as its
+	 * elements.
+	 * 
+	 * @param obj
+	 *            the container
+	 * @return <tt>true</tt> if the container is written as its elements
+	 */
+	private static boolean isPlainContainer(Object obj)
+	{
+		// The comparator is not restored.
+		if (obj instanceof SortedSet)
+			return ((SortedSet<?>) obj).comparator() == null;
+		if (obj instanceof SortedMap)
+			return ((SortedMap<?, ?>) obj).comparator() == null;
+		// The access order is not restored.
+		if (obj instanceof LinkedHashMap)
+			try
+			{
+				return ACCESS_ORDER != null && !ACCESS_ORDER.getBoolean(obj);
+			}
+			catch (IllegalAccessException e)
+			{
+				return false;
+			}
+		return true;
+	}
+
+	/**
+	 * The field layout of a class.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	private static final class Layout
+	{
+		/**
+		 * The <code>sun.reflect.ReflectionFactory</code>, looked up by
+		 * reflection as it is not a public API, <code>null</code> if it is not
+		 * available, then all the objects are embedded in Java serialization.
+		 */
+		private static final Object	factory;
+		/**
+		 * The method creating a constructor which calls the constructor of
+		 * <code>Object</code> only.
+		 */
+		private static final Method	newConstructor;
+
+		static
+		{
+			Object f = null;
+			Method m = null;
+			try
+			{
+				Class<?> c = Class.forName("sun.reflect.ReflectionFactory");
+				f = c.getMethod("getReflectionFactory").invoke(null);
+				m = c.getMethod("newConstructorForSerialization", Class.class, Constructor.class);
+			}
+			catch (Exception e)
+			{
+				// Not available on this JVM.
+			}
+			factory = f;
+			newConstructor = m;
+		}
+
+		/**
+		 * Whether the objects are embedded in Java serialization.
+		 */
+		final boolean			java;
+		/**
+		 * The serialized fields, superclass fields first.
+		 */
+		final Field[]			fields;
+		/**
+		 * The type codes of the fields, the JVM descriptor of the primitive
+		 * types or <code>L</code> for the references.
+		 */
+		final char[]			codes;
+		/**
+		 * The constructor instantiating the objects.
+		 */
+		final Constructor<?>	constructor;
+
+		Layout(Class<?> c)
+		{
+			List<Field> list = new ArrayList<Field>();
+			Constructor<?> ctor = null;
+			boolean embed = isCustomized(c);
+			if (!embed)
+				try
+				{
+					List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+					for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass())
+						hierarchy.add(0, k);
+					for (Class<?> k : hierarchy)
+					{
+						Field[] declared = k.getDeclaredFields();
+						// The declaration order is not specified, sort by name.
+						Arrays.sort(declared, new Comparator<Field>()
+						{
+							@Override
+							public int compare(Field a, Field b)
+							{
+								return a.getName().compareTo(b.getName());
+							}
+						});
+						for (Field f : declared)
+						{
+							int m = f.getModifiers();
+							if (Modifier.isStatic(m) || Modifier.isTransient(m))
+								continue;
+							f.setAccessible(true);
+							list.add(f);
+						}
+					}
+					if (newConstructor == null)
+						throw new UnsupportedOperationException("No ReflectionFactory.");
+					ctor = (Constructor<?>) newConstructor.invoke(factory, c, Object.class.getDeclaredConstructor());
+					ctor.setAccessible(true);
+				}
+				catch (Exception e)
+				{
+					// The fields or the constructor are inaccessible, or there is
+					// no ReflectionFactory.
+					embed = true;
+				}
+			java = embed;
+			fields = embed ? new Field[0] : list.toArray(new Field[list.size()]);
+			codes = new char[fields.length];
+			for (int i = 0; i < fields.length; i++)
+			{
+				Class<?> type = fields[i].getType();
+				codes[i] = type.isPrimitive() ? code(type) : 'L';
+			}
+			constructor = ctor;
+		}
+
+		/**
+		 * Returns the JVM descriptor of the specified primitive type.
+		 */
+		private static char code(Class<?> type)
+		{
+			if (type == int.class)
+				return 'I';
+			if (type == long.class)
+				return 'J';
+			if (type == boolean.class)
+				return 'Z';
+			if (type == double.class)
+				return 'D';
+			if (type == float.class)
+				return 'F';
+			if (type == byte.class)
+				return 'B';
+			if (type == char.class)
+				return 'C';
+			return 'S';
+		}
+
+		/**
+		 * Returns <tt>true</tt> if the specified class must be embedded in Java
+		 * serialization.
+		 */
+		private static boolean isCustomized(Class<?> c)
+		{
+			if (Externalizable.class.isAssignableFrom(c))
+				return true;
+			for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass())
+			{
+				String name = k.getName();
+				if (name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+						|| name.startsWith("jdk.") || name.startsWith("com.sun."))
+					return true;
+				if (hasMethod(k, "writeObject", ObjectOutputStream.class)
+						|| hasMethod(k, "readObject", ObjectInputStream.class) || hasMethod(k, "writeReplace")
+						|| hasMethod(k, "readResolve"))
+					return true;
+			}
+			return false;
+		}
+
+		private static boolean hasMethod(Class<?> c, String name, Class<?>... parameters)
+		{
+			try
+			{
+				Method m = c.getDeclaredMethod(name, parameters);
+				return !Modifier.isStatic(m.getModifiers());
+			}
+			catch (NoSuchMethodException e)
+			{
+				return false;
+			}
+		}
+
+		Object newInstance() throws IOException
+		{
+			try
+			{
+				return constructor.newInstance();
+			}
+			catch (Exception e)
+			{
+				throw new IOException(String.format("Can not instantiate %s.", constructor.getDeclaringClass()), e);
+			}
+		}
+	}
+
+	/**
+	 * The state of a stream being written.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	private static final class Output
+	{
+		private final DataOutputStream					out;
+		private final IdentityHashMap<Object, Integer>	handles;
+		private final HashMap<Class<?>, Integer>		classes;
+
+		Output(DataOutputStream out)
+		{
+			this.out = out;
+			handles = new IdentityHashMap<Object, Integer>();
+			classes = new HashMap<Class<?>, Integer>();
+		}
+
+		void writeValue(Object obj) throws IOException
+		{
+			if (obj == null)
+			{
+				out.writeByte(NULL);
+				return;
+			}
+			Class<?> c = obj.getClass();
+			if (c == Integer.class)
+			{
+				out.writeByte(INT);
+				writeVarInt((Integer) obj);
+				return;
+			}
+			if (c == Long.class)
+			{
+				out.writeByte(LONG);
+				out.writeLong((Long) obj);
+				return;
+			}
+			if (c == Boolean.class)
+			{
+				out.writeByte((Boolean) obj ? TRUE : FALSE);
+				return;
+			}
+			if (c == Double.class)
+			{
+				out.writeByte(DOUBLE);
+				out.writeDouble((Double) obj);
+				return;
+			}
+			if (c == Float.class)
+			{
+				out.writeByte(FLOAT);
+				out.writeFloat((Float) obj);
+				return;
+			}
+			if (c == Byte.class)
+			{
+				out.writeByte(BYTE);
+				out.writeByte((Byte) obj);
+				return;
+			}
+			if (c == Short.class)
+			{
+				out.writeByte(SHORT);
+				out.writeShort((Short) obj);
+				return;
+			}
+			if (c == Character.class)
+			{
+				out.writeByte(CHAR);
+				out.writeChar((Character) obj);
+				return;
+			}
+			Integer handle = handles.get(obj);
+			if (handle != null)
+			{
+				out.writeByte(REF);
+				writeVarInt(handle);
+				return;
+			}
+			if (c == String.class)
+			{
+				handles.put(obj, handles.size());
+				out.writeByte(STRING);
+				writeString((String) obj);
+				return;
+			}
+			if (obj instanceof Enum)
+			{
+				out.writeByte(ENUM);
+				writeClass(((Enum<?>) obj).getDeclaringClass());
+				writeString(((Enum<?>) obj).name());
+				return;
+			}
+			if (c == Class.class)
+			{
+				out.writeByte(CLASS);
+				writeClass((Class<?>) obj);
+				return;
+			}
+			// The common values of the platform are not worth an embedded
+			// Java serialization.
+			if (c == Date.class)
+			{
+				handles.put(obj, handles.size());
+				out.writeByte(DATE);
+				out.writeLong(((Date) obj).getTime());
+				return;
+			}
+			if (c == BigInteger.class)
+			{
+				handles.put(obj, handles.size());
+				out.writeByte(BIG_INTEGER);
+				writeBytes(((BigInteger) obj).toByteArray());
+				return;
+			}
+			if (c == BigDecimal.class)
+			{
+				handles.put(obj, handles.size());
+				out.writeByte(BIG_DECIMAL);
+				writeBytes(((BigDecimal) obj).unscaledValue().toByteArray());
+				writeVarInt(((BigDecimal) obj).scale());
+				return;
+			}
+			if (c.isArray())
+			{
+				handles.put(obj, handles.size());
+				out.writeByte(ARRAY);
+				writeClass(c);
+				writeArray(obj, c.getComponentType());
+				return;
+			}
+			Boolean map = CONTAINERS.get(c);
+			if (map != null && isPlainContainer(obj))
+			{
+				handles.put(obj, handles.size());
+				if (map)
+				{
+					Map<?, ?> m = (Map<?, ?>) obj;
+					out.writeByte(MAP);
+					writeClass(c);
+					writeVarInt(m.size());
+					for (Map.Entry<?, ?> e : m.entrySet())
+					{
+						writeValue(e.getKey());
+						writeValue(e.getValue());
+					}
+				}
+				else
+				{
+					Collection<?> col = (Collection<?>) obj;
+					out.writeByte(COLLECTION);
+					writeClass(c);
+					writeVarInt(col.size());
+					for (Object e : col)
+						writeValue(e);
+				}
+				return;
+			}
+			Layout layout = layout(c);
+			handles.put(obj, handles.size());
+			if (layout.java)
+			{
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				ObjectOutputStream oos = new ObjectOutputStream(buffer);
+				oos.writeObject(obj);
+				oos.close();
+				out.writeByte(JAVA);
+				writeVarInt(buffer.size());
+				buffer.writeTo(out);
+				return;
+			}
+			out.writeByte(OBJECT);
+			writeClass(c);
+			try
+			{
+				Field[] fields = layout.fields;
+				char[] codes = layout.codes;
+				for (int i = 0; i < fields.length; i++)
+					switch (codes[i])
+					{
+					case 'I':
+						writeVarInt(fields[i].getInt(obj));
+						break;
+					case 'J':
+						out.writeLong(fields[i].getLong(obj));
+						break;
+					case 'Z':
+						out.writeBoolean(fields[i].getBoolean(obj));
+						break;
+					case 'D':
+						out.writeDouble(fields[i].getDouble(obj));
+						break;
+					case 'F':
+						out.writeFloat(fields[i].getFloat(obj));
+						break;
+					case 'B':
+						out.writeByte(fields[i].getByte(obj));
+						break;
+					case 'C':
+						out.writeChar(fields[i].getChar(obj));
+						break;
+					case 'S':
+						out.writeShort(fields[i].getShort(obj));
+						break;
+					default:
+						writeValue(fields[i].get(obj));
+					}
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new IOException(e);
+			}
+		}
+
+		private void writeArray(Object array, Class<?> component) throws IOException
+		{
+			int length = Array.getLength(array);
+			writeVarInt(length);
+			if (!component.isPrimitive())
+			{
+				Object[] a = (Object[]) array;
+				for (int i = 0; i < length; i++)
+					writeValue(a[i]);
+			}
+			else if (component == byte.class)
+				out.write((byte[]) array);
+			else if (component == int.class)
+				for (int v : (int[]) array)
+					out.writeInt(v);
+			else if (component == long.class)
+				for (long v : (long[]) array)
+					out.writeLong(v);
+			else if (component == double.class)
+				for (double v : (double[]) array)
+					out.writeDouble(v);
+			else if (component == char.class)
+				for (char v : (char[]) array)
+					out.writeChar(v);
+			else if (component == float.class)
+				for (float v : (float[]) array)
+					out.writeFloat(v);
+			else if (component == short.class)
+				for (short v : (short[]) array)
+					out.writeShort(v);
+			else
+				for (boolean v : (boolean[]) array)
+					out.writeBoolean(v);
+		}
+
+		private void writeClass(Class<?> c) throws IOException
+		{
+			Integer index = classes.get(c);
+			if (index != null)
+			{
+				writeVarInt(index);
+				return;
+			}
+			writeVarInt(classes.size());
+			classes.put(c, classes.size());
+			writeString(c.getName());
+		}
+
+		private void writeString(String s) throws IOException
+		{
+			writeBytes(s.getBytes(UTF8));
+		}
+
+		private void writeBytes(byte[] b) throws IOException
+		{
+			writeVarInt(b.length);
+			out.write(b);
+		}
+
+		/**
+		 * Write an integer in 1 to 5 bytes, the small non-negative values take
+		 * less bytes.
+		 */
+		private void writeVarInt(int v) throws IOException
+		{
+			while ((v & ~0x7F) != 0)
+			{
+				out.writeByte((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			out.writeByte(v);
+		}
+	}
+
+	/**
+	 * The state of a stream being read.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	private static final class Input
+	{
+		private final DataInputStream	in;
+		private final ClassLoader		loader;
+		private final List<Object>		handles;
+		private final List<Class<?>>	classes;
+		private byte[]					buffer;
+
+		Input(DataInputStream in, ClassLoader loader)
+		{
+			this.in = in;
+			this.loader = loader;
+			handles = new ArrayList<Object>();
+			classes = new ArrayList<Class<?>>();
+			buffer = new byte[64];
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Object readValue() throws IOException, ClassNotFoundException
+		{
+			int tag = in.readUnsignedByte();
+			switch (tag)
+			{
+			case NULL:
+				return null;
+			case REF:
+			{
+				int handle = readVarInt();
+				if (handle >= handles.size())
+					throw new StreamCorruptedException(String.format("Invalid handle: %d", handle));
+				return handles.get(handle);
+			}
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case BYTE:
+				return in.readByte();
+			case SHORT:
+				return in.readShort();
+			case CHAR:
+				return in.readChar();
+			case INT:
+				return readVarInt();
+			case LONG:
+				return in.readLong();
+			case FLOAT:
+				return in.readFloat();
+			case DOUBLE:
+				return in.readDouble();
+			case STRING:
+			{
+				String s = readString();
+				handles.add(s);
+				return s;
+			}
+			case ENUM:
+			{
+				Class c = readClass();
+				if (!c.isEnum())
+					throw new InvalidClassException(c.getName(), "Not an enum class.");
+				return Enum.valueOf(c, readString());
+			}
+			case CLASS:
+				return readClass();
+			case ARRAY:
+			{
+				Class<?> c = readClass();
+				if (!c.isArray())
+					throw new InvalidClassException(c.getName(), "Not an array class.");
+				return readArray(c.getComponentType());
+			}
+			case COLLECTION:
+			case MAP:
+			{
+				Class<?> c = readClass();
+				Boolean map = CONTAINERS.get(c);
+				if (map == null || map != (tag == MAP))
+					throw new InvalidClassException(c.getName(), "Not a supported container.");
+				Object container;
+				try
+				{
+					container = c.newInstance();
+				}
+				catch (Exception e)
+				{
+					throw new IOException(String.format("Can not instantiate %s.", c), e);
+				}
+				handles.add(container);
+				int size = readVarInt();
+				if (map)
+				{
+					Map m = (Map) container;
+					for (int i = 0; i < size; i++)
+						m.put(readValue(), readValue());
+				}
+				else
+				{
+					Collection col = (Collection) container;
+					for (int i = 0; i < size; i++)
+						col.add(readValue());
+				}
+				return container;
+			}
+			case DATE:
+			{
+				Date date = new Date(in.readLong());
+				handles.add(date);
+				return date;
+			}
+			case BIG_INTEGER:
+			{
+				BigInteger value = new BigInteger(readBytes());
+				handles.add(value);
+				return value;
+			}
+			case BIG_DECIMAL:
+			{
+				BigInteger unscaled = new BigInteger(readBytes());
+				BigDecimal value = new BigDecimal(unscaled, readVarInt());
+				handles.add(value);
+				return value;
+			}
+			case JAVA:
+			{
+				Object obj = new ObjectInputStream(new ByteArrayInputStream(readBytes()))
+				{
+					@Override
+					protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+							ClassNotFoundException
+					{
+						try
+						{
+							return Class.forName(desc.getName(), false, loader);
+						}
+						catch (ClassNotFoundException e)
+						{
+							return super.resolveClass(desc);
+						}
+					}
+				}.readObject();
+				handles.add(obj);
+				return obj;
+			}
+			case OBJECT:
+				return readObject(readClass());
+			default:
+				throw new StreamCorruptedException(String.format("Invalid tag: %d", tag));
+			}
+		}
+
+		private Object readObject(Class<?> c) throws IOException, ClassNotFoundException
+		{
+			Layout layout = layout(c);
+			if (layout.java)
+				throw new InvalidClassException(c.getName(), "The class is not serialized by fields.");
+			Object obj = layout.newInstance();
+			handles.add(obj);
+			try
+			{
+				Field[] fields = layout.fields;
+				char[] codes = layout.codes;
+				for (int i = 0; i < fields.length; i++)
+					switch (codes[i])
+					{
+					case 'I':
+						fields[i].setInt(obj, readVarInt());
+						break;
+					case 'J':
+						fields[i].setLong(obj, in.readLong());
+						break;
+					case 'Z':
+						fields[i].setBoolean(obj, in.readBoolean());
+						break;
+					case 'D':
+						fields[i].setDouble(obj, in.readDouble());
+						break;
+					case 'F':
+						fields[i].setFloat(obj, in.readFloat());
+						break;
+					case 'B':
+						fields[i].setByte(obj, in.readByte());
+						break;
+					case 'C':
+						fields[i].setChar(obj, in.readChar());
+						break;
+					case 'S':
+						fields[i].setShort(obj, in.readShort());
+						break;
+					default:
+						fields[i].set(obj, readValue());
+					}
+			}
+			catch (IllegalAccessException | IllegalArgumentException e)
+			{
+				throw new InvalidClassException(c.getName(), e.toString());
+			}
+			return obj;
+		}
+
+		private Object readArray(Class<?> component) throws IOException, ClassNotFoundException
+		{
+			int length = readVarInt();
+			if (length < 0)
+				throw new StreamCorruptedException(String.format("Invalid array length: %d", length));
+			Object array = Array.newInstance(component, length);
+			handles.add(array);
+			if (!component.isPrimitive())
+			{
+				Object[] a = (Object[]) array;
+				for (int i = 0; i < length; i++)
+					a[i] = readValue();
+			}
+			else if (component == byte.class)
+				in.readFully((byte[]) array);
+			else if (component == int.class)
+			{
+				int[] a = (int[]) array;
+				for (int i = 0; i < length; i++)
+					a[i] = in.readInt();
+			}
+			else if (component == long.class)
+			{
+				long[] a = (long[]) array;
+				for (int i = 0; i < length; i++)
+					a[i] = in.readLong();
+			}
+			else if (component == double.class)
+			{
+				double[] a = (double[]) array;
+				for (int i = 0; i < length; i++)
+					a[i] = in.readDouble();
+			}
+			else if (component == char.class)
+			{
+				char[] a = (char[]) array;
+				for (int i = 0; i < length; i++)
+					a[i] = in.readChar();
+			}
+			else if (component == float.class)
+			{
+				float[] a = (float[]) array;
+				for (int i = 0; i < length; i++)
+					a[i] = in.readFloat();
+			}
+			else if (component == short.class)
+			{
+				short[] a = (short[]) array;
+				for (int i = 0; i < length; i++)
+					a[i] = in.readShort();
+			}
+			else
+			{
+				boolean[] a = (boolean[]) array;
+				for (int i = 0; i < length; i++)
+					a[i] = in.readBoolean();
+			}
+			return array;
+		}
+
+		private Class<?> readClass() throws IOException, ClassNotFoundException
+		{
+			int index = readVarInt();
+			if (index < classes.size())
+				return classes.get(index);
+			if (index != classes.size())
+				throw new StreamCorruptedException(String.format("Invalid class index: %d", index));
+			String name = readString();
+			Class<?> c = PRIMITIVES.get(name);
+			if (c == null)
+				c = Class.forName(name, false, loader);
+			classes.add(c);
+			return c;
+		}
+
+		private String readString() throws IOException
+		{
+			int length = readVarInt();
+			if (length < 0)
+				throw new StreamCorruptedException(String.format("Invalid string length: %d", length));
+			if (buffer.length < length)
+				buffer = new byte[Math.max(length, buffer.length * 2)];
+			in.readFully(buffer, 0, length);
+			return new String(buffer, 0, length, UTF8);
+		}
+
+		private byte[] readBytes() throws IOException
+		{
+			int length = readVarInt();
+			if (length <= 0)
+				throw new StreamCorruptedException(String.format("Invalid byte array length: %d", length));
+			byte[] b = new byte[length];
+			in.readFully(b);
+			return b;
+		}
+
+		private int readVarInt() throws IOException
+		{
+			int v = 0;
+			for (int shift = 0; shift < 35; shift += 7)
+			{
+				int b = in.readUnsignedByte();
+				v |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return v;
+			}
+			throw new StreamCorruptedException("Malformed variable length integer.");
+		}
+	}
+}
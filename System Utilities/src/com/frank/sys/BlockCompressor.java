@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * BlockCompressor.java is PROPRIETARY/CONFIDENTIAL built in 5:41:19 PM, Oct
+ * 18, 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+/**
+ * The LZ77 block compressor in the format of the LZ4 blocks.
+ * <p>
+ * A block is compressed as a sequence of literal runs and back references of
+ * at least 4 bytes within 64 KB, found greedily with a hash table of the
+ * 4-byte prefixes. The incompressible data are skipped faster and faster, so
+ * the compression runs at hundreds of megabytes per second and the
+ * decompression is mostly array copies. The ratio is lower than
+ * {@linkplain java.util.zip.Deflater}, the speed is many times higher.
+ * </p>
+ * <p>
+ * An instance holds the hash table reused by the compression, it is not
+ * thread safe. The decompression is static.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @see CompressedOutputStream
+ * @see CompressedInputStream
+ */
+public class BlockCompressor
+{
+	/**
+	 * The minimum length of a match.
+	 */
+	private static final int	MIN_MATCH		= 4;
+	/**
+	 * The count of the bytes at the end of a block which are always literals.
+	 */
+	private static final int	LAST_LITERALS	= 5;
+	/**
+	 * The minimum distance from the start of the last match to the end of a
+	 * block.
+	 */
+	private static final int	MF_LIMIT		= 12;
+	/**
+	 * The maximum distance of a back reference.
+	 */
+	private static final int	MAX_DISTANCE	= 0xFFFF;
+	/**
+	 * The binary logarithm of the size of the hash table.
+	 */
+	private static final int	HASH_LOG		= 12;
+	/**
+	 * The binary logarithm of the count of the misses before the search step
+	 * is increased.
+	 */
+	private static final int	SKIP_TRIGGER	= 6;
+
+	/**
+	 * The positions of the 4-byte prefixes plus one, 0 for none.
+	 */
+	private final int[]			table			= new int[1 << HASH_LOG];
+
+	/**
+	 * Returns the maximum length of the compressed data of the specified
+	 * length.
+	 * 
+	 * @param length
+	 *            the length of the data
+	 * @return the maximum compressed length
+	 */
+	public static int maxCompressedLength(int length)
+	{
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compress the specified data.
+	 * 
+	 * @param src
+	 *            the source array
+	 * @param srcOff
+	 *            the offset of the data
+	 * @param srcLen
+	 *            the length of the data
+	 * @param dst
+	 *            the destination array, at least
+	 *            {@link #maxCompressedLength(int)} bytes from the offset
+	 * @param dstOff
+	 *            the offset of the compressed data
+	 * @return the length of the compressed data
+	 */
+	public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff)
+	{
+		int end = srcOff + srcLen;
+		int anchor = srcOff;
+		int dp = dstOff;
+		if (srcLen > MF_LIMIT)
+		{
+			Arrays.fill(table, 0);
+			int limit = end - MF_LIMIT;
+			int matchLimit = end - LAST_LITERALS;
+			int sp = srcOff;
+			int misses = 1 << SKIP_TRIGGER;
+			while (sp < limit)
+			{
+				int seq = readInt(src, sp);
+				int h = hash(seq);
+				int ref = table[h] - 1 + srcOff;
+				table[h] = sp - srcOff + 1;
+				if (ref < srcOff || sp - ref > MAX_DISTANCE || readInt(src, ref) != seq)
+				{
+					sp += misses++ >>> SKIP_TRIGGER;
+					continue;
+				}
+				misses = 1 << SKIP_TRIGGER;
+				while (sp > anchor && ref > srcOff && src[sp - 1] == src[ref - 1])
+				{
+					sp--;
+					ref--;
+				}
+				int length = MIN_MATCH;
+				while (sp + length < matchLimit && src[sp + length] == src[ref + length])
+					length++;
+				dp = writeSequence(src, anchor, sp - anchor, sp - ref, length, dst, dp);
+				sp += length;
+				anchor = sp;
+				if (sp < limit)
+					table[hash(readInt(src, sp - 2))] = sp - 2 - srcOff + 1;
+			}
+		}
+		int literals = end - anchor;
+		int token = dp++;
+		if (literals >= 15)
+		{
+			dst[token] = (byte) 0xF0;
+			dp = writeLength(literals - 15, dst, dp);
+		}
+		else
+			dst[token] = (byte) (literals << 4);
+		System.arraycopy(src, anchor, dst, dp, literals);
+		return dp + literals - dstOff;
+	}
+
+	/**
+	 * Decompress the specified data.
+	 * 
+	 * @param src
+	 *            the source array
+	 * @param srcOff
+	 *            the offset of the compressed data
+	 * @param srcLen
+	 *            the length of the compressed data
+	 * @param dst
+	 *            the destination array
+	 * @param dstOff
+	 *            the offset of the decompressed data
+	 * @param dstLen
+	 *            the maximum length of the decompressed data
+	 * @return the length of the decompressed data
+	 * @throws StreamCorruptedException
+	 *             if the compressed data are malformed or the decompressed data
+	 *             exceed the maximum length
+	 */
+	public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+			throws StreamCorruptedException
+	{
+		int sp = srcOff, send = srcOff + srcLen;
+		int dp = dstOff, dend = dstOff + dstLen;
+		while (true)
+		{
+			if (sp >= send)
+				throw new StreamCorruptedException("Truncated compressed block.");
+			int token = src[sp++] & 0xFF;
+			int literals = token >>> 4;
+			if (literals == 15)
+			{
+				int b;
+				do
+				{
+					if (sp >= send)
+						throw new StreamCorruptedException("Truncated compressed block.");
+					b = src[sp++] & 0xFF;
+					literals += b;
+				}
+				while (b == 255 && literals <= dstLen);
+			}
+			if (literals > send - sp || literals > dend - dp)
+				throw new StreamCorruptedException("Literals out of the block.");
+			System.arraycopy(src, sp, dst, dp, literals);
+			sp += literals;
+			dp += literals;
+			if (sp == send)
+				return dp - dstOff;
+			if (send - sp < 2)
+				throw new StreamCorruptedException("Truncated compressed block.");
+			int offset = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+			sp += 2;
+			int ref = dp - offset;
+			if (offset == 0 || ref < dstOff)
+				throw new StreamCorruptedException(String.format("Invalid match offset: %d", offset));
+			int length = token & 0x0F;
+			if (length == 15)
+			{
+				int b;
+				do
+				{
+					if (sp >= send)
+						throw new StreamCorruptedException("Truncated compressed block.");
+					b = src[sp++] & 0xFF;
+					length += b;
+				}
+				while (b == 255 && length <= dstLen);
+			}
+			length += MIN_MATCH;
+			if (length > dend - dp)
+				throw new StreamCorruptedException("Match out of the block.");
+			if (offset >= length)
+				System.arraycopy(dst, ref, dst, dp, length);
+			else
+				// The match overlaps itself, it repeats the last bytes.
+				for (int i = 0; i < length; i++)
+					dst[dp + i] = dst[ref + i];
+			dp += length;
+		}
+	}
+
+	private static int writeSequence(byte[] src, int anchor, int literals, int offset, int length, byte[] dst,
+			int dp)
+	{
+		int token = dp++;
+		int t;
+		if (literals >= 15)
+		{
+			t = 0xF0;
+			dp = writeLength(literals - 15, dst, dp);
+		}
+		else
+			t = literals << 4;
+		System.arraycopy(src, anchor, dst, dp, literals);
+		dp += literals;
+		dst[dp++] = (byte) offset;
+		dst[dp++] = (byte) (offset >>> 8);
+		length -= MIN_MATCH;
+		if (length >= 15)
+		{
+			t |= 0x0F;
+			dp = writeLength(length - 15, dst, dp);
+		}
+		else
+			t |= length;
+		dst[token] = (byte) t;
+		return dp;
+	}
+
+	private static int writeLength(int length, byte[] dst, int dp)
+	{
+		while (length >= 255)
+		{
+			dst[dp++] = (byte) 255;
+			length -= 255;
+		}
+		dst[dp++] = (byte) length;
+		return dp;
+	}
+
+	private static int readInt(byte[] b, int i)
+	{
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | b[i + 3] << 24;
+	}
+
+	private static int hash(int seq)
+	{
+		return seq * -1640531535 >>> 32 - HASH_LOG;
+	}
+}
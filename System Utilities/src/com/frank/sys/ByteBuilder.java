@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * ByteBuilder.java is PROPRIETARY/CONFIDENTIAL built in 9:50:12 AM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The growable primitive byte buffer.
+ * <p>
+ * The builder stores the bytes in a plain <code>byte[]</code> and grows it
+ * geometrically, which is what {@linkplain StringBuilder} does for chars. When
+ * the final size is known in advance, construct the builder with that
+ * capacity and no copy is made at all.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class ByteBuilder
+{
+	/**
+	 * The maximum size of array to allocate.
+	 * <p>
+	 * Some VMs reserve some header words in an array.
+	 * </p>
+	 */
+	public static final int	MAX_ARRAY_SIZE	= Integer.MAX_VALUE - 8;
+	/**
+	 * The bytes stored.
+	 */
+	protected byte[]		data;
+	/**
+	 * The count of the bytes stored.
+	 */
+	protected int			count;
+
+	/**
+	 * Construct an instance of <tt>ByteBuilder</tt> with the default capacity
+	 * {@linkplain SystemUtils#BUFFER_SIZE}.
+	 */
+	public ByteBuilder()
+	{
+		this(SystemUtils.BUFFER_SIZE);
+	}
+
+	/**
+	 * Construct an instance of <tt>ByteBuilder</tt>.
+	 * 
+	 * @param capacity
+	 *            the initial capacity
+	 */
+	public ByteBuilder(int capacity)
+	{
+		if (capacity < 0)
+			throw new IllegalArgumentException(String.format("Illegal capacity: %d", capacity));
+		data = new byte[capacity];
+	}
+
+	/**
+	 * Ensure the capacity of the builder is at least equal to the specified
+	 * minimum.
+	 * 
+	 * @param minCapacity
+	 *            the desired minimum capacity
+	 */
+	public void ensureCapacity(int minCapacity)
+	{
+		if (minCapacity < 0)
+			throw new OutOfMemoryError("Required array size too large.");
+		if (minCapacity > data.length)
+		{
+			int capacity = data.length + (data.length >> 1) + 1;
+			if (capacity < minCapacity || capacity < 0)
+				capacity = minCapacity;
+			if (capacity > MAX_ARRAY_SIZE)
+				capacity = Math.max(minCapacity, MAX_ARRAY_SIZE);
+			data = Arrays.copyOf(data, capacity);
+		}
+	}
+
+	/**
+	 * Append the specified byte.
+	 * 
+	 * @param b
+	 *            the byte to append, only the low 8 bits are used
+	 * @return this builder
+	 */
+	public ByteBuilder append(int b)
+	{
+		ensureCapacity(count + 1);
+		data[count++] = (byte) b;
+		return this;
+	}
+
+	/**
+	 * Append the specified bytes.
+	 * 
+	 * @param b
+	 *            the bytes to append
+	 * @param off
+	 *            the offset of the first byte to append
+	 * @param len
+	 *            the count of the bytes to append
+	 * @return this builder
+	 */
+	public ByteBuilder append(byte[] b, int off, int len)
+	{
+		if (off < 0 || len < 0 || off > b.length - len)
+			throw new IndexOutOfBoundsException();
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, data, count, len);
+		count += len;
+		return this;
+	}
+
+	/**
+	 * Append the specified bytes.
+	 * 
+	 * @param b
+	 *            the bytes to append
+	 * @return this builder
+	 */
+	public ByteBuilder append(byte[] b)
+	{
+		return append(b, 0, b.length);
+	}
+
+	/**
+	 * Read the specified input stream to the end and append all the read bytes.
+	 * <p>
+	 * The bytes are read directly into the backing array, no intermediate
+	 * buffer is used. When the backing array is exactly filled, one more byte
+	 * is probed before growing, so a builder constructed with the exact length
+	 * of the stream never grows. The input stream will not be closed.
+	 * </p>
+	 * 
+	 * @param in
+	 *            the input stream to read
+	 * @param chunk
+	 *            the minimum free space to reserve before each read when the
+	 *            builder has to grow
+	 * @return the count of the bytes read
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public long readFrom(InputStream in, int chunk) throws IOException
+	{
+		if (chunk <= 0)
+			throw new IllegalArgumentException(String.format("Illegal chunk size: %d", chunk));
+		long total = 0;
+		while (true)
+		{
+			if (count == data.length)
+			{
+				int b = in.read();
+				if (b == -1)
+					break;
+				ensureCapacity(count + Math.max(1, Math.min(chunk, MAX_ARRAY_SIZE - count)));
+				data[count++] = (byte) b;
+				total++;
+			}
+			int r = in.read(data, count, data.length - count);
+			if (r == -1)
+				break;
+			count += r;
+			total += r;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the count of the bytes stored.
+	 * 
+	 * @return the count of the bytes
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns the current capacity.
+	 * 
+	 * @return the capacity
+	 */
+	public int capacity()
+	{
+		return data.length;
+	}
+
+	/**
+	 * Returns the byte at the specified index.
+	 * 
+	 * @param index
+	 *            the index of the byte
+	 * @return the byte
+	 */
+	public byte get(int index)
+	{
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, count));
+		return data[index];
+	}
+
+	/**
+	 * Returns the backing array.
+	 * <p>
+	 * Only the first {@link #size()} bytes are valid. The array is shared with
+	 * this builder, call {@link #trimToSize()} before to get an array with
+	 * exactly the stored bytes.
+	 * </p>
+	 * 
+	 * @return the backing array
+	 */
+	public byte[] array()
+	{
+		return data;
+	}
+
+	/**
+	 * Trim the capacity of the builder to the count of the stored bytes.
+	 * <p>
+	 * Nothing is copied if the builder is already full.
+	 * </p>
+	 */
+	public void trimToSize()
+	{
+		if (count < data.length)
+			data = Arrays.copyOf(data, count);
+	}
+
+	/**
+	 * Returns a copy of the stored bytes.
+	 * 
+	 * @return the copy of the bytes
+	 */
+	public byte[] toByteArray()
+	{
+		return Arrays.copyOf(data, count);
+	}
+
+	/**
+	 * Remove all the stored bytes, the capacity is kept.
+	 */
+	public void clear()
+	{
+		count = 0;
+	}
+}
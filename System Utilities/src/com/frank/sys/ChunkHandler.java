@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * ChunkHandler.java is PROPRIETARY/CONFIDENTIAL built in 10:21:37 AM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The handler of the byte chunks read from a channel.
+ * <p>
+ * The chunk buffer is reused by the reader, so the handler must not keep any
+ * reference to it after it returns.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @see SystemUtils#readChannel(java.nio.file.Path, ByteBuffer, ChunkHandler)
+ */
+public interface ChunkHandler
+{
+	/**
+	 * Handle the specified chunk.
+	 * <p>
+	 * The bytes to handle are between the position and the limit of the
+	 * chunk. The bytes left remaining are kept and handled again with the next
+	 * chunk.
+	 * </p>
+	 * 
+	 * @param chunk
+	 *            the chunk to handle
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public void handle(ByteBuffer chunk) throws IOException;
+}
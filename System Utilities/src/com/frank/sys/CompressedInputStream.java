@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * CompressedInputStream.java is PROPRIETARY/CONFIDENTIAL built in 6:07:45 PM,
+ * Oct 18, 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * The input stream decompressing the blocks written by a
+ * {@linkplain CompressedOutputStream}.
+ * <p>
+ * The blocks are read one by one when the data are needed, the stream reaches
+ * its end at the end mark, so the bytes following a compressed stream are not
+ * consumed.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class CompressedInputStream extends InputStream
+{
+	/**
+	 * The underlying input stream.
+	 */
+	protected final DataInputStream	in;
+	/**
+	 * The decompressed data of the current block.
+	 */
+	private byte[]					block;
+	/**
+	 * The compressed data of the current block.
+	 */
+	private byte[]					compressed;
+	/**
+	 * The position in the current block.
+	 */
+	private int						position;
+	/**
+	 * The count of the bytes in the current block.
+	 */
+	private int						count;
+	/**
+	 * Whether the end mark is read.
+	 */
+	private boolean					eof;
+
+	/**
+	 * Construct an instance of <tt>CompressedInputStream</tt>.
+	 * 
+	 * @param in
+	 *            the underlying input stream
+	 * @throws IOException
+	 *             if the header can not be read or is invalid
+	 */
+	public CompressedInputStream(InputStream in) throws IOException
+	{
+		this.in = new DataInputStream(in);
+		if (this.in.readInt() != CompressedOutputStream.MAGIC)
+			throw new StreamCorruptedException("Not a compressed stream.");
+		block = new byte[0];
+		compressed = new byte[0];
+	}
+
+	/**
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public int read() throws IOException
+	{
+		if (position == count && !readBlock())
+			return -1;
+		return block[position++] & 0xFF;
+	}
+
+	/**
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if ((off | len | off + len | b.length - off - len) < 0)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		if (position == count && !readBlock())
+			return -1;
+		int n = Math.min(len, count - position);
+		System.arraycopy(block, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	/**
+	 * @see java.io.InputStream#available()
+	 */
+	@Override
+	public int available() throws IOException
+	{
+		return count - position;
+	}
+
+	/**
+	 * @see java.io.InputStream#close()
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		eof = true;
+		position = count = 0;
+		in.close();
+	}
+
+	/**
+	 * Read the next block.
+	 * 
+	 * @return <code>false</code> if the end of the stream is reached
+	 * @throws IOException
+	 *             if an IO error occurs or the block is corrupted
+	 */
+	private boolean readBlock() throws IOException
+	{
+		while (!eof)
+		{
+			int type = in.read();
+			if (type == -1)
+				throw new EOFException("Unexpected end of the compressed stream.");
+			if (type == CompressedOutputStream.END)
+			{
+				eof = true;
+				break;
+			}
+			int length = in.readInt();
+			if (length <= 0 || length > CompressedOutputStream.MAX_BLOCK_SIZE)
+				throw new StreamCorruptedException(String.format("Invalid block size: %d", length));
+			if (block.length < length)
+				block = new byte[length];
+			if (type == CompressedOutputStream.STORED)
+				in.readFully(block, 0, length);
+			else if (type == CompressedOutputStream.COMPRESSED)
+			{
+				int stored = in.readInt();
+				if (stored <= 0 || stored > BlockCompressor.maxCompressedLength(length))
+					throw new StreamCorruptedException(String.format("Invalid compressed size: %d", stored));
+				if (compressed.length < stored)
+					compressed = new byte[stored];
+				in.readFully(compressed, 0, stored);
+				if (BlockCompressor.decompress(compressed, 0, stored, block, 0, length) != length)
+					throw new StreamCorruptedException("Truncated compressed block.");
+			}
+			else
+				throw new StreamCorruptedException(String.format("Invalid block type: %d", type));
+			position = 0;
+			count = length;
+			return true;
+		}
+		position = count = 0;
+		return false;
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * CompressedOutputStream.java is PROPRIETARY/CONFIDENTIAL built in 5:58:02 PM,
+ * Oct 18, 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The output stream compressing the data in blocks.
+ * <p>
+ * The data are buffered into blocks, every block is compressed by a
+ * {@linkplain BlockCompressor} and stored uncompressed if it does not shrink.
+ * {@link #flush()} ends the current block, so frequent flushes lower the
+ * ratio. The stream must be finished or closed to be read to the end by a
+ * {@linkplain CompressedInputStream}.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class CompressedOutputStream extends OutputStream
+{
+	/**
+	 * The magic number of the stream.
+	 */
+	static final int				MAGIC				= 0x4C5A4231;
+	/**
+	 * The type of the end of the stream.
+	 */
+	static final int				END					= 0;
+	/**
+	 * The type of an uncompressed block.
+	 */
+	static final int				STORED				= 1;
+	/**
+	 * The type of a compressed block.
+	 */
+	static final int				COMPRESSED			= 2;
+	/**
+	 * The maximum size of a block.
+	 */
+	static final int				MAX_BLOCK_SIZE		= 1 << 24;
+	/**
+	 * The default size of a block.
+	 */
+	public static final int			DEFAULT_BLOCK_SIZE	= 1 << 16;
+
+	/**
+	 * The underlying output stream.
+	 */
+	protected final DataOutputStream	out;
+	/**
+	 * The block compressor.
+	 */
+	private final BlockCompressor	compressor;
+	/**
+	 * The uncompressed data of the current block.
+	 */
+	private final byte[]			block;
+	/**
+	 * The compressed data.
+	 */
+	private final byte[]			compressed;
+	/**
+	 * The count of the bytes in the current block.
+	 */
+	private int						count;
+	/**
+	 * Whether the stream is finished.
+	 */
+	private boolean					finished;
+
+	/**
+	 * Construct an instance of <tt>CompressedOutputStream</tt> with the
+	 * default block size.
+	 * 
+	 * @param out
+	 *            the underlying output stream
+	 * @throws IOException
+	 *             if the header can not be written
+	 */
+	public CompressedOutputStream(OutputStream out) throws IOException
+	{
+		this(out, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Construct an instance of <tt>CompressedOutputStream</tt>.
+	 * 
+	 * @param out
+	 *            the underlying output stream
+	 * @param blockSize
+	 *            the size of the blocks in bytes, at most 16 MB
+	 * @throws IOException
+	 *             if the header can not be written
+	 */
+	public CompressedOutputStream(OutputStream out, int blockSize) throws IOException
+	{
+		if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE)
+			throw new IllegalArgumentException(String.format("Illegal block size: %d", blockSize));
+		this.out = new DataOutputStream(out);
+		compressor = new BlockCompressor();
+		block = new byte[blockSize];
+		compressed = new byte[BlockCompressor.maxCompressedLength(blockSize)];
+		this.out.writeInt(MAGIC);
+	}
+
+	/**
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(int b) throws IOException
+	{
+		ensureOpen();
+		if (count == block.length)
+			writeBlock();
+		block[count++] = (byte) b;
+	}
+
+	/**
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		ensureOpen();
+		if ((off | len | off + len | b.length - off - len) < 0)
+			throw new IndexOutOfBoundsException();
+		while (len > 0)
+		{
+			if (count == block.length)
+				writeBlock();
+			int n = Math.min(len, block.length - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Write the current block and flush the underlying stream.
+	 * 
+	 * @see java.io.OutputStream#flush()
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		if (!finished)
+			writeBlock();
+		out.flush();
+	}
+
+	/**
+	 * Write the remaining data and the end of the stream, without closing the
+	 * underlying stream. Nothing can be written after the stream is finished.
+	 * 
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public void finish() throws IOException
+	{
+		if (finished)
+			return;
+		writeBlock();
+		out.writeByte(END);
+		out.flush();
+		finished = true;
+	}
+
+	/**
+	 * Finish the stream and close the underlying stream.
+	 * 
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			finish();
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private void writeBlock() throws IOException
+	{
+		if (count == 0)
+			return;
+		int length = compressor.compress(block, 0, count, compressed, 0);
+		if (length < count)
+		{
+			out.writeByte(COMPRESSED);
+			out.writeInt(count);
+			out.writeInt(length);
+			out.write(compressed, 0, length);
+		}
+		else
+		{
+			out.writeByte(STORED);
+			out.writeInt(count);
+			out.write(block, 0, count);
+		}
+		count = 0;
+	}
+
+	private void ensureOpen() throws IOException
+	{
+		if (finished)
+			throw new IOException("The stream is finished.");
+	}
+}
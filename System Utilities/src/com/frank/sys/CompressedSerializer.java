@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * CompressedSerializer.java is PROPRIETARY/CONFIDENTIAL built in 6:15:26 PM,
+ * Oct 18, 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The serializer compressing the output of another serializer in blocks.
+ * <p>
+ * The serialized data are compressed by a {@linkplain CompressedOutputStream},
+ * which is fast enough to make the files smaller without making them slower
+ * to write or read.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class CompressedSerializer implements Serializer
+{
+	/**
+	 * The serializer whose output is compressed.
+	 */
+	protected final Serializer	serializer;
+	/**
+	 * The size of the blocks in bytes.
+	 */
+	protected final int			blockSize;
+
+	/**
+	 * Construct an instance of <tt>CompressedSerializer</tt> with the default
+	 * block size.
+	 * 
+	 * @param serializer
+	 *            the serializer whose output is compressed
+	 */
+	public CompressedSerializer(Serializer serializer)
+	{
+		this(serializer, CompressedOutputStream.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Construct an instance of <tt>CompressedSerializer</tt>.
+	 * 
+	 * @param serializer
+	 *            the serializer whose output is compressed
+	 * @param blockSize
+	 *            the size of the blocks in bytes
+	 */
+	public CompressedSerializer(Serializer serializer, int blockSize)
+	{
+		if (serializer == null)
+			throw new NullPointerException("The serializer is null.");
+		this.serializer = serializer;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @see com.frank.sys.Serializer#write(java.io.OutputStream,
+	 *      java.lang.Object)
+	 */
+	@Override
+	public void write(OutputStream out, Object obj) throws IOException
+	{
+		CompressedOutputStream cos = new CompressedOutputStream(out, blockSize);
+		serializer.write(cos, obj);
+		cos.finish();
+	}
+
+	/**
+	 * @see com.frank.sys.Serializer#read(java.io.InputStream)
+	 */
+	@Override
+	public Object read(InputStream in) throws IOException, ClassNotFoundException
+	{
+		CompressedInputStream cis = new CompressedInputStream(in);
+		Object obj = serializer.read(cis);
+		// Consume the end mark, so the stream can be followed by other data.
+		while (cis.read() != -1)
+			;
+		return obj;
+	}
+}
@@ -0,0 +1,625 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * FileIndex.java is PROPRIETARY/CONFIDENTIAL built in 2:47:06 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The incremental index of a file tree.
+ * <p>
+ * The index keeps the size, the last modified time and optionally a CRC-32
+ * content hash of every file accepted under the root, and the last modified
+ * time and the listing of every directory. {@link #refresh()} compares the tree
+ * with the index and returns the {@linkplain Delta} of the files added,
+ * modified and removed since the last refresh.
+ * </p>
+ * <p>
+ * A directory is listed again only if its last modified time is changed, which
+ * happens when an entry is created, deleted or renamed in it. The listing of
+ * the other directories is reused from the index and only the attributes of
+ * their entries are read, since a change to the content of a file does not
+ * change the time of its directory. The filter works as in
+ * {@linkplain SystemUtils#loadFiles(Collection, File, FileFilter)} and is
+ * applied only when a directory is listed, so it should not change between
+ * refreshes. A directory modified within the granularity of the file system
+ * before it is listed is listed again on the next refresh, as an entry created
+ * in the same tick after the listing does not change its time.
+ * </p>
+ * <p>
+ * The index can be saved to a compact binary file and loaded in another run,
+ * so the first refresh after loading is incremental as well. The index is not
+ * thread safe.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class FileIndex
+{
+	/**
+	 * The magic number of the index file.
+	 */
+	private static final int	MAGIC	= 0x46494458;
+	/**
+	 * The version of the index file format.
+	 */
+	private static final int	VERSION	= 1;
+	/**
+	 * The value of the hash when it is not computed.
+	 */
+	public static final long	NO_HASH	= -1;
+	/**
+	 * The coarsest granularity of the modified times of the file systems, of
+	 * FAT. An entry created within it after the listing may not change the
+	 * time of the directory.
+	 */
+	private static final long	RACY	= 2000;
+	/**
+	 * The time of a directory to list again on the next refresh.
+	 */
+	private static final long	RELIST	= Long.MIN_VALUE;
+
+	/**
+	 * The changes of a file tree found by a refresh.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public static final class Delta
+	{
+		/**
+		 * The files added.
+		 */
+		public final List<File>	added		= new ArrayList<File>();
+		/**
+		 * The files modified.
+		 */
+		public final List<File>	modified	= new ArrayList<File>();
+		/**
+		 * The files removed.
+		 */
+		public final List<File>	removed		= new ArrayList<File>();
+
+		/**
+		 * Returns <tt>true</tt> if nothing is changed.
+		 * 
+		 * @return <tt>true</tt> if nothing is changed
+		 */
+		public boolean isEmpty()
+		{
+			return added.isEmpty() && modified.isEmpty() && removed.isEmpty();
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString()
+		{
+			return String.format("Delta[added=%d, modified=%d, removed=%d]", added.size(), modified.size(),
+					removed.size());
+		}
+	}
+
+	/**
+	 * The node of the indexed tree.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	private static final class Node
+	{
+		private static final Node[]	NONE	= new Node[0];
+
+		String						name;
+		boolean						directory;
+		long						size;
+		long						mtime;
+		long						hash	= NO_HASH;
+		/**
+		 * Whether the node is refreshed at least once.
+		 */
+		boolean						indexed;
+		/**
+		 * The children in listing order, <code>null</code> for the files.
+		 */
+		Node[]						children;
+
+		Node(String name, boolean directory)
+		{
+			this.name = name;
+			this.directory = directory;
+			if (directory)
+				children = NONE;
+		}
+	}
+
+	/**
+	 * The root file or directory.
+	 */
+	protected final File		root;
+	/**
+	 * The file filter, <code>null</code> to accept all.
+	 */
+	protected final FileFilter	filter;
+	/**
+	 * Whether to compute the content hash of the files.
+	 */
+	protected final boolean		hashing;
+	/**
+	 * The root node, <code>null</code> before the first refresh or if the root
+	 * does not exist.
+	 */
+	private Node				tree;
+	/**
+	 * The count of the directories listed in the last refresh.
+	 */
+	private int					listed;
+	/**
+	 * The buffer to compute the hash.
+	 */
+	private byte[]				buffer;
+
+	/**
+	 * Construct an instance of <tt>FileIndex</tt>.
+	 * <p>
+	 * The index is empty until it is refreshed.
+	 * </p>
+	 * 
+	 * @param root
+	 *            the root file or directory
+	 * @param filter
+	 *            the file filter, <code>null</code> to accept all
+	 * @param hashing
+	 *            <code>true</code> to compute the CRC-32 of the content of the
+	 *            files, then a file is modified only if its content is changed
+	 */
+	public FileIndex(File root, FileFilter filter, boolean hashing)
+	{
+		if (root == null)
+			throw new NullPointerException("The root is null.");
+		this.root = root;
+		this.filter = filter;
+		this.hashing = hashing;
+	}
+
+	/**
+	 * Returns the root file or directory.
+	 * 
+	 * @return the root
+	 */
+	public File getRoot()
+	{
+		return root;
+	}
+
+	/**
+	 * Returns the count of the directories listed by the last refresh.
+	 * 
+	 * @return the count of the directories listed
+	 */
+	public int getListedDirectories()
+	{
+		return listed;
+	}
+
+	/**
+	 * Refresh the index from the file tree.
+	 * <p>
+	 * The first refresh of a new index reports all the files as added.
+	 * </p>
+	 * 
+	 * @return the changes since the last refresh
+	 * @throws IOException
+	 *             if a file can not be hashed
+	 */
+	public Delta refresh() throws IOException
+	{
+		Delta delta = new Delta();
+		listed = 0;
+		BasicFileAttributes attrs = readAttributes(root);
+		if (attrs == null || (!attrs.isDirectory() && filter != null && !filter.accept(root)))
+		{
+			if (tree != null)
+				removed(tree, root, delta);
+			tree = null;
+			return delta;
+		}
+		if (tree != null && tree.directory != attrs.isDirectory())
+		{
+			removed(tree, root, delta);
+			tree = null;
+		}
+		if (tree == null)
+			tree = new Node(root.getPath(), attrs.isDirectory());
+		if (tree.directory)
+			refreshDirectory(tree, root, attrs, delta);
+		else
+			refreshFile(tree, root, attrs, delta);
+		return delta;
+	}
+
+	/**
+	 * Refresh the specified directory node and its descendants.
+	 * 
+	 * @param node
+	 *            the directory node
+	 * @param dir
+	 *            the directory
+	 * @param attrs
+	 *            the current attributes of the directory
+	 * @param delta
+	 *            the changes found
+	 * @throws IOException
+	 *             if a file can not be hashed
+	 */
+	private void refreshDirectory(Node node, File dir, BasicFileAttributes attrs, Delta delta) throws IOException
+	{
+		long mtime = attrs.lastModifiedTime().toMillis();
+		Node[] children = node.children;
+		if (!node.indexed || mtime != node.mtime)
+		{
+			// The directory is changed, list it and match the old children by
+			// name.
+			listed++;
+			node.indexed = true;
+			// The time may also be in the future on a remote file system.
+			node.mtime = System.currentTimeMillis() - mtime < RACY ? RELIST : mtime;
+			File[] list = dir.listFiles(filter);
+			if (list == null)
+				list = new File[0];
+			Map<String, Node> old = new HashMap<String, Node>(children.length * 2);
+			for (Node child : children)
+				old.put(child.name, child);
+			ArrayList<Node> current = new ArrayList<Node>(list.length);
+			for (File file : list)
+			{
+				BasicFileAttributes a = readAttributes(file);
+				if (a == null)
+					continue;
+				Node child = old.remove(file.getName());
+				if (child != null && child.directory != a.isDirectory())
+				{
+					removed(child, file, delta);
+					child = null;
+				}
+				if (child == null)
+					child = new Node(file.getName(), a.isDirectory());
+				if (refresh(child, file, a, delta))
+					current.add(child);
+			}
+			for (Node child : old.values())
+				removed(child, new File(dir, child.name), delta);
+			node.children = current.toArray(new Node[current.size()]);
+		}
+		else
+		{
+			// The listing is not changed, check the known children only.
+			int n = 0;
+			for (Node child : children)
+			{
+				File file = new File(dir, child.name);
+				BasicFileAttributes a = readAttributes(file);
+				if (a == null || a.isDirectory() != child.directory)
+				{
+					removed(child, file, delta);
+					continue;
+				}
+				if (refresh(child, file, a, delta))
+					children[n++] = child;
+			}
+			if (n < children.length)
+			{
+				Node[] current = new Node[n];
+				System.arraycopy(children, 0, current, 0, n);
+				node.children = current;
+			}
+		}
+	}
+
+	/**
+	 * Refresh the specified child node.
+	 * 
+	 * @return <code>false</code> if the child is removed
+	 */
+	private boolean refresh(Node child, File file, BasicFileAttributes attrs, Delta delta) throws IOException
+	{
+		if (child.directory)
+		{
+			refreshDirectory(child, file, attrs, delta);
+			return true;
+		}
+		return refreshFile(child, file, attrs, delta);
+	}
+
+	/**
+	 * Refresh the specified file node.
+	 * 
+	 * @param node
+	 *            the file node
+	 * @param file
+	 *            the file
+	 * @param attrs
+	 *            the current attributes of the file
+	 * @param delta
+	 *            the changes found
+	 * @return <code>false</code> if the file is removed while hashing
+	 * @throws IOException
+	 *             if the file can not be hashed
+	 */
+	private boolean refreshFile(Node node, File file, BasicFileAttributes attrs, Delta delta) throws IOException
+	{
+		long size = attrs.size();
+		long mtime = attrs.lastModifiedTime().toMillis();
+		boolean added = !node.indexed;
+		if (!added && size == node.size && mtime == node.mtime)
+			return true;
+		long hash = NO_HASH;
+		if (hashing)
+			try
+			{
+				hash = hash(file);
+			}
+			catch (IOException e)
+			{
+				if (file.exists())
+					throw e;
+				if (!added)
+					delta.removed.add(file);
+				return false;
+			}
+		boolean changed = added || !hashing || size != node.size || hash != node.hash;
+		node.indexed = true;
+		node.size = size;
+		node.mtime = mtime;
+		node.hash = hash;
+		if (added)
+			delta.added.add(file);
+		else if (changed)
+			delta.modified.add(file);
+		return true;
+	}
+
+	/**
+	 * Report all the files under the specified node as removed.
+	 * 
+	 * @param node
+	 *            the removed node
+	 * @param file
+	 *            the file of the node
+	 * @param delta
+	 *            the changes found
+	 */
+	private static void removed(Node node, File file, Delta delta)
+	{
+		if (!node.directory)
+		{
+			delta.removed.add(file);
+			return;
+		}
+		for (Node child : node.children)
+			removed(child, new File(file, child.name), delta);
+	}
+
+	/**
+	 * Returns the basic attributes of the specified file.
+	 * 
+	 * @param file
+	 *            the specified file
+	 * @return the attributes, <code>null</code> if the file does not exist
+	 */
+	private static BasicFileAttributes readAttributes(File file)
+	{
+		try
+		{
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the CRC-32 of the content of the specified file.
+	 * 
+	 * @param file
+	 *            the specified file
+	 * @return the CRC-32
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	private long hash(File file) throws IOException
+	{
+		if (buffer == null)
+			buffer = new byte[SystemUtils.BUFFER_SIZE];
+		CRC32 crc = new CRC32();
+		try (InputStream in = new FileInputStream(file))
+		{
+			int r;
+			while ((r = in.read(buffer)) != -1)
+				crc.update(buffer, 0, r);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Load all the indexed files into the specified <code>File</code>
+	 * collection, in the same order as
+	 * {@link SystemUtils#loadFiles(Collection, File, FileFilter)}.
+	 * 
+	 * @param files
+	 *            the specified <code>File</code> collection
+	 */
+	public void loadFiles(Collection<File> files)
+	{
+		if (tree == null)
+			return;
+		if (!tree.directory)
+		{
+			files.add(root);
+			return;
+		}
+		ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+		ArrayDeque<File> dirs = new ArrayDeque<File>();
+		nodes.push(tree);
+		dirs.push(root);
+		while (!nodes.isEmpty())
+		{
+			Node node = nodes.pop();
+			File file = dirs.pop();
+			if (!node.directory)
+			{
+				files.add(file);
+				continue;
+			}
+			for (int i = node.children.length - 1; i >= 0; i--)
+			{
+				nodes.push(node.children[i]);
+				dirs.push(new File(file, node.children[i].name));
+			}
+		}
+	}
+
+	/**
+	 * Returns the count of the indexed files.
+	 * 
+	 * @return the count of the files
+	 */
+	public int size()
+	{
+		if (tree == null)
+			return 0;
+		int count = 0;
+		ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+		nodes.push(tree);
+		while (!nodes.isEmpty())
+		{
+			Node node = nodes.pop();
+			if (node.directory)
+				for (Node child : node.children)
+					nodes.push(child);
+			else
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Save the index to the specified file.
+	 * <p>
+	 * The tree is written depth-first with the names relative to the parent
+	 * directories, so the full paths are never repeated.
+	 * </p>
+	 * 
+	 * @param file
+	 *            the index file to write
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public void save(File file) throws IOException
+	{
+		SystemUtils.createFileIfNotExist(file);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+				SystemUtils.BUFFER_SIZE)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(root.getPath());
+			out.writeBoolean(hashing);
+			out.writeBoolean(tree != null);
+			if (tree != null)
+				write(out, tree);
+		}
+	}
+
+	private static void write(DataOutputStream out, Node node) throws IOException
+	{
+		out.writeUTF(node.name);
+		out.writeBoolean(node.directory);
+		out.writeLong(node.mtime);
+		if (node.directory)
+		{
+			out.writeInt(node.children.length);
+			for (Node child : node.children)
+				write(out, child);
+		}
+		else
+		{
+			out.writeLong(node.size);
+			out.writeLong(node.hash);
+		}
+	}
+
+	/**
+	 * Load an index from the specified file.
+	 * 
+	 * @param file
+	 *            the index file to read
+	 * @param filter
+	 *            the file filter which the index is built with,
+	 *            <code>null</code> to accept all
+	 * @return the loaded index
+	 * @throws IOException
+	 *             if an IO error occurs or the file is not an index file
+	 */
+	public static FileIndex load(File file, FileFilter filter) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+				SystemUtils.BUFFER_SIZE)))
+		{
+			if (in.readInt() != MAGIC)
+				throw new IOException(String.format("The file %s is not a file index.", file));
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException(String.format("Unsupported file index version: %d.", version));
+			FileIndex index = new FileIndex(new File(in.readUTF()), filter, in.readBoolean());
+			if (in.readBoolean())
+				index.tree = read(in);
+			return index;
+		}
+	}
+
+	private static Node read(DataInputStream in) throws IOException
+	{
+		Node node = new Node(in.readUTF(), in.readBoolean());
+		node.indexed = true;
+		node.mtime = in.readLong();
+		if (node.directory)
+		{
+			Node[] children = new Node[in.readInt()];
+			for (int i = 0; i < children.length; i++)
+				children[i] = read(in);
+			node.children = children;
+		}
+		else
+		{
+			node.size = in.readLong();
+			node.hash = in.readLong();
+		}
+		return node;
+	}
+}
@@ -8,8 +8,16 @@
 
 package com.frank.sys;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.EmptyStackException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -22,21 +30,55 @@ import java.util.Stack;
  * recursive iteration is need, just accept directories in the
  * {@linkplain FileFilter}.
  * </p>
+ * <p>
+ * Constructed with an {@linkplain AttributeFilter}, the iterator works in the
+ * NIO mode: the directories are listed lazily with
+ * {@linkplain DirectoryStream}s and the {@linkplain BasicFileAttributes} of
+ * every entry are read only once and passed to the filter. Only one open
+ * directory stream is kept for every directory level, so the memory used does
+ * not depend on the size of the directories. Close the iterator to release the
+ * open directory streams if it is not read to the end.
+ * </p>
  * 
  * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
  * @version 1.0.0
  */
-public class FileIterator implements Iterator<File>
+public class FileIterator implements Iterator<File>, Closeable
 {
 	/**
 	 * The file stack.
 	 */
-	protected Stack<File>	stack;
+	protected Stack<File>						stack;
 
 	/**
 	 * The file filter.
 	 */
-	protected FileFilter	filter;
+	protected FileFilter						filter;
+
+	/**
+	 * The attribute filter in the NIO mode.
+	 */
+	protected AttributeFilter					attributeFilter;
+	/**
+	 * The open directory streams of the directory levels in the NIO mode.
+	 */
+	protected ArrayDeque<DirectoryStream<Path>>	streams;
+	/**
+	 * The iterators of the open directory streams in the NIO mode.
+	 */
+	protected ArrayDeque<Iterator<Path>>		iterators;
+	/**
+	 * The next path found in the NIO mode.
+	 */
+	private Path								nextPath;
+	/**
+	 * The attributes of the next path found in the NIO mode.
+	 */
+	private BasicFileAttributes					nextAttributes;
+	/**
+	 * The attributes of the file returned last in the NIO mode.
+	 */
+	private BasicFileAttributes					attributes;
 
 	/**
 	 * Construct an instance of <tt>FileIterator</tt>.
@@ -50,12 +92,169 @@ public class FileIterator implements Iterator<File>
 		stack.add(root);
 	}
 
+	/**
+	 * Construct an instance of <tt>FileIterator</tt> in the NIO mode.
+	 * <p>
+	 * The filter is applied to every entry under the root, it must accept the
+	 * directories to descend into them. The root is iterated itself if it is
+	 * not a directory and accepted by the filter.
+	 * </p>
+	 * 
+	 * @param root
+	 *            the root path
+	 * @param filter
+	 *            the attribute filter
+	 */
+	public FileIterator(Path root, AttributeFilter filter)
+	{
+		if (filter == null)
+			throw new NullPointerException("The attribute filter is null.");
+		this.attributeFilter = filter;
+		streams = new ArrayDeque<>();
+		iterators = new ArrayDeque<>();
+		BasicFileAttributes attrs = readAttributes(root);
+		if (attrs == null)
+			return;
+		if (attrs.isDirectory())
+			open(root);
+		else if (filter.accept(root, attrs))
+		{
+			nextPath = root;
+			nextAttributes = attrs;
+		}
+	}
+
+	/**
+	 * Returns the attributes of the file returned last by {@link #next()} in
+	 * the NIO mode.
+	 * 
+	 * @return the attributes, <code>null</code> if not in the NIO mode or no
+	 *         file is returned yet
+	 */
+	public BasicFileAttributes attributes()
+	{
+		return attributes;
+	}
+
+	/**
+	 * Returns the basic attributes of the specified path.
+	 * 
+	 * @param path
+	 *            the specified path
+	 * @return the attributes, <code>null</code> if they can not be read
+	 */
+	private static BasicFileAttributes readAttributes(Path path)
+	{
+		try
+		{
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Open the directory stream of the specified directory as a new level.
+	 * 
+	 * @param dir
+	 *            the specified directory
+	 */
+	private void open(Path dir)
+	{
+		try
+		{
+			DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+			streams.push(stream);
+			iterators.push(stream.iterator());
+		}
+		catch (IOException e)
+		{
+			// The directory can not be listed, skip it.
+		}
+	}
+
+	/**
+	 * Close the directory stream of the deepest level.
+	 */
+	private void closeLevel()
+	{
+		iterators.pop();
+		try
+		{
+			streams.pop().close();
+		}
+		catch (IOException e)
+		{
+			// Nothing more can be done.
+		}
+	}
+
+	/**
+	 * Find the next path in the NIO mode.
+	 * 
+	 * @return <code>true</code> if the next path is found
+	 */
+	private boolean findNextPath()
+	{
+		if (nextPath != null)
+			return true;
+		while (!iterators.isEmpty())
+		{
+			Path path;
+			try
+			{
+				Iterator<Path> it = iterators.peek();
+				if (!it.hasNext())
+				{
+					closeLevel();
+					continue;
+				}
+				path = it.next();
+			}
+			catch (DirectoryIteratorException e)
+			{
+				closeLevel();
+				continue;
+			}
+			BasicFileAttributes attrs = readAttributes(path);
+			if (attrs == null || !attributeFilter.accept(path, attrs))
+				continue;
+			if (attrs.isDirectory())
+				open(path);
+			else
+			{
+				nextPath = path;
+				nextAttributes = attrs;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Close all the open directory streams in the NIO mode.
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close()
+	{
+		if (iterators != null)
+			while (!iterators.isEmpty())
+				closeLevel();
+		nextPath = null;
+	}
+
 	/**
 	 * @see java.util.Iterator#hasNext()
 	 */
 	@Override
 	public boolean hasNext()
 	{
+		if (attributeFilter != null)
+			return findNextPath();
 		if (stack.isEmpty())
 			return false;
 		File top = stack.peek();
@@ -84,6 +283,16 @@ public class FileIterator implements Iterator<File>
 	@Override
 	public File next()
 	{
+		if (attributeFilter != null)
+		{
+			if (!findNextPath())
+				throw new NoSuchElementException("There is no more files.");
+			File file = nextPath.toFile();
+			attributes = nextAttributes;
+			nextPath = null;
+			nextAttributes = null;
+			return file;
+		}
 		File top;
 		try
 		{
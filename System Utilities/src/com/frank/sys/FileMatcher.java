@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * FileMatcher.java is PROPRIETARY/CONFIDENTIAL built in 4:18:44 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FilenameFilter;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The composite file matcher.
+ * <p>
+ * The matcher combines the name patterns, which are suffixes, globs and
+ * regular expressions, with the predicates on the size and the last modified
+ * time of the files. A file is accepted if its name matches any of the name
+ * patterns, or no name pattern is specified, and it satisfies all the
+ * predicates. The directories are always accepted as a {@linkplain FileFilter}
+ * or an {@linkplain AttributeFilter}, so the matcher can be used directly for
+ * recursive iteration.
+ * </p>
+ * <p>
+ * The suffixes are matched by a compiled {@linkplain SuffixFilter} and the
+ * other patterns by per-thread reused {@linkplain Matcher}s, so matching a
+ * name allocates nothing. The cheap name patterns are tested before the
+ * predicates, and with an {@linkplain AttributeFilter} the predicates cost no
+ * more system call. Configure the matcher before use, after that it is thread
+ * safe.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class FileMatcher implements FileFilter, FilenameFilter, AttributeFilter
+{
+	/**
+	 * The compiled suffixes, <code>null</code> if no suffix is specified.
+	 */
+	protected SuffixFilter					suffixes;
+	/**
+	 * The compiled globs and regular expressions.
+	 */
+	protected final List<Pattern>			patterns;
+	/**
+	 * The minimum size in bytes, inclusive.
+	 */
+	protected long							minSize			= 0;
+	/**
+	 * The maximum size in bytes, inclusive.
+	 */
+	protected long							maxSize			= Long.MAX_VALUE;
+	/**
+	 * The earliest last modified time in milliseconds, inclusive.
+	 */
+	protected long							modifiedAfter	= Long.MIN_VALUE;
+	/**
+	 * The latest last modified time in milliseconds, exclusive.
+	 */
+	protected long							modifiedBefore	= Long.MAX_VALUE;
+	/**
+	 * The reused matchers of the patterns for every thread.
+	 */
+	private final ThreadLocal<Matcher[]>	matchers;
+
+	/**
+	 * Construct an instance of <tt>FileMatcher</tt> which accepts all the
+	 * files.
+	 */
+	public FileMatcher()
+	{
+		patterns = new ArrayList<Pattern>();
+		matchers = new ThreadLocal<Matcher[]>()
+		{
+			@Override
+			protected Matcher[] initialValue()
+			{
+				Matcher[] m = new Matcher[patterns.size()];
+				for (int i = 0; i < m.length; i++)
+					m[i] = patterns.get(i).matcher("");
+				return m;
+			}
+		};
+	}
+
+	/**
+	 * Accept the names ending with any of the specified suffixes, ignoring
+	 * case.
+	 * 
+	 * @param suffix
+	 *            the accepted suffixes
+	 * @return this matcher
+	 */
+	public FileMatcher suffix(String... suffix)
+	{
+		if (suffixes != null)
+		{
+			String[] all = new String[suffixes.suffix.length + suffix.length];
+			System.arraycopy(suffixes.suffix, 0, all, 0, suffixes.suffix.length);
+			System.arraycopy(suffix, 0, all, suffixes.suffix.length, suffix.length);
+			suffix = all;
+		}
+		suffixes = new SuffixFilter(suffix);
+		return this;
+	}
+
+	/**
+	 * Accept the names matching any of the specified glob patterns, ignoring
+	 * case.
+	 * <p>
+	 * The glob is matched against the name only: <code>*</code> matches any
+	 * chars, <code>?</code> matches one char, <code>[...]</code> matches one
+	 * char of a class, <code>{a,b}</code> matches any of the alternatives and
+	 * <code>\</code> escapes the next char.
+	 * </p>
+	 * 
+	 * @param glob
+	 *            the glob patterns
+	 * @return this matcher
+	 */
+	public FileMatcher glob(String... glob)
+	{
+		for (String g : glob)
+			patterns.add(Pattern.compile(toRegex(g), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+		return this;
+	}
+
+	/**
+	 * Accept the names matching any of the specified regular expressions
+	 * entirely.
+	 * 
+	 * @param regex
+	 *            the regular expressions
+	 * @return this matcher
+	 */
+	public FileMatcher regex(String... regex)
+	{
+		for (String r : regex)
+			patterns.add(Pattern.compile(r));
+		return this;
+	}
+
+	/**
+	 * Accept only the files whose size is in the specified range.
+	 * 
+	 * @param min
+	 *            the minimum size in bytes, inclusive
+	 * @param max
+	 *            the maximum size in bytes, inclusive
+	 * @return this matcher
+	 */
+	public FileMatcher size(long min, long max)
+	{
+		if (min > max)
+			throw new IllegalArgumentException(String.format("Illegal size range: [%d, %d]", min, max));
+		minSize = min;
+		maxSize = max;
+		return this;
+	}
+
+	/**
+	 * Accept only the files whose last modified time is in the specified
+	 * range.
+	 * 
+	 * @param after
+	 *            the earliest time in milliseconds since the epoch, inclusive
+	 * @param before
+	 *            the latest time in milliseconds since the epoch, exclusive
+	 * @return this matcher
+	 */
+	public FileMatcher modified(long after, long before)
+	{
+		if (after > before)
+			throw new IllegalArgumentException(String.format("Illegal time range: [%d, %d)", after, before));
+		modifiedAfter = after;
+		modifiedBefore = before;
+		return this;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the specified name matches the name patterns.
+	 * 
+	 * @param name
+	 *            the name to test
+	 * @return <tt>true</tt> if the name matches
+	 */
+	public boolean matches(String name)
+	{
+		if (suffixes == null && patterns.isEmpty())
+			return true;
+		if (suffixes != null && suffixes.matches(name))
+			return true;
+		if (!patterns.isEmpty())
+		{
+			Matcher[] m = matchers.get();
+			if (m.length != patterns.size())
+			{
+				matchers.remove();
+				m = matchers.get();
+			}
+			for (Matcher matcher : m)
+				if (matcher.reset(name).matches())
+					return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the specified size and time satisfy the
+	 * predicates.
+	 * 
+	 * @param size
+	 *            the size in bytes
+	 * @param time
+	 *            the last modified time in milliseconds
+	 * @return <tt>true</tt> if the predicates are satisfied
+	 */
+	public boolean matches(long size, long time)
+	{
+		return size >= minSize && size <= maxSize && time >= modifiedAfter && time < modifiedBefore;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the size or time predicate is specified.
+	 * 
+	 * @return <tt>true</tt> if any predicate is specified
+	 */
+	private boolean hasPredicates()
+	{
+		return minSize != 0 || maxSize != Long.MAX_VALUE || modifiedAfter != Long.MIN_VALUE
+				|| modifiedBefore != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Tests the name only, the predicates are not applied since the attributes
+	 * are unknown.
+	 * 
+	 * @see java.io.FilenameFilter#accept(java.io.File, java.lang.String)
+	 */
+	@Override
+	public boolean accept(File dir, String name)
+	{
+		return matches(name);
+	}
+
+	/**
+	 * @see java.io.FileFilter#accept(java.io.File)
+	 */
+	@Override
+	public boolean accept(File file)
+	{
+		if (!matches(file.getName()))
+			return file.isDirectory();
+		if (!hasPredicates())
+			return true;
+		if (file.isDirectory())
+			return true;
+		return matches(file.length(), file.lastModified());
+	}
+
+	/**
+	 * @see com.frank.sys.AttributeFilter#accept(java.nio.file.Path,
+	 *      java.nio.file.attribute.BasicFileAttributes)
+	 */
+	@Override
+	public boolean accept(Path path, BasicFileAttributes attributes)
+	{
+		if (attributes.isDirectory())
+			return true;
+		Path name = path.getFileName();
+		return (name == null || matches(name.toString()))
+				&& matches(attributes.size(), attributes.lastModifiedTime().toMillis());
+	}
+
+	/**
+	 * Translate the specified glob to a regular expression.
+	 * 
+	 * @param glob
+	 *            the glob pattern
+	 * @return the regular expression
+	 */
+	static String toRegex(String glob)
+	{
+		StringBuilder sb = new StringBuilder(glob.length() * 2);
+		boolean inGroup = false, inClass = false;
+		for (int i = 0; i < glob.length(); i++)
+		{
+			char c = glob.charAt(i);
+			if (inClass)
+			{
+				if (c == ']')
+					inClass = false;
+				else if (c == '\\' || c == '[' || c == '&')
+					sb.append('\\');
+				sb.append(c);
+				continue;
+			}
+			switch (c)
+			{
+			case '\\':
+				if (++i < glob.length())
+					sb.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+				break;
+			case '*':
+				sb.append(".*");
+				break;
+			case '?':
+				sb.append('.');
+				break;
+			case '[':
+				inClass = true;
+				sb.append('[');
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '!')
+				{
+					sb.append('^');
+					i++;
+				}
+				break;
+			case '{':
+				if (inGroup)
+					throw new IllegalArgumentException(String.format("Nested group in glob: %s", glob));
+				inGroup = true;
+				sb.append("(?:");
+				break;
+			case '}':
+				if (!inGroup)
+					sb.append("\\}");
+				else
+				{
+					inGroup = false;
+					sb.append(')');
+				}
+				break;
+			case ',':
+				sb.append(inGroup ? '|' : ',');
+				break;
+			default:
+				if ("().+^$|".indexOf(c) >= 0)
+					sb.append('\\');
+				sb.append(c);
+			}
+		}
+		if (inClass || inGroup)
+			throw new IllegalArgumentException(String.format("Unclosed class or group in glob: %s", glob));
+		return sb.toString();
+	}
+}
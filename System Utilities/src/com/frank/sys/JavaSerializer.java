@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * JavaSerializer.java is PROPRIETARY/CONFIDENTIAL built in 5:06:50 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * The serializer of the Java<sup>TM</sup> object serialization.
+ * <p>
+ * The objects must be {@linkplain java.io.Serializable}. The format is the one
+ * of {@linkplain ObjectOutputStream}, so the files written by the previous
+ * versions of {@linkplain SystemUtils#writeObject(java.io.File, Object)} can
+ * still be read.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class JavaSerializer implements Serializer
+{
+	/**
+	 * @see com.frank.sys.Serializer#write(java.io.OutputStream,
+	 *      java.lang.Object)
+	 */
+	@Override
+	public void write(OutputStream out, Object obj) throws IOException
+	{
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(obj);
+		oos.flush();
+	}
+
+	/**
+	 * @see com.frank.sys.Serializer#read(java.io.InputStream)
+	 */
+	@Override
+	public Object read(InputStream in) throws IOException, ClassNotFoundException
+	{
+		return new ObjectInputStream(in).readObject();
+	}
+}
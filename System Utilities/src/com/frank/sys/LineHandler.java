@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * LineHandler.java is PROPRIETARY/CONFIDENTIAL built in 11:02:18 AM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.IOException;
+
+/**
+ * The handler of the text lines or records decoded by a
+ * {@linkplain TextDecoder}.
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public interface LineHandler
+{
+	/**
+	 * Handle the specified line.
+	 * <p>
+	 * The line does not contain the line terminator. The character sequence is
+	 * reused by the decoder, call <code>toString()</code> to keep it after this
+	 * method returns.
+	 * </p>
+	 * 
+	 * @param line
+	 *            the line to handle
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public void handle(CharSequence line) throws IOException;
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * LiveFileIterator.java is PROPRIETARY/CONFIDENTIAL built in 3:36:12 PM, Oct
+ * 18, 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The live file iterator.
+ * <p>
+ * The iterator first returns the existing files accepted by the filter under
+ * the root, as a {@linkplain FileIterator} does, and then keeps returning the
+ * files which are created or modified afterwards. The changes are watched by a
+ * {@linkplain WatchService} registered on every accepted directory, including
+ * the directories created later, so no polling is involved and a change is
+ * returned as soon as the operating system reports it.
+ * </p>
+ * <p>
+ * The filter must accept the directories to watch them, which is what
+ * {@link SuffixFilter#asFileFilter()} does. {@link #hasNext()} waits until a
+ * file is available and returns <tt>false</tt> only after the iterator is
+ * closed, use {@link #poll(long, TimeUnit)} to wait with a timeout. A file
+ * modified several times may be returned several times. When the operating
+ * system drops the events of a directory on overflow, the directory is walked
+ * again and all its files are returned again.
+ * </p>
+ * <p>
+ * The iterator is consumed by one thread, {@link #close()} can be called from
+ * any thread.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class LiveFileIterator implements Iterator<File>, Closeable
+{
+	/**
+	 * The filter accepting all the files.
+	 */
+	private static final FileFilter		ALL	= new FileFilter()
+	{
+		@Override
+		public boolean accept(File file)
+		{
+			return true;
+		}
+	};
+
+	/**
+	 * The file filter.
+	 */
+	protected final FileFilter			filter;
+	/**
+	 * The watch service.
+	 */
+	protected final WatchService		watcher;
+	/**
+	 * The watched directories.
+	 */
+	protected final Map<WatchKey, Path>	keys;
+	/**
+	 * The file filter adapted to walk the directories in the NIO mode of
+	 * {@linkplain FileIterator}.
+	 */
+	private final AttributeFilter		walkFilter;
+	/**
+	 * The iterator of the existing files, <code>null</code> after all of them
+	 * are returned.
+	 */
+	private FileIterator				existing;
+	/**
+	 * The files found and not returned yet.
+	 */
+	private final ArrayDeque<File>		pending;
+	/**
+	 * Whether the iterator is closed.
+	 */
+	private volatile boolean			closed;
+
+	/**
+	 * Construct an instance of <tt>LiveFileIterator</tt>.
+	 * <p>
+	 * All the accepted directories under the root are registered before any
+	 * existing file is returned, so no file created in between is missed.
+	 * </p>
+	 * 
+	 * @param root
+	 *            the root directory
+	 * @param filter
+	 *            the file filter, <code>null</code> to accept all
+	 * @throws IOException
+	 *             if the watch service can not be created or the root can not
+	 *             be registered
+	 */
+	public LiveFileIterator(File root, FileFilter filter) throws IOException
+	{
+		if (!root.isDirectory())
+			throw new IOException(String.format("The root %s is not a directory.", root));
+		this.filter = filter == null ? ALL : filter;
+		walkFilter = new AttributeFilter()
+		{
+			@Override
+			public boolean accept(Path path, BasicFileAttributes attributes)
+			{
+				return LiveFileIterator.this.filter.accept(path.toFile());
+			}
+		};
+		watcher = FileSystems.getDefault().newWatchService();
+		keys = new HashMap<WatchKey, Path>();
+		pending = new ArrayDeque<File>();
+		try
+		{
+			registerAll(root);
+		}
+		catch (IOException e)
+		{
+			watcher.close();
+			throw e;
+		}
+		existing = new FileIterator(root.toPath(), walkFilter);
+	}
+
+	/**
+	 * Register the specified directory and all its accepted sub-directories.
+	 * 
+	 * @param dir
+	 *            the directory to register
+	 * @throws IOException
+	 *             if the directory can not be registered
+	 */
+	private void registerAll(File dir) throws IOException
+	{
+		ArrayDeque<File> dirs = new ArrayDeque<File>();
+		dirs.push(dir);
+		while (!dirs.isEmpty())
+		{
+			File d = dirs.pop();
+			Path path = d.toPath();
+			keys.put(path.register(watcher, ENTRY_CREATE, ENTRY_MODIFY), path);
+			File[] list = d.listFiles(filter);
+			if (list != null)
+				for (File f : list)
+					if (f.isDirectory())
+						dirs.push(f);
+		}
+	}
+
+	/**
+	 * Register the specified directory and add all its accepted files, which
+	 * are not signalled if they are created before the registration.
+	 * 
+	 * @param dir
+	 *            the directory to walk
+	 * @param found
+	 *            the files found
+	 */
+	private void walk(File dir, Set<File> found)
+	{
+		try
+		{
+			registerAll(dir);
+		}
+		catch (IOException e)
+		{
+			// The directory is gone before it is registered.
+			return;
+		}
+		FileIterator it = new FileIterator(dir.toPath(), walkFilter);
+		while (it.hasNext())
+			found.add(it.next());
+	}
+
+	/**
+	 * Handle the events of the specified key.
+	 * 
+	 * @param key
+	 *            the signalled key
+	 */
+	private void handle(WatchKey key)
+	{
+		Path dir = keys.get(key);
+		LinkedHashSet<File> found = new LinkedHashSet<File>();
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (dir == null)
+				continue;
+			if (event.kind() == OVERFLOW)
+			{
+				// The events are dropped, the changes are found by walking.
+				walk(dir.toFile(), found);
+				continue;
+			}
+			File file = dir.resolve((Path) event.context()).toFile();
+			if (!filter.accept(file))
+				continue;
+			if (file.isDirectory())
+			{
+				if (event.kind() == ENTRY_CREATE)
+					walk(file, found);
+			}
+			else if (file.isFile())
+				found.add(file);
+		}
+		if (!key.reset())
+			keys.remove(key);
+		pending.addAll(found);
+	}
+
+	/**
+	 * Retrieves and removes the next file, waiting up to the specified time if
+	 * necessary.
+	 * 
+	 * @param timeout
+	 *            how long to wait before giving up
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return the next file, <code>null</code> if the timeout elapses or the
+	 *         iterator is closed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public File poll(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		if (existing != null)
+		{
+			if (!closed && existing.hasNext())
+				return existing.next();
+			existing.close();
+			existing = null;
+		}
+		while (pending.isEmpty() && !closed)
+		{
+			long left = deadline - System.nanoTime();
+			WatchKey key;
+			try
+			{
+				key = left > 0 ? watcher.poll(left, TimeUnit.NANOSECONDS) : watcher.poll();
+			}
+			catch (ClosedWatchServiceException e)
+			{
+				return null;
+			}
+			if (key == null)
+				return null;
+			handle(key);
+		}
+		return pending.poll();
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the iteration has more files, waits until the
+	 * next file is available or the iterator is closed.
+	 * 
+	 * @return <tt>true</tt> if the iteration has more files
+	 * @throws IllegalStateException
+	 *             if the waiting thread is interrupted
+	 */
+	@Override
+	public boolean hasNext()
+	{
+		if (existing != null)
+		{
+			if (!closed && existing.hasNext())
+				return true;
+			existing.close();
+			existing = null;
+		}
+		while (pending.isEmpty() && !closed)
+		{
+			try
+			{
+				handle(watcher.take());
+			}
+			catch (ClosedWatchServiceException e)
+			{
+				return false;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the next file.", e);
+			}
+		}
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public File next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException("The iterator is closed.");
+		return existing != null ? existing.next() : pending.poll();
+	}
+
+	/**
+	 * @see java.util.Iterator#remove()
+	 */
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException("The file can not be removed from a live iteration.");
+	}
+
+	/**
+	 * Close the iterator and the watch service. A thread waiting for the next
+	 * file returns immediately.
+	 * 
+	 * @throws IOException
+	 *             if an IO error occurs
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		closed = true;
+		watcher.close();
+	}
+}
@@ -0,0 +1,671 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * MemoryBudget.java is PROPRIETARY/CONFIDENTIAL built in 10:05:33 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The memory budget of the caches.
+ * <p>
+ * The budget tracks the estimated size of the registered collections, maps
+ * and objects, and calls its listeners and evicts from the evictable
+ * containers when the size exceeds the budget. The containers are not sized
+ * entirely: on every {@linkplain #update() update} a few elements of every
+ * container are sampled with {@linkplain SizeOf}, and the size of a container
+ * is its count of elements times the average size of the classes of its
+ * elements, plus the size of its own structure, such as the table and the
+ * nodes of a hash map. The averages of the classes are shared by all the
+ * containers, and the size of the structure per element is measured once and
+ * again only when the count of elements changes fourfold. The other objects
+ * are sized entirely when they are registered or
+ * {@linkplain #remeasure(Object) remeasured}.
+ * </p>
+ * <p>
+ * The elements are sampled at random indices in the random access lists, and
+ * every <i>n</i>-th element in the other containers, which costs an iteration
+ * without sizing. The iteration of a synchronized wrapper holds its lock, the
+ * iteration of another container not thread safe may fail and is retried on
+ * the next update. The eviction removes the elements in the iteration order,
+ * the least recently used first in an access ordered
+ * {@linkplain java.util.LinkedHashMap}.
+ * </p>
+ * <p>
+ * The budget is thread safe, its update is usually scheduled periodically by
+ * {@link #schedule(ScheduledExecutorService, long, TimeUnit)}.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class MemoryBudget
+{
+	/**
+	 * The default count of the elements sampled in every container per update.
+	 */
+	public static final int					DEFAULT_SAMPLE_SIZE	= 32;
+	/**
+	 * The count of the elements from which the size of the structure of a
+	 * container is extrapolated instead of measured on every update.
+	 */
+	private static final int				CALIBRATION_COUNT	= 64;
+	/**
+	 * The count of the samples after which the average of a class follows the
+	 * new samples exponentially.
+	 */
+	private static final int				AVERAGE_WINDOW		= 1024;
+
+	/**
+	 * The listener of the budget.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called by an update when the estimated size exceeds the budget,
+		 * before the eviction. The listener may release the memory or
+		 * unregister the objects.
+		 * 
+		 * @param budget
+		 *            the memory budget
+		 * @param size
+		 *            the estimated size in bytes
+		 */
+		public void overBudget(MemoryBudget budget, long size);
+	}
+
+	/**
+	 * The average size of the instances of a class.
+	 */
+	private static final class Average
+	{
+		double	mean;
+		long	samples;
+
+		void add(long size)
+		{
+			if (samples < AVERAGE_WINDOW)
+				samples++;
+			mean += (size - mean) / samples;
+		}
+	}
+
+	/**
+	 * A registered object.
+	 */
+	private static final class Tracked
+	{
+		final Object	object;
+		final boolean	evictable;
+		/**
+		 * The mean size of an element, the key and the value for a map.
+		 */
+		double			elementSize;
+		/**
+		 * The size of the structure per element once calibrated, otherwise
+		 * <code>-1</code>.
+		 */
+		double			structureSize	= -1;
+		/**
+		 * The count of the elements when the structure was calibrated.
+		 */
+		int				calibratedCount;
+		/**
+		 * The estimated size in bytes.
+		 */
+		long			size;
+
+		Tracked(Object object, boolean evictable)
+		{
+			this.object = object;
+			this.evictable = evictable;
+		}
+
+		boolean isContainer()
+		{
+			return object instanceof Collection || object instanceof Map;
+		}
+
+		int count()
+		{
+			return object instanceof Map ? ((Map<?, ?>) object).size() : ((Collection<?>) object).size();
+		}
+
+		/**
+		 * Returns the elements of the container, the entries of a map.
+		 */
+		Iterable<?> elements()
+		{
+			return object instanceof Map ? ((Map<?, ?>) object).entrySet() : (Collection<?>) object;
+		}
+	}
+
+	/**
+	 * The calculator of the sizes, which logs nothing, since the budget is
+	 * usually updated in the background.
+	 */
+	private final SizeOf					sizeOf				= SizeOf.builder().minSizeToLog(0).build();
+	/**
+	 * The budget in bytes.
+	 */
+	private volatile long					budget;
+	/**
+	 * The count of the elements sampled in every container per update.
+	 */
+	protected final int						sampleSize;
+	/**
+	 * The registered objects in the registration order.
+	 */
+	private final List<Tracked>				tracked				= new ArrayList<Tracked>();
+	/**
+	 * The average sizes of the classes of the elements.
+	 */
+	private final Map<Class<?>, Average>	averages			= new HashMap<Class<?>, Average>();
+	/**
+	 * The listeners.
+	 */
+	private final List<Listener>			listeners			= new CopyOnWriteArrayList<Listener>();
+	/**
+	 * The estimated size of the last update.
+	 */
+	private volatile long					size;
+
+	/**
+	 * Construct an instance of <tt>MemoryBudget</tt> sampling
+	 * {@value #DEFAULT_SAMPLE_SIZE} elements per container.
+	 * 
+	 * @param budget
+	 *            the budget in bytes
+	 */
+	public MemoryBudget(long budget)
+	{
+		this(budget, DEFAULT_SAMPLE_SIZE);
+	}
+
+	/**
+	 * Construct an instance of <tt>MemoryBudget</tt>.
+	 * 
+	 * @param budget
+	 *            the budget in bytes
+	 * @param sampleSize
+	 *            the count of the elements sampled in every container per
+	 *            update
+	 */
+	public MemoryBudget(long budget, int sampleSize)
+	{
+		if (budget < 0)
+			throw new IllegalArgumentException(String.format("Illegal budget: %d", budget));
+		if (sampleSize <= 0)
+			throw new IllegalArgumentException(String.format("Illegal sample size: %d", sampleSize));
+		this.budget = budget;
+		this.sampleSize = sampleSize;
+	}
+
+	/**
+	 * Returns the budget in bytes.
+	 * 
+	 * @return the budget
+	 */
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * Set the budget in bytes, applied by the next update.
+	 * 
+	 * @param budget
+	 *            the budget
+	 */
+	public void setBudget(long budget)
+	{
+		if (budget < 0)
+			throw new IllegalArgumentException(String.format("Illegal budget: %d", budget));
+		this.budget = budget;
+	}
+
+	/**
+	 * Add a listener.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addListener(Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeListener(Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Register an object. A collection or a map is sampled on every update
+	 * and not evicted, another object is sized entirely now.
+	 * 
+	 * @param object
+	 *            the object to track
+	 */
+	public synchronized void register(Object object)
+	{
+		register(object, false);
+	}
+
+	/**
+	 * Register a collection, sampled on every update.
+	 * 
+	 * @param collection
+	 *            the collection to track
+	 * @param evictable
+	 *            <tt>true</tt> if its elements are removed when the budget
+	 *            is exceeded
+	 */
+	public synchronized void register(Collection<?> collection, boolean evictable)
+	{
+		register((Object) collection, evictable);
+	}
+
+	/**
+	 * Register a map, sampled on every update.
+	 * 
+	 * @param map
+	 *            the map to track
+	 * @param evictable
+	 *            <tt>true</tt> if its entries are removed when the budget is
+	 *            exceeded
+	 */
+	public synchronized void register(Map<?, ?> map, boolean evictable)
+	{
+		register((Object) map, evictable);
+	}
+
+	private void register(Object object, boolean evictable)
+	{
+		if (object == null)
+			throw new NullPointerException("Can not register null.");
+		if (find(object) != null)
+			throw new IllegalArgumentException(String.format("%s is already registered.", object.getClass()
+					.getName()));
+		Tracked t = new Tracked(object, evictable);
+		if (t.isContainer())
+			estimate(t);
+		else
+			t.size = sizeOf.deepSize(object);
+		tracked.add(t);
+		size += t.size;
+	}
+
+	/**
+	 * Unregister an object.
+	 * 
+	 * @param object
+	 *            the object
+	 * @return <tt>true</tt> if the object was registered
+	 */
+	public synchronized boolean unregister(Object object)
+	{
+		Tracked t = find(object);
+		if (t == null)
+			return false;
+		tracked.remove(t);
+		size -= t.size;
+		return true;
+	}
+
+	/**
+	 * Size entirely a registered object which is not a container, after it is
+	 * changed.
+	 * 
+	 * @param object
+	 *            the registered object
+	 * @return the size in bytes
+	 */
+	public synchronized long remeasure(Object object)
+	{
+		Tracked t = find(object);
+		if (t == null)
+			throw new IllegalArgumentException(String.format("%s is not registered.", object.getClass().getName()));
+		long old = t.size;
+		if (t.isContainer())
+			estimate(t);
+		else
+			t.size = sizeOf.deepSize(object);
+		size += t.size - old;
+		return t.size;
+	}
+
+	private Tracked find(Object object)
+	{
+		for (Tracked t : tracked)
+			if (t.object == object)
+				return t;
+		return null;
+	}
+
+	/**
+	 * Returns the estimated size of all the registered objects of the last
+	 * update.
+	 * 
+	 * @return the estimated size in bytes
+	 */
+	public long getEstimatedSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the estimated size of a registered object of the last update.
+	 * 
+	 * @param object
+	 *            the registered object
+	 * @return the estimated size in bytes, <code>-1</code> if the object is
+	 *         not registered
+	 */
+	public synchronized long getEstimatedSize(Object object)
+	{
+		Tracked t = find(object);
+		return t == null ? -1 : t.size;
+	}
+
+	/**
+	 * Returns the average size of the sampled elements of the specified class,
+	 * with the objects reachable from them.
+	 * 
+	 * @param c
+	 *            the class
+	 * @return the average size in bytes, <code>-1</code> if no element of the
+	 *         class is sampled
+	 */
+	public synchronized double getAverageSize(Class<?> c)
+	{
+		Average average = averages.get(c);
+		return average == null ? -1 : average.mean;
+	}
+
+	/**
+	 * Sample the containers and update their estimated size. If the size
+	 * exceeds the budget, call the listeners, and then evict the elements of
+	 * the evictable containers until the size is in the budget.
+	 * 
+	 * @return the estimated size in bytes
+	 */
+	public synchronized long update()
+	{
+		long total = 0;
+		for (Tracked t : tracked)
+		{
+			if (t.isContainer())
+				estimate(t);
+			total += t.size;
+		}
+		size = total;
+		if (total <= budget)
+			return total;
+
+		for (Listener listener : listeners)
+			listener.overBudget(this, total);
+		// The listeners may have released some elements or objects.
+		total = 0;
+		for (Tracked t : tracked)
+		{
+			if (t.isContainer())
+				t.size = extrapolate(t, t.count());
+			total += t.size;
+		}
+		size = total;
+		return total <= budget ? total : evict(total);
+	}
+
+	/**
+	 * Schedule the update periodically.
+	 * 
+	 * @param executor
+	 *            the executor
+	 * @param period
+	 *            the period between the updates
+	 * @param unit
+	 *            the unit of the period
+	 * @return the future of the scheduled updates, cancel it to stop
+	 */
+	public ScheduledFuture<?> schedule(ScheduledExecutorService executor, long period, TimeUnit unit)
+	{
+		return executor.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				update();
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Evict the elements of the evictable containers, in the registration
+	 * order, until the size is in the budget. The size of the structure per
+	 * element is kept, and measured again only when the count of elements
+	 * falls fourfold, since a table does not shrink with its elements; the
+	 * eviction is repeated a few times if needed.
+	 */
+	private long evict(long total)
+	{
+		for (Tracked t : tracked)
+		{
+			if (!t.evictable)
+				continue;
+			for (int round = 0; round < 3 && total > budget; round++)
+			{
+				int count = t.count();
+				if (count == 0)
+					break;
+				double perElement = (double) t.size / count;
+				long excess = (long) Math.ceil((total - budget) / perElement);
+				int removed = 0;
+				synchronized (t.object)
+				{
+					try
+					{
+						for (Iterator<?> it = t.elements().iterator(); removed < excess && it.hasNext(); removed++)
+						{
+							it.next();
+							it.remove();
+						}
+					}
+					catch (ConcurrentModificationException e)
+					{
+						// Evict more on the next update.
+					}
+				}
+				long old = t.size;
+				count = t.count();
+				if (isUncalibrated(t, count))
+					calibrate(t);
+				t.size = extrapolate(t, count);
+				total += t.size - old;
+				if (removed == 0)
+					break;
+			}
+		}
+		size = total;
+		return total;
+	}
+
+	/**
+	 * Sample the elements of a container and update its estimated size.
+	 */
+	private void estimate(Tracked t)
+	{
+		Object[] samples = sample(t);
+		if (samples.length > 0)
+		{
+			SizeOf.IdentitySet done = new SizeOf.IdentitySet();
+			// The first sample reaches the objects shared by all the elements,
+			// like the static fields of their classes, it is not averaged.
+			int first = samples.length > 1 ? 1 : 0;
+			if (first > 0)
+				sample(samples[0], done, false);
+			double sum = 0;
+			for (int i = first; i < samples.length; i++)
+				sum += sample(samples[i], done, true);
+			t.elementSize = sum / (samples.length - first);
+		}
+		int count = t.count();
+		if (isUncalibrated(t, count))
+			calibrate(t);
+		t.size = extrapolate(t, count);
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the structure of a container must be measured
+	 * for the specified count of elements: it is small, never measured, or
+	 * its count has changed fourfold since measured.
+	 */
+	private static boolean isUncalibrated(Tracked t, int count)
+	{
+		return count < CALIBRATION_COUNT || t.structureSize < 0 || count > t.calibratedCount * 4
+				|| count < t.calibratedCount / 4;
+	}
+
+	/**
+	 * Size an element, the key and the value of an entry, sharing the objects
+	 * already sized in the same container, and returns the average size of its
+	 * classes.
+	 */
+	private double sample(Object e, SizeOf.IdentitySet done, boolean average)
+	{
+		if (e instanceof Map.Entry)
+		{
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) e;
+			return sample(entry.getKey(), done, average) + sample(entry.getValue(), done, average);
+		}
+		if (e == null)
+			return 0;
+		long size = sizeOf.deepSize(e, done);
+		if (!average)
+			return size;
+		Average a = averages.get(e.getClass());
+		if (a == null)
+			averages.put(e.getClass(), a = new Average());
+		a.add(size);
+		return a.mean;
+	}
+
+	/**
+	 * Returns the sampled elements of a container, the entries of a map.
+	 */
+	private Object[] sample(Tracked t)
+	{
+		int count = t.count();
+		int n = Math.min(count, sampleSize);
+		List<Object> samples = new ArrayList<Object>(n);
+		if (n == 0)
+			return samples.toArray();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		synchronized (t.object)
+		{
+			try
+			{
+				if (t.object instanceof List && t.object instanceof RandomAccess)
+				{
+					List<?> list = (List<?>) t.object;
+					for (int i = 0; i < n; i++)
+						samples.add(list.get(random.nextInt(count)));
+				}
+				else
+				{
+					int stride = count / n;
+					int next = random.nextInt(stride);
+					Iterator<?> it = t.elements().iterator();
+					for (int i = 0; samples.size() < n && it.hasNext(); i++)
+					{
+						Object e = it.next();
+						if (i == next)
+						{
+							samples.add(e);
+							next += stride;
+						}
+					}
+				}
+			}
+			catch (ConcurrentModificationException | IndexOutOfBoundsException e)
+			{
+				// Changed meanwhile, keep the samples taken.
+			}
+		}
+		return samples.toArray();
+	}
+
+	/**
+	 * Measure the size of the structure of a container, without its elements.
+	 */
+	private void calibrate(Tracked t)
+	{
+		SizeOf.IdentitySet elements = new SizeOf.IdentitySet();
+		int count = 0;
+		synchronized (t.object)
+		{
+			try
+			{
+				for (Object e : t.elements())
+				{
+					if (e instanceof Map.Entry)
+					{
+						Map.Entry<?, ?> entry = (Map.Entry<?, ?>) e;
+						exclude(elements, entry.getKey());
+						exclude(elements, entry.getValue());
+					}
+					else
+						exclude(elements, e);
+					count++;
+				}
+			}
+			catch (ConcurrentModificationException e)
+			{
+				// Calibrate on the next update.
+				return;
+			}
+			long structure = sizeOf.deepSize(t.object, elements) - sizeOf.shallowSize(t.object);
+			t.structureSize = count == 0 ? 0 : (double) structure / count;
+			t.calibratedCount = count;
+		}
+	}
+
+	private static void exclude(SizeOf.IdentitySet elements, Object o)
+	{
+		if (o != null)
+			elements.add(o);
+	}
+
+	/**
+	 * Returns the estimated size of a container with the specified count of
+	 * elements.
+	 */
+	private long extrapolate(Tracked t, int count)
+	{
+		return sizeOf.shallowSize(t.object) + Math.round(count * (Math.max(t.structureSize, 0) + t.elementSize));
+	}
+}
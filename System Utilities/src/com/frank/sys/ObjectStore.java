@@ -0,0 +1,1076 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * ObjectStore.java is PROPRIETARY/CONFIDENTIAL built in 7:02:33 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The append-only object store.
+ * <p>
+ * The objects are stored by key in a single data file instead of one file
+ * each. Every {@link #put(String, Object)} appends a record of the key and the
+ * serialized object, and every {@link #remove(String)} appends a tombstone, so
+ * the records are never rewritten in place and a crash loses at most the last
+ * record. The offsets of the live records are kept in memory, and are saved
+ * to an index file beside the data file by {@link #sync()} and
+ * {@link #close()}. When the store is opened, the index is loaded and only the
+ * records appended after it was saved are scanned, so opening a large store is
+ * fast; a missing or stale index is rebuilt by scanning the whole data file.
+ * </p>
+ * <p>
+ * The records are read from a read-only memory mapping of the data file, so a
+ * read costs no system call and no copy other than the deserialization. The
+ * space of the overwritten and removed records is reclaimed by
+ * {@link #compact()}. The objects are serialized as
+ * {@link SystemUtils#writeObject(File, Object)} does by default.
+ * </p>
+ * <p>
+ * The store is thread safe: the reads run concurrently and the writes are
+ * exclusive. The data file is locked while the store is open, so it can not
+ * be opened by another process.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class ObjectStore implements Iterable<Map.Entry<String, Object>>, Closeable
+{
+	/**
+	 * The magic number of the data file.
+	 */
+	private static final int			DATA_MAGIC		= 0x4F424A53;
+	/**
+	 * The magic number of the index file.
+	 */
+	private static final int			INDEX_MAGIC		= 0x4F424958;
+	/**
+	 * The version of the file formats.
+	 */
+	private static final int			VERSION			= 1;
+	/**
+	 * The size of the header of the data file.
+	 */
+	private static final int			HEADER_SIZE		= 8;
+	/**
+	 * The length of the value of a tombstone.
+	 */
+	private static final int			TOMBSTONE		= -1;
+	/**
+	 * The maximum length of the mapping.
+	 */
+	private static final long			MAX_MAPPING		= Integer.MAX_VALUE;
+	/**
+	 * The UTF-8 charset of the keys.
+	 */
+	private static final Charset		UTF8			= Charset.forName("UTF-8");
+	/**
+	 * The <code>sun.misc.Unsafe</code> releasing a mapping on Java 9 and
+	 * later, looked up by reflection as it is not a public API,
+	 * <code>null</code> if it is not available.
+	 */
+	private static final Object			UNSAFE;
+	/**
+	 * The method of the <code>sun.misc.Unsafe</code> releasing a mapping.
+	 */
+	private static final Method			INVOKE_CLEANER;
+	/**
+	 * The method returning the cleaner of a mapping on Java 8 and earlier,
+	 * <code>null</code> if it is not available either, then a mapping is
+	 * released by the garbage collector only.
+	 */
+	private static final Method			CLEANER;
+	/**
+	 * The method releasing a mapping by its cleaner.
+	 */
+	private static final Method			CLEAN;
+
+	static
+	{
+		Object unsafe = null;
+		Method invokeCleaner = null, cleaner = null, clean = null;
+		try
+		{
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+		}
+		catch (Exception e)
+		{
+			invokeCleaner = null;
+			try
+			{
+				cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			}
+			catch (Exception ex)
+			{
+				// Not available on this JVM.
+			}
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+		CLEANER = cleaner;
+		CLEAN = clean;
+	}
+
+	/**
+	 * The data file.
+	 */
+	protected final File				file;
+	/**
+	 * The index file.
+	 */
+	protected final File				indexFile;
+	/**
+	 * The serializer of the objects.
+	 */
+	protected final Serializer			serializer;
+	/**
+	 * The lock of the index and the data file.
+	 */
+	private final ReadWriteLock			lock;
+	/**
+	 * The offsets of the live records by key.
+	 */
+	private final HashMap<String, Long>	index;
+	/**
+	 * The channel of the data file.
+	 */
+	private FileChannel					channel;
+	/**
+	 * The lock of the data file, referenced as the JVM forgets an unreferenced
+	 * lock and then lets another store of the same JVM open the file.
+	 */
+	private FileLock					fileLock;
+	/**
+	 * The mapping of the data file, which may not cover the last records.
+	 */
+	private volatile MappedByteBuffer	mapping;
+	/**
+	 * The mappings replaced by a longer one, still mapped until the store is
+	 * locked exclusively and no reader uses them.
+	 */
+	private final List<ByteBuffer>		retired;
+	/**
+	 * The length of the data file.
+	 */
+	private long						length;
+	/**
+	 * The count of the bytes of the dead records.
+	 */
+	private long						garbage;
+	/**
+	 * The count of the compactions, which invalidate the offsets.
+	 */
+	private int							generation;
+
+	/**
+	 * Open or create a store in the specified data file with Java<sup>TM</sup>
+	 * serialization.
+	 * 
+	 * @param file
+	 *            the data file
+	 * @throws IOException
+	 *             if the store can not be opened or the data file is not a
+	 *             store
+	 */
+	public ObjectStore(File file) throws IOException
+	{
+		this(file, new JavaSerializer());
+	}
+
+	/**
+	 * Open or create a store in the specified data file.
+	 * <p>
+	 * The index file is the data file name followed by <code>.idx</code>. A
+	 * record truncated by a crash at the end of the data file is discarded.
+	 * </p>
+	 * 
+	 * @param file
+	 *            the data file
+	 * @param serializer
+	 *            the serializer of the objects
+	 * @throws IOException
+	 *             if the store can not be opened or the data file is not a
+	 *             store
+	 */
+	public ObjectStore(File file, Serializer serializer) throws IOException
+	{
+		this.file = file;
+		this.indexFile = new File(file.getPath() + ".idx");
+		this.serializer = serializer;
+		lock = new ReentrantReadWriteLock();
+		index = new HashMap<String, Long>();
+		retired = new ArrayList<ByteBuffer>();
+		SystemUtils.createFileIfNotExist(file);
+		channel = openChannel();
+		try
+		{
+			open();
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open the channel of the data file and lock the file.
+	 * 
+	 * @return the channel
+	 * @throws IOException
+	 *             if the file can not be opened or is locked by another
+	 *             process
+	 */
+	private FileChannel openChannel() throws IOException
+	{
+		FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try
+		{
+			if ((fileLock = fc.tryLock()) == null)
+				throw new IOException(String.format("The store %s is opened by another process.", file));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			fc.close();
+			throw e;
+		}
+		return fc;
+	}
+
+	/**
+	 * Check the header, load the index and scan the records after it.
+	 * 
+	 * @throws IOException
+	 *             if an IO error occurs or the data file is not a store
+	 */
+	private void open() throws IOException
+	{
+		long size = channel.size();
+		if (size == 0)
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(DATA_MAGIC).putInt(VERSION).flip();
+			writeFully(header, 0);
+			size = HEADER_SIZE;
+		}
+		else
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header, header.position()) >= 0)
+				;
+			header.flip();
+			if (header.remaining() < HEADER_SIZE || header.getInt() != DATA_MAGIC)
+				throw new StreamCorruptedException(String.format("%s is not an object store.", file));
+			int version = header.getInt();
+			if (version != VERSION)
+				throw new StreamCorruptedException(String.format("Unsupported store version: %d", version));
+		}
+		length = size;
+		long scanned = loadIndex();
+		scan(scanned < 0 ? HEADER_SIZE : scanned);
+		mapping = map();
+	}
+
+	/**
+	 * Load the index file.
+	 * 
+	 * @return the length of the data file covered by the index, -1 if the index
+	 *         is missing, corrupted or does not match the data file
+	 */
+	private long loadIndex()
+	{
+		if (!indexFile.isFile())
+			return -1;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile),
+				SystemUtils.BUFFER_SIZE)))
+		{
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION)
+				return -1;
+			long covered = in.readLong();
+			long dead = in.readLong();
+			int count = in.readInt();
+			if (covered < HEADER_SIZE || covered > length || count < 0)
+				return -1;
+			byte[] b = new byte[64];
+			for (int i = 0; i < count; i++)
+			{
+				int n = in.readInt();
+				if (n < 0)
+					throw new StreamCorruptedException();
+				if (b.length < n)
+					b = new byte[Math.max(n, b.length * 2)];
+				in.readFully(b, 0, n);
+				long offset = in.readLong();
+				if (offset < HEADER_SIZE || offset >= covered)
+					throw new StreamCorruptedException();
+				index.put(new String(b, 0, n, UTF8), offset);
+			}
+			garbage = dead;
+			return covered;
+		}
+		catch (IOException e)
+		{
+			// Rebuild the index from the data file.
+			index.clear();
+			garbage = 0;
+			return -1;
+		}
+	}
+
+	/**
+	 * Scan the records from the specified offset to the end of the data file,
+	 * truncating the file at the first incomplete record.
+	 * 
+	 * @param offset
+	 *            the offset of the first record
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	private void scan(long offset) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+				SystemUtils.BUFFER_SIZE)))
+		{
+			skipFully(in, offset);
+			byte[] b = new byte[64];
+			while (offset < length)
+			{
+				long remaining = length - offset;
+				if (remaining < 8)
+					break;
+				int keyLength = in.readInt();
+				if (keyLength < 0 || keyLength > remaining - 8)
+					break;
+				if (b.length < keyLength)
+					b = new byte[Math.max(keyLength, b.length * 2)];
+				in.readFully(b, 0, keyLength);
+				int valueLength = in.readInt();
+				long size = 8L + keyLength + Math.max(valueLength, 0);
+				if (valueLength < TOMBSTONE || size > remaining)
+					break;
+				String key = new String(b, 0, keyLength, UTF8);
+				Long old = valueLength == TOMBSTONE ? index.remove(key) : index.put(key, offset);
+				if (old != null)
+					garbage += recordSize(old);
+				if (valueLength == TOMBSTONE)
+					garbage += size;
+				skipFully(in, Math.max(valueLength, 0));
+				offset += size;
+			}
+		}
+		catch (EOFException e)
+		{
+			// Truncated by the size check below.
+		}
+		if (offset < length)
+		{
+			channel.truncate(offset);
+			length = offset;
+		}
+	}
+
+	/**
+	 * Returns the count of the objects in the store.
+	 * 
+	 * @return the count of the objects
+	 */
+	public int size()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return index.size();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the store contains an object of the specified
+	 * key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return <tt>true</tt> if the key is stored
+	 */
+	public boolean contains(String key)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return index.containsKey(key);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the length of the data file in bytes.
+	 * 
+	 * @return the length of the data file
+	 */
+	public long length()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return length;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the count of the bytes of the overwritten and removed records,
+	 * which are reclaimed by {@link #compact()}.
+	 * 
+	 * @return the count of the dead bytes
+	 */
+	public long getGarbage()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return garbage;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Store the specified object with the specified key, replacing the object
+	 * stored with the key before.
+	 * <p>
+	 * The object is serialized before the store is locked, so the writers only
+	 * wait for each other to append.
+	 * </p>
+	 * 
+	 * @param key
+	 *            the key
+	 * @param obj
+	 *            the object to store
+	 * @throws IOException
+	 *             if an IO error occurs or the object can not be serialized
+	 */
+	public void put(String key, Object obj) throws IOException
+	{
+		byte[] k = key.getBytes(UTF8);
+		RecordBuffer record = new RecordBuffer();
+		DataOutputStream out = new DataOutputStream(record);
+		out.writeInt(k.length);
+		out.write(k);
+		out.writeInt(0);
+		serializer.write(out, obj);
+		record.setInt(4 + k.length, record.size() - 8 - k.length);
+		append(key, record, false);
+	}
+
+	/**
+	 * Remove the object of the specified key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return <tt>true</tt> if the key was stored
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public boolean remove(String key) throws IOException
+	{
+		if (!contains(key))
+			return false;
+		byte[] k = key.getBytes(UTF8);
+		RecordBuffer record = new RecordBuffer();
+		DataOutputStream out = new DataOutputStream(record);
+		out.writeInt(k.length);
+		out.write(k);
+		out.writeInt(TOMBSTONE);
+		return append(key, record, true);
+	}
+
+	/**
+	 * Append the specified record and update the index.
+	 * 
+	 * @return <tt>true</tt> if the key was stored
+	 */
+	private boolean append(String key, RecordBuffer record, boolean tombstone) throws IOException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			ensureOpen();
+			if (tombstone && !index.containsKey(key))
+				return false;
+			long offset = length;
+			writeFully(record.toByteBuffer(), offset);
+			length += record.size();
+			Long old = tombstone ? index.remove(key) : index.put(key, offset);
+			if (old != null)
+				garbage += recordSize(old);
+			if (tombstone)
+				garbage += record.size();
+			return old != null;
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the object stored with the specified key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the object, <code>null</code> if the key is not stored
+	 * @throws IOException
+	 *             if an IO error occurs or the object can not be deserialized
+	 * @throws ClassNotFoundException
+	 *             if the class of the object is not found
+	 */
+	public Object get(String key) throws IOException, ClassNotFoundException
+	{
+		lock.readLock().lock();
+		try
+		{
+			ensureOpen();
+			Long offset = index.get(key);
+			return offset == null ? null : read(offset);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns an iterator of the stored keys and objects in the order of the
+	 * data file, which reads the mapping sequentially.
+	 * <p>
+	 * The iterator reads the objects stored when it is created. It throws a
+	 * {@linkplain ConcurrentModificationException} if the store is compacted or
+	 * closed during the iteration, and an {@linkplain IllegalStateException} if
+	 * an object can not be read.
+	 * </p>
+	 * 
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<Map.Entry<String, Object>> iterator()
+	{
+		final List<Map.Entry<String, Long>> entries;
+		final int expected;
+		lock.readLock().lock();
+		try
+		{
+			entries = new ArrayList<Map.Entry<String, Long>>(index.entrySet());
+			expected = generation;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>()
+		{
+			@Override
+			public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b)
+			{
+				return a.getValue().compareTo(b.getValue());
+			}
+		});
+		return new Iterator<Map.Entry<String, Object>>()
+		{
+			private int	cursor;
+
+			@Override
+			public boolean hasNext()
+			{
+				return cursor < entries.size();
+			}
+
+			@Override
+			public Map.Entry<String, Object> next()
+			{
+				if (cursor >= entries.size())
+					throw new NoSuchElementException("There is no more objects.");
+				Map.Entry<String, Long> e = entries.get(cursor++);
+				lock.readLock().lock();
+				try
+				{
+					if (generation != expected || channel == null)
+						throw new ConcurrentModificationException("The store is compacted or closed.");
+					return new SimpleImmutableEntry<String, Object>(e.getKey(), read(e.getValue()));
+				}
+				catch (IOException | ClassNotFoundException ex)
+				{
+					throw new IllegalStateException(String.format("Can not read the object of %s.", e.getKey()), ex);
+				}
+				finally
+				{
+					lock.readLock().unlock();
+				}
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException("Use ObjectStore.remove(String) instead.");
+			}
+		};
+	}
+
+	/**
+	 * Rewrite the data file with the live records only.
+	 * <p>
+	 * The records are copied as they are, without deserialization, to a
+	 * temporary file which then replaces the data file, so a crash leaves
+	 * either the old or the new data file. The index file is deleted before
+	 * the replacement and saved after it, so a stale index is never loaded
+	 * with the new data file. The store is locked exclusively during the
+	 * compaction.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public void compact() throws IOException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			ensureOpen();
+			List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(index.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<String, Long>>()
+			{
+				@Override
+				public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b)
+				{
+					return a.getValue().compareTo(b.getValue());
+				}
+			});
+			File temp = new File(file.getPath() + ".compact");
+			HashMap<String, Long> compacted = new HashMap<String, Long>(index.size() * 4 / 3 + 1);
+			long offset = HEADER_SIZE;
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp),
+					1 << 16)))
+			{
+				out.writeInt(DATA_MAGIC);
+				out.writeInt(VERSION);
+				for (Map.Entry<String, Long> e : entries)
+				{
+					ByteBuffer record = record(e.getValue());
+					int size = record.remaining();
+					if (record.hasArray())
+						out.write(record.array(), record.arrayOffset() + record.position(), size);
+					else
+						while (record.hasRemaining())
+							out.write(record.get());
+					compacted.put(e.getKey(), offset);
+					offset += size;
+				}
+			}
+			try (FileChannel fc = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE))
+			{
+				fc.force(true);
+			}
+			// The index does not match the new data file, it is rebuilt by
+			// scanning if a crash happens before it is saved again.
+			Files.deleteIfExists(indexFile.toPath());
+			unmap();
+			channel.close();
+			try
+			{
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (IOException e)
+			{
+				// Keep the old data file open, the index in memory matches it.
+				try
+				{
+					channel = openChannel();
+					mapping = map();
+				}
+				catch (IOException ex)
+				{
+					channel = null;
+					e.addSuppressed(ex);
+				}
+				Files.deleteIfExists(temp.toPath());
+				throw e;
+			}
+			channel = openChannel();
+			index.clear();
+			index.putAll(compacted);
+			length = offset;
+			garbage = 0;
+			generation++;
+			mapping = map();
+			saveIndex();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Force the data file to the storage device and save the index.
+	 * 
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public void sync() throws IOException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			ensureOpen();
+			channel.force(false);
+			saveIndex();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Save the index and close the store.
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			if (channel == null)
+				return;
+			try
+			{
+				saveIndex();
+			}
+			finally
+			{
+				unmap();
+				channel.close();
+				channel = null;
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Save the index to a temporary file which then replaces the index file.
+	 * 
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	private void saveIndex() throws IOException
+	{
+		File temp = new File(indexFile.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp),
+				1 << 16)))
+		{
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(length);
+			out.writeLong(garbage);
+			out.writeInt(index.size());
+			for (Map.Entry<String, Long> e : index.entrySet())
+			{
+				byte[] k = e.getKey().getBytes(UTF8);
+				out.writeInt(k.length);
+				out.write(k);
+				out.writeLong(e.getValue());
+			}
+		}
+		Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Deserialize the object of the record at the specified offset.
+	 */
+	private Object read(long offset) throws IOException, ClassNotFoundException
+	{
+		ByteBuffer record = record(offset);
+		int keyLength = record.getInt(record.position());
+		record.position(record.position() + 8 + keyLength);
+		return serializer.read(new ByteBufferInputStream(record));
+	}
+
+	/**
+	 * Returns the record at the specified offset, from the mapping if it
+	 * covers the record, otherwise read from the channel.
+	 */
+	private ByteBuffer record(long offset) throws IOException
+	{
+		ByteBuffer m = mapping;
+		if (m != null && offset + 8 > m.capacity())
+			m = remap(offset + 8);
+		if (m != null && offset + 8 <= m.capacity())
+		{
+			int p = (int) offset;
+			int keyLength = m.getInt(p);
+			// The length of the value follows the key, which may end beyond
+			// the mapping.
+			long end = offset + 8 + keyLength;
+			if (end > m.capacity())
+				m = remap(end);
+			if (end <= m.capacity())
+			{
+				end += Math.max(m.getInt(p + 4 + keyLength), 0);
+				if (end > m.capacity())
+					m = remap(end);
+				if (end <= m.capacity())
+				{
+					ByteBuffer record = m.duplicate();
+					record.limit((int) end).position(p);
+					return record;
+				}
+			}
+		}
+		// The record is beyond the maximum mapping, or the file is not mapped
+		// yet while it is scanned.
+		ByteBuffer header = ByteBuffer.allocate(4);
+		readFully(header, offset);
+		int keyLength = header.getInt(0);
+		header = ByteBuffer.allocate(4);
+		readFully(header, offset + 4 + keyLength);
+		int valueLength = header.getInt(0);
+		ByteBuffer record = ByteBuffer.allocate(8 + keyLength + Math.max(valueLength, 0));
+		readFully(record, offset);
+		record.flip();
+		return record;
+	}
+
+	/**
+	 * Returns the byte count of the record at the specified offset.
+	 */
+	private long recordSize(long offset) throws IOException
+	{
+		return record(offset).remaining();
+	}
+
+	/**
+	 * Map the data file again if the mapping does not cover the specified
+	 * length.
+	 * 
+	 * @param required
+	 *            the required length of the mapping
+	 * @return the mapping
+	 */
+	private synchronized MappedByteBuffer remap(long required) throws IOException
+	{
+		if (mapping.capacity() < required && mapping.capacity() < Math.min(length, MAX_MAPPING))
+		{
+			// The concurrent readers may still use the shorter mapping.
+			retired.add(mapping);
+			mapping = map();
+		}
+		return mapping;
+	}
+
+	/**
+	 * Release the mapping and the retired ones at once instead of by the
+	 * garbage collector, so the data file can be replaced or deleted, which
+	 * fails on a mapped file on Windows. The store must be locked exclusively,
+	 * as a released mapping must never be read again.
+	 */
+	private synchronized void unmap()
+	{
+		if (mapping != null)
+			retired.add(mapping);
+		mapping = null;
+		for (ByteBuffer m : retired)
+			try
+			{
+				if (INVOKE_CLEANER != null)
+					INVOKE_CLEANER.invoke(UNSAFE, m);
+				else if (CLEANER != null)
+				{
+					Object cleaner = CLEANER.invoke(m);
+					if (cleaner != null)
+						CLEAN.invoke(cleaner);
+				}
+			}
+			catch (Exception e)
+			{
+				// Left to the garbage collector.
+			}
+		retired.clear();
+	}
+
+	private MappedByteBuffer map() throws IOException
+	{
+		return channel.map(MapMode.READ_ONLY, 0, Math.min(length, MAX_MAPPING));
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int n = channel.read(buffer, position);
+			if (n < 0)
+				throw new EOFException(String.format("Unexpected end of %s.", file));
+			position += n;
+		}
+	}
+
+	private static void skipFully(InputStream in, long n) throws IOException
+	{
+		while (n > 0)
+		{
+			long skipped = in.skip(n);
+			if (skipped <= 0)
+				throw new EOFException();
+			n -= skipped;
+		}
+	}
+
+	private void ensureOpen() throws IOException
+	{
+		if (channel == null)
+			throw new IOException("The store is closed.");
+	}
+
+	/**
+	 * The buffer of a record whose value length is patched after the value is
+	 * serialized.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	private static final class RecordBuffer extends ByteArrayOutputStream
+	{
+		RecordBuffer()
+		{
+			super(256);
+		}
+
+		void setInt(int index, int v)
+		{
+			buf[index] = (byte) (v >>> 24);
+			buf[index + 1] = (byte) (v >>> 16);
+			buf[index + 2] = (byte) (v >>> 8);
+			buf[index + 3] = (byte) v;
+		}
+
+		ByteBuffer toByteBuffer()
+		{
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+	/**
+	 * The input stream reading the remaining bytes of a buffer.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	private static final class ByteBufferInputStream extends InputStream
+	{
+		private final ByteBuffer	buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read()
+		{
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n)
+		{
+			int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available()
+		{
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * ParallelFileWalker.java is PROPRIETARY/CONFIDENTIAL built in 1:12:40 PM, Oct
+ * 18, 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parallel directory walker.
+ * <p>
+ * The walker lists the directories concurrently on a fork/join pool, every
+ * sub-directory is listed by a separated task, so the latency of the listing
+ * calls overlaps. This is significant on network file systems, where the
+ * parallelism may be set much higher than the count of the processors.
+ * </p>
+ * <p>
+ * The filter works as in
+ * {@linkplain SystemUtils#loadFiles(Collection, File, FileFilter)}: it is
+ * applied to the listing of every directory, so it must accept the
+ * directories to descend into them, and a <code>null</code> filter accepts
+ * everything.
+ * </p>
+ * Two ordering guarantees are provided:
+ * <ul>
+ * <li>{@link #walk(File, Collection)} returns the files in exactly the same
+ * order as <code>loadFiles</code>, depth-first in the listing order.</li>
+ * <li>{@link #iterator(File, int)} streams the files through a bounded queue
+ * as soon as they are listed, in no particular order.</li>
+ * </ul>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class ParallelFileWalker
+{
+	/**
+	 * The marker of the end of the streamed files.
+	 */
+	private static final File		END		= new File("");
+	/**
+	 * The empty entries of a directory which can not be listed.
+	 */
+	private static final Object[]	EMPTY	= new Object[0];
+
+	/**
+	 * The file filter, <code>null</code> to accept all.
+	 */
+	protected final FileFilter		filter;
+	/**
+	 * The fork/join pool listing the directories.
+	 */
+	protected final ForkJoinPool	pool;
+
+	/**
+	 * Construct an instance of <tt>ParallelFileWalker</tt> with the parallelism
+	 * equals to the count of the processors.
+	 * 
+	 * @param filter
+	 *            the file filter, <code>null</code> to accept all
+	 */
+	public ParallelFileWalker(FileFilter filter)
+	{
+		this(filter, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Construct an instance of <tt>ParallelFileWalker</tt>.
+	 * 
+	 * @param filter
+	 *            the file filter, <code>null</code> to accept all
+	 * @param parallelism
+	 *            the count of the directories listed concurrently
+	 */
+	public ParallelFileWalker(FileFilter filter, int parallelism)
+	{
+		this.filter = filter;
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Returns the count of the directories listed concurrently.
+	 * 
+	 * @return the parallelism
+	 */
+	public int getParallelism()
+	{
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Load all the files accepted by the filter under the specified directory
+	 * into the specified <code>File</code> collection.
+	 * <p>
+	 * The files are added in the same order as
+	 * {@link SystemUtils#loadFiles(Collection, File, FileFilter)}. The
+	 * directories which can not be listed are skipped.
+	 * </p>
+	 * 
+	 * @param root
+	 *            the specified file or directory
+	 * @param files
+	 *            the specified <code>File</code> collection
+	 */
+	public void walk(File root, Collection<File> files)
+	{
+		if (!root.isDirectory())
+		{
+			if (filter == null || filter.accept(root))
+				files.add(root);
+			return;
+		}
+		ListTask task = new ListTask(root);
+		pool.invoke(task);
+		// Flatten the task tree depth-first.
+		ArrayDeque<ListTask> tasks = new ArrayDeque<ListTask>();
+		ArrayDeque<Integer> indices = new ArrayDeque<Integer>();
+		tasks.push(task);
+		indices.push(0);
+		while (!tasks.isEmpty())
+		{
+			ListTask top = tasks.peek();
+			int i = indices.pop();
+			if (i == top.entries.length)
+			{
+				tasks.pop();
+				continue;
+			}
+			indices.push(i + 1);
+			Object entry = top.entries[i];
+			if (entry instanceof ListTask)
+			{
+				tasks.push((ListTask) entry);
+				indices.push(0);
+			}
+			else
+				files.add((File) entry);
+		}
+	}
+
+	/**
+	 * Returns all the files accepted by the filter under the specified
+	 * directory.
+	 * 
+	 * @param root
+	 *            the specified file or directory
+	 * @return the files
+	 * @see #walk(File, Collection)
+	 */
+	public List<File> walk(File root)
+	{
+		List<File> files = new ArrayList<File>();
+		walk(root, files);
+		return files;
+	}
+
+	/**
+	 * Returns an iterator streaming the files accepted by the filter under the
+	 * specified directory.
+	 * <p>
+	 * The directories are listed in background, the files are passed through a
+	 * bounded queue in no particular order. The listing tasks wait while the
+	 * queue is full, so the memory used is bounded by the capacity of the queue
+	 * and a slow consumer slows the listing down. Close the iterator to cancel
+	 * the listing if it is not read to the end.
+	 * </p>
+	 * 
+	 * @param root
+	 *            the specified file or directory
+	 * @param capacity
+	 *            the capacity of the queue
+	 * @return the iterator
+	 */
+	public WalkIterator iterator(File root, int capacity)
+	{
+		WalkIterator iterator = new WalkIterator(capacity);
+		pool.execute(new StreamRootTask(root, iterator));
+		return iterator;
+	}
+
+	/**
+	 * Shutdown the walker, the walks in progress are completed.
+	 */
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	/**
+	 * The task listing a directory and its sub-directories.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	@SuppressWarnings("serial")
+	private final class ListTask extends RecursiveAction
+	{
+		private final File	dir;
+		/**
+		 * The entries in listing order, either a {@linkplain File} or the
+		 * {@linkplain ListTask} of a sub-directory.
+		 */
+		private Object[]	entries;
+
+		ListTask(File dir)
+		{
+			this.dir = dir;
+		}
+
+		@Override
+		protected void compute()
+		{
+			File[] list = dir.listFiles(filter);
+			if (list == null)
+			{
+				entries = EMPTY;
+				return;
+			}
+			entries = new Object[list.length];
+			List<ListTask> subtasks = null;
+			for (int i = 0; i < list.length; i++)
+				if (list[i].isDirectory())
+				{
+					ListTask subtask = new ListTask(list[i]);
+					if (subtasks == null)
+						subtasks = new ArrayList<ListTask>();
+					subtasks.add(subtask);
+					entries[i] = subtask;
+				}
+				else
+					entries[i] = list[i];
+			if (subtasks != null)
+				invokeAll(subtasks);
+		}
+	}
+
+	/**
+	 * The task listing a directory and its sub-directories into the queue.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	@SuppressWarnings("serial")
+	private final class StreamTask extends RecursiveAction
+	{
+		private final File			dir;
+		private final WalkIterator	iterator;
+
+		StreamTask(File dir, WalkIterator iterator)
+		{
+			this.dir = dir;
+			this.iterator = iterator;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (iterator.closed)
+				return;
+			File[] list = dir.listFiles(filter);
+			if (list == null)
+				return;
+			List<StreamTask> subtasks = null;
+			for (File file : list)
+				if (file.isDirectory())
+				{
+					if (subtasks == null)
+						subtasks = new ArrayList<StreamTask>();
+					subtasks.add(new StreamTask(file, iterator));
+				}
+				else if (!iterator.put(file))
+					return;
+			if (subtasks != null)
+				invokeAll(subtasks);
+		}
+	}
+
+	/**
+	 * The root task of a streamed walk which marks the end of the walk.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	@SuppressWarnings("serial")
+	private final class StreamRootTask extends RecursiveAction
+	{
+		private final File			root;
+		private final WalkIterator	iterator;
+
+		StreamRootTask(File root, WalkIterator iterator)
+		{
+			this.root = root;
+			this.iterator = iterator;
+		}
+
+		@Override
+		protected void compute()
+		{
+			try
+			{
+				if (root.isDirectory())
+					new StreamTask(root, iterator).invoke();
+				else if (filter == null || filter.accept(root))
+					iterator.put(root);
+			}
+			catch (Throwable e)
+			{
+				iterator.error = e;
+			}
+			finally
+			{
+				iterator.put(END);
+			}
+		}
+	}
+
+	/**
+	 * The iterator of the streamed files.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public static final class WalkIterator implements Iterator<File>, Closeable
+	{
+		/**
+		 * The milliseconds to wait for the queue before checking the
+		 * cancellation again.
+		 */
+		private static final long			POLL_MILLIS	= 100;
+
+		private final BlockingQueue<File>	queue;
+		private volatile boolean			closed;
+		private volatile Throwable			error;
+		private File						next;
+		private boolean						done;
+
+		WalkIterator(int capacity)
+		{
+			queue = new ArrayBlockingQueue<File>(capacity);
+		}
+
+		/**
+		 * Put the file into the queue, waits while the queue is full.
+		 * 
+		 * @param file
+		 *            the file to put
+		 * @return <code>false</code> if the iterator is closed
+		 */
+		boolean put(File file)
+		{
+			try
+			{
+				while (!closed)
+					if (queue.offer(file, POLL_MILLIS, TimeUnit.MILLISECONDS))
+						return true;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+
+		/**
+		 * Returns <tt>true</tt> if the walk has more files, waits until the
+		 * next file is listed or the walk is completed.
+		 * 
+		 * @return <tt>true</tt> if the walk has more files
+		 * @throws IllegalStateException
+		 *             if the listing fails or the waiting thread is interrupted
+		 */
+		@Override
+		public boolean hasNext()
+		{
+			if (next != null)
+				return true;
+			if (done)
+				return false;
+			try
+			{
+				next = queue.take();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the next file.", e);
+			}
+			if (next == END)
+			{
+				next = null;
+				done = true;
+				if (error != null)
+					throw new IllegalStateException("The directory walk is failed.", error);
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public File next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException("There is no more files.");
+			File file = next;
+			next = null;
+			return file;
+		}
+
+		/**
+		 * @see java.util.Iterator#remove()
+		 */
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException("The file can not be removed from a walk.");
+		}
+
+		/**
+		 * Cancel the walk, the pending files are discarded.
+		 * 
+		 * @see java.io.Closeable#close()
+		 */
+		@Override
+		public void close()
+		{
+			closed = true;
+			done = true;
+			next = null;
+			queue.clear();
+		}
+	}
+}
@@ -0,0 +1,577 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * Pipeline.java is PROPRIETARY/CONFIDENTIAL built in 11:24:51 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The chain of {@linkplain Stage}s connected by the bounded
+ * {@linkplain RingBuffer}s.
+ * <p>
+ * Every stage is a {@linkplain Task}: it takes a batch of the elements from
+ * the buffer of the previous stage, processes them and hands the emitted
+ * elements to the buffer of the next stage in a batch. A stage whose output
+ * buffer is full or whose input buffer is empty becomes idle until the
+ * neighbour stage signals it, so the buffers never grow beyond their capacity
+ * and the waiting stages use no processor time.
+ * </p>
+ * <p>
+ * The end of the stream propagates along the chain: a stage finished or
+ * terminated lets the next stage drain the remaining elements and finish,
+ * and lets the previous stage terminate as nothing consumes its output.
+ * {@link #pause()}, {@link #resume()} and {@link #terminate()} apply to all
+ * the stages.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class Pipeline
+{
+	/**
+	 * The default capacity of the buffers.
+	 */
+	public static final int				DEFAULT_CAPACITY	= 1024;
+	/**
+	 * The default maximum count of the elements processed in a batch.
+	 */
+	public static final int				DEFAULT_BATCH_SIZE	= 64;
+	/**
+	 * The sequence number of the pipelines.
+	 */
+	private static final AtomicInteger	sequence			= new AtomicInteger();
+
+	/**
+	 * The stage of a pipeline.
+	 * <p>
+	 * The subclasses implement {@link #process(List)}, the first stage of a
+	 * pipeline has no input and produces the elements by
+	 * {@link #emit(Object)} until it calls {@link #finish()}, the last stage
+	 * has no output.
+	 * </p>
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 * @param <I>
+	 *            the type of the input elements
+	 * @param <O>
+	 *            the type of the output elements
+	 */
+	public static abstract class Stage<I, O> extends Task
+	{
+		private Pipeline			pipeline;
+		private Stage<?, I>			previous;
+		private Stage<O, ?>			next;
+		private RingBuffer<I>		input;
+		private RingBuffer<O>		output;
+		private int					batchSize;
+		/**
+		 * The batch of the input elements, reused.
+		 */
+		private final List<I>		batch	= new ArrayList<I>();
+		/**
+		 * The emitted elements not handed to the output yet, reused.
+		 */
+		private final List<O>		pending	= new ArrayList<O>();
+		/**
+		 * The count of the pending elements already handed.
+		 */
+		private int					handed;
+		private boolean				finishing;
+		private volatile long		processed;
+		private volatile long		emitted;
+		private volatile long		maxQueueDepth;
+		private volatile long		fullWaits;
+		private volatile long		emptyWaits;
+
+		/**
+		 * Process a batch of the input elements, the output elements are
+		 * emitted by {@link #emit(Object)}.
+		 * 
+		 * @param batch
+		 *            the input elements, empty for the first stage
+		 * @throws Throwable
+		 *             any throwable occurs in the stage
+		 */
+		protected abstract void process(List<I> batch) throws Throwable;
+
+		/**
+		 * Emit an output element, it is handed to the next stage after
+		 * {@link #process(List)} returns.
+		 * 
+		 * @param e
+		 *            the element
+		 * @throws IllegalStateException
+		 *             if it is the last stage
+		 */
+		protected final void emit(O e)
+		{
+			if (output == null)
+				throw new IllegalStateException(String.format("%s is the last stage.", this));
+			if (e == null)
+				throw new NullPointerException();
+			pending.add(e);
+		}
+
+		/**
+		 * Finish the stage after the emitted elements are handed to the next
+		 * stage, usually called by the first stage at the end of its input.
+		 */
+		protected final void finish()
+		{
+			finishing = true;
+		}
+
+		/**
+		 * Hand the pending elements, take a batch of the input elements and
+		 * process it.
+		 */
+		@Override
+		protected final void taskRunning() throws Throwable
+		{
+			if (handed < pending.size() && !handOff())
+				return;
+			if (finishing || next != null && next.isDone())
+			{
+				terminate();
+				return;
+			}
+			batch.clear();
+			if (input != null)
+			{
+				long depth = input.size();
+				if (depth > maxQueueDepth)
+					maxQueueDepth = depth;
+				if (input.drainTo(batch, batchSize) > 0)
+					previous.signal();
+				else if (previous.isDone() && input.isEmpty())
+				{
+					terminate();
+					return;
+				}
+				else
+				{
+					emptyWaits++;
+					idle();
+					if (!input.isEmpty() || previous.isDone())
+						signal();
+					return;
+				}
+			}
+			process(batch);
+			processed += batch.size();
+			if (handed < pending.size())
+				handOff();
+		}
+
+		/**
+		 * Hand the pending elements to the next stage.
+		 * 
+		 * @return <tt>true</tt> if all the elements are handed
+		 */
+		private boolean handOff()
+		{
+			if (next.isDone())
+			{
+				// Nothing consumes the output.
+				pending.clear();
+				handed = 0;
+				return true;
+			}
+			int n = output.offer(pending, handed);
+			if (n > 0)
+			{
+				emitted += n;
+				next.signal();
+			}
+			handed += n;
+			if (handed == pending.size())
+			{
+				pending.clear();
+				handed = 0;
+				return true;
+			}
+			fullWaits++;
+			idle();
+			if (output.remainingCapacity() > 0 || next.isDone())
+				signal();
+			return false;
+		}
+
+		private boolean isDone()
+		{
+			Status s = status;
+			return s == Status.Stop || s == Status.Error;
+		}
+
+		/**
+		 * Signal the neighbour stages to finish.
+		 */
+		@Override
+		void done()
+		{
+			if (previous != null)
+				previous.signal();
+			if (next != null)
+				next.signal();
+		}
+
+		@Override
+		protected void taskStarted() throws Throwable
+		{
+		}
+
+		@Override
+		protected void taskResumed() throws Throwable
+		{
+		}
+
+		@Override
+		protected void taskStopped() throws Throwable
+		{
+		}
+
+		@Override
+		protected void taskForcedStop()
+		{
+		}
+
+		/**
+		 * Returns the pipeline of the stage.
+		 * 
+		 * @return the pipeline, <code>null</code> if not built yet
+		 */
+		public Pipeline getPipeline()
+		{
+			return pipeline;
+		}
+
+		/**
+		 * Returns the count of the elements in the input buffer.
+		 * 
+		 * @return the queue depth, <code>0</code> for the first stage
+		 */
+		public int getQueueDepth()
+		{
+			return input == null ? 0 : input.size();
+		}
+
+		/**
+		 * Returns the maximum count of the elements observed in the input
+		 * buffer.
+		 * 
+		 * @return the maximum queue depth
+		 */
+		public long getMaxQueueDepth()
+		{
+			return maxQueueDepth;
+		}
+
+		/**
+		 * Returns the capacity of the input buffer.
+		 * 
+		 * @return the capacity, <code>0</code> for the first stage
+		 */
+		public int getCapacity()
+		{
+			return input == null ? 0 : input.capacity();
+		}
+
+		/**
+		 * Returns the count of the input elements processed.
+		 * 
+		 * @return the count of the processed elements
+		 */
+		public long getProcessed()
+		{
+			return processed;
+		}
+
+		/**
+		 * Returns the count of the output elements handed to the next stage.
+		 * 
+		 * @return the count of the emitted elements
+		 */
+		public long getEmitted()
+		{
+			return emitted;
+		}
+
+		/**
+		 * Returns the count of the waits for the space of the output buffer,
+		 * a growing count indicates a slower next stage.
+		 * 
+		 * @return the count of the waits on a full buffer
+		 */
+		public long getFullWaits()
+		{
+			return fullWaits;
+		}
+
+		/**
+		 * Returns the count of the waits for the elements of the input buffer.
+		 * 
+		 * @return the count of the waits on an empty buffer
+		 */
+		public long getEmptyWaits()
+		{
+			return emptyWaits;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%s[%s, queue=%d/%d, processed=%d]", getClass().getSimpleName(), status,
+					getQueueDepth(), getCapacity(), processed);
+		}
+	}
+
+	/**
+	 * The builder of a pipeline.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 * @param <O>
+	 *            the type of the output elements of the last stage
+	 */
+	public static final class Builder<O>
+	{
+		private final List<Stage<?, ?>>	stages;
+		private final Stage<?, O>		last;
+		private int						capacity;
+		private int						batchSize;
+
+		private Builder(List<Stage<?, ?>> stages, Stage<?, O> last, int capacity, int batchSize)
+		{
+			this.stages = stages;
+			this.last = last;
+			this.capacity = capacity;
+			this.batchSize = batchSize;
+		}
+
+		/**
+		 * Set the capacity of the buffers before the stages added next.
+		 * 
+		 * @param capacity
+		 *            the capacity, rounded up to a power of two
+		 * @return this builder
+		 */
+		public Builder<O> capacity(int capacity)
+		{
+			if (capacity <= 0)
+				throw new IllegalArgumentException(String.format("The capacity %d must be positive.", capacity));
+			this.capacity = capacity;
+			return this;
+		}
+
+		/**
+		 * Set the maximum count of the elements processed in a batch by the
+		 * stages added next.
+		 * 
+		 * @param batchSize
+		 *            the batch size
+		 * @return this builder
+		 */
+		public Builder<O> batchSize(int batchSize)
+		{
+			if (batchSize <= 0)
+				throw new IllegalArgumentException(String.format("The batch size %d must be positive.", batchSize));
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		/**
+		 * Append a stage consuming the output of the last stage.
+		 * 
+		 * @param stage
+		 *            the stage
+		 * @return the builder of the pipeline ending by the stage
+		 */
+		public <N> Builder<N> then(Stage<O, N> stage)
+		{
+			check(stage);
+			RingBuffer<O> buffer = new RingBuffer<O>(capacity);
+			last.output = buffer;
+			last.next = stage;
+			stage.input = buffer;
+			stage.previous = last;
+			stage.batchSize = batchSize;
+			stages.add(stage);
+			return new Builder<N>(stages, stage, capacity, batchSize);
+		}
+
+		/**
+		 * Build the pipeline.
+		 * 
+		 * @return the pipeline
+		 */
+		public Pipeline build()
+		{
+			if (stages.size() < 2)
+				throw new IllegalStateException("A pipeline needs at least two stages.");
+			Pipeline p = new Pipeline(stages);
+			for (Stage<?, ?> s : stages)
+				s.pipeline = p;
+			return p;
+		}
+
+		private void check(Stage<?, ?> stage)
+		{
+			if (stage.pipeline != null || stages.contains(stage))
+				throw new IllegalStateException(String.format("%s is already in a pipeline.", stage));
+		}
+	}
+
+	private final List<Stage<?, ?>>	stages;
+	private final int				id	= sequence.incrementAndGet();
+
+	private Pipeline(List<Stage<?, ?>> stages)
+	{
+		this.stages = Collections.unmodifiableList(new ArrayList<Stage<?, ?>>(stages));
+	}
+
+	/**
+	 * Returns a builder of the pipeline starting from the specified stage.
+	 * 
+	 * @param first
+	 *            the first stage
+	 * @return the builder
+	 */
+	public static <O> Builder<O> from(Stage<?, O> first)
+	{
+		List<Stage<?, ?>> stages = new ArrayList<Stage<?, ?>>();
+		Builder<O> b = new Builder<O>(stages, first, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE);
+		b.check(first);
+		stages.add(first);
+		return b;
+	}
+
+	/**
+	 * Returns the stages from the first to the last.
+	 * 
+	 * @return the stages
+	 */
+	public List<Stage<?, ?>> getStages()
+	{
+		return stages;
+	}
+
+	/**
+	 * Start every stage in its own daemon thread.
+	 */
+	public void start()
+	{
+		for (int i = 0; i < stages.size(); i++)
+		{
+			Thread t = new Thread(stages.get(i), String.format("Pipeline-%d-%d", id, i));
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Start the stages on the specified executor.
+	 * 
+	 * @param executor
+	 *            the executor
+	 */
+	public void start(TaskExecutor executor)
+	{
+		for (Stage<?, ?> s : stages)
+			executor.submit(s);
+	}
+
+	/**
+	 * Pause all the stages.
+	 */
+	public void pause()
+	{
+		for (Stage<?, ?> s : stages)
+			s.pause();
+	}
+
+	/**
+	 * Resume all the stages.
+	 */
+	public void resume()
+	{
+		for (Stage<?, ?> s : stages)
+			s.resume();
+	}
+
+	/**
+	 * Terminate all the stages, the elements in the buffers are discarded.
+	 */
+	public void terminate()
+	{
+		for (Stage<?, ?> s : stages)
+			s.terminate();
+	}
+
+	/**
+	 * Wait until all the stages are completed.
+	 * 
+	 * @param timeout
+	 *            the time to wait
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return <tt>true</tt> if all the stages are completed, <tt>false</tt> if
+	 *         the timeout elapsed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Stage<?, ?> s : stages)
+			if (!s.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Terminate all the stages and wait until they are completed, the stages
+	 * not completed before the timeout are forced to stop.
+	 * 
+	 * @param timeout
+	 *            the time to wait for the graceful stop
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return <tt>true</tt> if all the stages are completed in time
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @see Task#shutdown(java.util.Collection, long, TimeUnit)
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return Task.shutdown(stages, timeout, unit);
+	}
+
+	/**
+	 * Returns <tt>true</tt> if all the stages are stopped or failed.
+	 * 
+	 * @return <tt>true</tt> if the pipeline is done
+	 */
+	public boolean isDone()
+	{
+		for (Stage<?, ?> s : stages)
+			if (!s.isDone())
+				return false;
+		return true;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("Pipeline-%d%s", id, stages);
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * RingBuffer.java is PROPRIETARY/CONFIDENTIAL built in 11:08:27 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bounded lock free queue of a single producer and a single consumer.
+ * <p>
+ * The elements are stored in an array of a power of two length, indexed by
+ * two ever increasing counters: the tail written only by the producer and
+ * the head written only by the consumer. Every side caches the counter of the
+ * other side and reads it again only when the buffer looks full or empty.
+ * </p>
+ * <p>
+ * The single element operations publish the counter by an ordered store,
+ * the batch operations publish it once for the whole batch by a volatile
+ * store, so a producer or a consumer checking a flag of the other side after
+ * a batch never misses its update.
+ * </p>
+ * <p>
+ * Only one thread may offer and only one thread may poll at a time, the
+ * other methods may be called by any thread.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @param <E>
+ *            the type of the elements
+ */
+public class RingBuffer<E>
+{
+	private final Object[]		buffer;
+	private final int			mask;
+	/**
+	 * The count of the polled elements.
+	 */
+	private final AtomicLong	head	= new AtomicLong();
+	/**
+	 * The count of the offered elements.
+	 */
+	private final AtomicLong	tail	= new AtomicLong();
+	/**
+	 * The head last read by the producer.
+	 */
+	private long				cachedHead;
+	/**
+	 * The tail last read by the consumer.
+	 */
+	private long				cachedTail;
+
+	/**
+	 * Construct an instance of <tt>RingBuffer</tt>.
+	 * 
+	 * @param capacity
+	 *            the minimum capacity, rounded up to a power of two
+	 */
+	public RingBuffer(int capacity)
+	{
+		if (capacity <= 0 || capacity > 1 << 30)
+			throw new IllegalArgumentException(String.format("The capacity %d is out of [1, 2^30].", capacity));
+		int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		buffer = new Object[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Returns the capacity of the buffer.
+	 * 
+	 * @return the capacity
+	 */
+	public int capacity()
+	{
+		return buffer.length;
+	}
+
+	/**
+	 * Returns the count of the elements in the buffer.
+	 * 
+	 * @return the size
+	 */
+	public int size()
+	{
+		// The head is read first, so it is not after the tail.
+		long h = head.get();
+		return (int) Math.min(tail.get() - h, buffer.length);
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the buffer is empty.
+	 * 
+	 * @return <tt>true</tt> if the buffer is empty
+	 */
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	/**
+	 * Returns the count of the elements can be offered without blocking.
+	 * 
+	 * @return the remaining capacity
+	 */
+	public int remainingCapacity()
+	{
+		return buffer.length - size();
+	}
+
+	/**
+	 * Offer an element, called by the producer.
+	 * 
+	 * @param e
+	 *            the element
+	 * @return <tt>false</tt> if the buffer is full
+	 */
+	public boolean offer(E e)
+	{
+		if (e == null)
+			throw new NullPointerException();
+		long t = tail.get();
+		if (t - cachedHead >= buffer.length)
+		{
+			cachedHead = head.get();
+			if (t - cachedHead >= buffer.length)
+				return false;
+		}
+		buffer[(int) t & mask] = e;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Offer as many elements of the list as the buffer can hold, called by
+	 * the producer.
+	 * 
+	 * @param elements
+	 *            the elements
+	 * @param from
+	 *            the index of the first element to offer
+	 * @return the count of the offered elements
+	 */
+	public int offer(List<? extends E> elements, int from)
+	{
+		int n = elements.size() - from;
+		if (n <= 0)
+			return 0;
+		long t = tail.get();
+		if (t - cachedHead + n > buffer.length)
+			cachedHead = head.get();
+		int k = (int) Math.min(n, buffer.length - (t - cachedHead));
+		for (int i = 0; i < k; i++)
+		{
+			E e = elements.get(from + i);
+			if (e == null)
+				throw new NullPointerException();
+			buffer[(int) (t + i) & mask] = e;
+		}
+		if (k > 0)
+			tail.set(t + k);
+		return k;
+	}
+
+	/**
+	 * Poll an element, called by the consumer.
+	 * 
+	 * @return the element, <code>null</code> if the buffer is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll()
+	{
+		long h = head.get();
+		if (h >= cachedTail)
+		{
+			cachedTail = tail.get();
+			if (h >= cachedTail)
+				return null;
+		}
+		int i = (int) h & mask;
+		E e = (E) buffer[i];
+		buffer[i] = null;
+		head.lazySet(h + 1);
+		return e;
+	}
+
+	/**
+	 * Poll at most the specified count of elements into the collection,
+	 * called by the consumer.
+	 * 
+	 * @param c
+	 *            the collection
+	 * @param max
+	 *            the maximum count of the elements
+	 * @return the count of the polled elements
+	 */
+	@SuppressWarnings("unchecked")
+	public int drainTo(Collection<? super E> c, int max)
+	{
+		long h = head.get();
+		if (h + max > cachedTail)
+			cachedTail = tail.get();
+		int k = (int) Math.min(max, cachedTail - h);
+		for (int i = 0; i < k; i++)
+		{
+			int j = (int) (h + i) & mask;
+			c.add((E) buffer[j]);
+			buffer[j] = null;
+		}
+		if (k > 0)
+			head.set(h + k);
+		return Math.max(k, 0);
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("RingBuffer[%d/%d]", size(), capacity());
+	}
+}
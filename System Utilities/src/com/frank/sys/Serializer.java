@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * Serializer.java is PROPRIETARY/CONFIDENTIAL built in 5:02:27 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The object serializer.
+ * <p>
+ * A serializer writes one object graph to a stream and reads it back. The
+ * streams are owned by the caller: the serializer neither buffers nor closes
+ * them, so a buffered stream should be passed for the best performance.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @see JavaSerializer
+ * @see BinarySerializer
+ * @see CompressedSerializer
+ */
+public interface Serializer
+{
+	/**
+	 * Write the specified object to the specified output stream.
+	 * <p>
+	 * The output stream is flushed but not closed.
+	 * </p>
+	 * 
+	 * @param out
+	 *            the output stream to write
+	 * @param obj
+	 *            the object to write
+	 * @throws IOException
+	 *             if an IO error occurs or the object can not be serialized
+	 */
+	public void write(OutputStream out, Object obj) throws IOException;
+
+	/**
+	 * Read an object from the specified input stream.
+	 * <p>
+	 * The input stream is not closed.
+	 * </p>
+	 * 
+	 * @param in
+	 *            the input stream to read
+	 * @return the read object
+	 * @throws IOException
+	 *             if an IO error occurs or the stream is corrupted
+	 * @throws ClassNotFoundException
+	 *             if the class of a serialized object is not found
+	 */
+	public Object read(InputStream in) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * SizeEstimator.java is PROPRIETARY/CONFIDENTIAL built in 8:12:40 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * The estimator of the shallow size of the objects without
+ * {@linkplain java.lang.instrument.Instrumentation}.
+ * <p>
+ * The layout of the objects is detected once: the size of the references and
+ * of the headers, the alignment of the objects and the offsets of the array
+ * elements. The field offsets and the array layout are read from
+ * <code>sun.misc.Unsafe</code> when it is available, which gives the exact
+ * sizes of the HotSpot<sup>TM</sup> virtual machine. Otherwise the layout is
+ * derived from the options of the virtual machine, the compressed references,
+ * the compressed class pointers and the object alignment, and the fields are
+ * packed from the widest to the narrowest, as the virtual machine does by
+ * default.
+ * </p>
+ * <p>
+ * The size of the instances of a class is computed once and cached, the size
+ * of an array is computed from its length. The estimator is thread safe.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @see SizeOf#sizeOf(Object)
+ */
+public class SizeEstimator
+{
+	/**
+	 * The unsafe instance, looked up by reflection as it is not a public API,
+	 * <code>null</code> if it is not available.
+	 */
+	private static final Object				unsafe;
+	/**
+	 * The method returning the offset of a field.
+	 */
+	private static final Method				objectFieldOffset;
+	/**
+	 * The method returning the offset of the first element of an array.
+	 */
+	private static final Method				arrayBaseOffset;
+	/**
+	 * The method returning the size of the elements of an array.
+	 */
+	private static final Method				arrayIndexScale;
+	/**
+	 * Whether the virtual machine is 64-bit.
+	 */
+	private static final boolean			is64Bit;
+	/**
+	 * The size of a reference in bytes.
+	 */
+	private static final int				referenceSize;
+	/**
+	 * The size of the object header in bytes.
+	 */
+	private static final int				headerSize;
+	/**
+	 * The alignment of the objects in bytes.
+	 */
+	private static final int				alignment;
+	/**
+	 * The padding of the contended fields in bytes.
+	 */
+	private static final int				contendedPadding;
+	/**
+	 * Whether only the classes of the boot class path are padded.
+	 */
+	private static final boolean			restrictContended;
+	/**
+	 * The cached sizes of the instances, or the base offsets and the index
+	 * scales of the arrays.
+	 */
+	private static final ClassValue<long[]>	layouts	= new ClassValue<long[]>()
+	{
+		@Override
+		protected long[] computeValue(Class<?> type)
+		{
+			return type.isArray() ? arrayLayout(type) : new long[] { computeInstanceSize(type) };
+		}
+	};
+	static
+	{
+		Object u = null;
+		Method offset = null, base = null, scale = null;
+		try
+		{
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			offset = c.getMethod("objectFieldOffset", Field.class);
+			base = c.getMethod("arrayBaseOffset", Class.class);
+			scale = c.getMethod("arrayIndexScale", Class.class);
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			u = f.get(null);
+		}
+		catch (Throwable e)
+		{
+			// Estimate from the options of the virtual machine.
+			u = null;
+		}
+		unsafe = u;
+		objectFieldOffset = offset;
+		arrayBaseOffset = base;
+		arrayIndexScale = scale;
+		String model = System.getProperty("sun.arch.data.model");
+		is64Bit = model != null ? model.equals("64") : System.getProperty("os.arch", "").contains("64");
+		int align = 8;
+		boolean compressedOops = false, compressedClass = false;
+		if (is64Bit)
+		{
+			String oops = vmOption("UseCompressedOops");
+			// Compressed by default below a 32 GB heap.
+			compressedOops = oops != null ? Boolean.parseBoolean(oops)
+					: Runtime.getRuntime().maxMemory() < 32L << 30;
+			String klass = vmOption("UseCompressedClassPointers");
+			compressedClass = klass != null ? Boolean.parseBoolean(klass) : compressedOops;
+			String a = vmOption("ObjectAlignmentInBytes");
+			if (a != null)
+				try
+				{
+					align = Integer.parseInt(a);
+				}
+				catch (NumberFormatException e)
+				{
+					// Keep the default alignment.
+				}
+		}
+		if (unsafe != null)
+		{
+			referenceSize = ((Number) invoke(arrayIndexScale, Object[].class)).intValue();
+			headerSize = ((Number) invoke(objectFieldOffset, field(HeaderProbe.class, "probe"))).intValue();
+		}
+		else
+		{
+			referenceSize = is64Bit && !compressedOops ? 8 : 4;
+			headerSize = !is64Bit ? 8 : compressedClass ? 12 : 16;
+		}
+		alignment = align;
+		int padding = 128;
+		String width = vmOption("ContendedPaddingWidth");
+		if (width != null)
+			try
+			{
+				padding = Integer.parseInt(width);
+			}
+			catch (NumberFormatException e)
+			{
+				// Keep the default padding.
+			}
+		contendedPadding = padding;
+		restrictContended = !"false".equals(vmOption("RestrictContended"));
+	}
+
+	/**
+	 * The class whose only field is at the end of the object header.
+	 */
+	@SuppressWarnings("unused")
+	private static final class HeaderProbe
+	{
+		private byte	probe;
+	}
+
+	/**
+	 * Returns the value of the specified option of the virtual machine.
+	 * 
+	 * @param name
+	 *            the name of the option
+	 * @return the value, <code>null</code> if the option is unknown
+	 */
+	private static String vmOption(String name)
+	{
+		try
+		{
+			HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+			return bean == null ? null : bean.getVMOption(name).getValue();
+		}
+		catch (Throwable e)
+		{
+			// Not a HotSpot virtual machine or an unknown option.
+			return null;
+		}
+	}
+
+	private static Field field(Class<?> c, String name)
+	{
+		try
+		{
+			return c.getDeclaredField(name);
+		}
+		catch (NoSuchFieldException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the sizes are computed from the field offsets
+	 * of the virtual machine, otherwise they are derived from its options.
+	 * 
+	 * @return <tt>true</tt> if the sizes are exact
+	 */
+	public static boolean isExact()
+	{
+		return unsafe != null;
+	}
+
+	/**
+	 * Returns the size of a reference in bytes.
+	 * 
+	 * @return the size of a reference
+	 */
+	public static int getReferenceSize()
+	{
+		return referenceSize;
+	}
+
+	/**
+	 * Returns the size of the object header in bytes.
+	 * 
+	 * @return the size of the object header
+	 */
+	public static int getHeaderSize()
+	{
+		return headerSize;
+	}
+
+	/**
+	 * Returns the alignment of the objects in bytes.
+	 * 
+	 * @return the alignment of the objects
+	 */
+	public static int getAlignment()
+	{
+		return alignment;
+	}
+
+	/**
+	 * Returns the estimated shallow size of the specified object.
+	 * 
+	 * @param obj
+	 *            the object to size
+	 * @return the size in bytes
+	 */
+	public static long sizeOf(Object obj)
+	{
+		Class<?> c = obj.getClass();
+		long[] layout = layouts.get(c);
+		if (layout.length == 1)
+			return layout[0];
+		return align(layout[0] + layout[1] * Array.getLength(obj));
+	}
+
+	/**
+	 * Returns the estimated size of the instances of the specified class.
+	 * 
+	 * @param c
+	 *            the class, not an array class
+	 * @return the size in bytes
+	 */
+	public static long instanceSize(Class<?> c)
+	{
+		if (c.isArray())
+			throw new IllegalArgumentException(String.format("%s is an array class.", c.getName()));
+		return layouts.get(c)[0];
+	}
+
+	/**
+	 * Returns the estimated size of an array.
+	 * 
+	 * @param c
+	 *            the array class
+	 * @param length
+	 *            the length of the array
+	 * @return the size in bytes
+	 */
+	public static long arraySize(Class<?> c, int length)
+	{
+		if (!c.isArray())
+			throw new IllegalArgumentException(String.format("%s is not an array class.", c.getName()));
+		long[] layout = layouts.get(c);
+		return align(layout[0] + layout[1] * length);
+	}
+
+	private static long align(long size)
+	{
+		return (size + alignment - 1) / alignment * alignment;
+	}
+
+	/**
+	 * Invoke the specified method of the unsafe instance.
+	 */
+	private static Object invoke(Method method, Object arg)
+	{
+		try
+		{
+			return method.invoke(unsafe, arg);
+		}
+		catch (InvocationTargetException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static long[] arrayLayout(Class<?> c)
+	{
+		if (unsafe != null)
+			return new long[] { ((Number) invoke(arrayBaseOffset, c)).longValue(),
+					((Number) invoke(arrayIndexScale, c)).longValue() };
+		int scale = typeSize(c.getComponentType());
+		// The length follows the header, the elements are aligned to the word,
+		// and the 8-byte elements to 8 bytes.
+		int base = headerSize + 4;
+		int word = is64Bit ? 8 : 4;
+		base = (base + word - 1) / word * word;
+		if (scale == 8)
+			base = (base + 7) / 8 * 8;
+		return new long[] { base, scale };
+	}
+
+	private static long computeInstanceSize(Class<?> c)
+	{
+		List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+		for (Class<?> k = c; k != null; k = k.getSuperclass())
+			hierarchy.add(0, k);
+		long end = headerSize;
+		Class<?> last = null;
+		if (unsafe != null)
+		{
+			for (Class<?> k : hierarchy)
+				for (Field f : k.getDeclaredFields())
+					if (!Modifier.isStatic(f.getModifiers()))
+					{
+						end = Math.max(end, ((Number) invoke(objectFieldOffset, f)).longValue()
+								+ typeSize(f.getType()));
+						last = k;
+					}
+			// The padding after the contended fields has no field offset.
+			return align(end + contendedPadding(last));
+		}
+		// The fields of a class follow the fields of its superclass, the longs
+		// first, then the ints, the shorts, the bytes and the references last.
+		// The gap before the first long is filled with the narrower fields.
+		for (Class<?> k : hierarchy)
+		{
+			int[] counts = new int[9];
+			int oops = 0;
+			for (Field f : k.getDeclaredFields())
+				if (!Modifier.isStatic(f.getModifiers()))
+				{
+					if (f.getType().isPrimitive())
+						counts[typeSize(f.getType())]++;
+					else
+						oops++;
+					last = k;
+				}
+			if (last != k)
+				continue;
+			// The contended fields are surrounded by the paddings.
+			int padding = contendedPadding(k);
+			end += padding;
+			if (counts[8] > 0)
+			{
+				long gap = (8 - end % 8) % 8;
+				for (int size = 4; size > 0; size >>= 1)
+					while (gap >= size && counts[size] > 0)
+					{
+						counts[size]--;
+						gap -= size;
+					}
+				if (gap >= referenceSize && oops > 0)
+					oops--;
+				end = (end + 7) / 8 * 8;
+			}
+			end += 8L * counts[8] + 4L * counts[4] + 2L * counts[2] + counts[1];
+			if (oops > 0)
+				end = (end + referenceSize - 1) / referenceSize * referenceSize + (long) referenceSize * oops;
+			end = (end + referenceSize - 1) / referenceSize * referenceSize + padding;
+		}
+		return align(end);
+	}
+
+	/**
+	 * Returns the padding of the virtual machine after the fields of the
+	 * specified class, which is not <code>0</code> only if the class or any of
+	 * its fields is annotated as contended and the annotation is honored.
+	 * 
+	 * @param c
+	 *            the class declaring the last fields, or <code>null</code>
+	 * @return the padding in bytes
+	 */
+	private static int contendedPadding(Class<?> c)
+	{
+		if (c == null || contendedPadding == 0 || !isContended(c))
+			return 0;
+		// Only the classes of the boot class path are padded by default.
+		return c.getClassLoader() != null && restrictContended ? 0 : contendedPadding;
+	}
+
+	private static boolean isContended(Class<?> c)
+	{
+		if (isContended(c.getAnnotations()))
+			return true;
+		for (Field f : c.getDeclaredFields())
+			if (!Modifier.isStatic(f.getModifiers()) && isContended(f.getAnnotations()))
+				return true;
+		return false;
+	}
+
+	private static boolean isContended(Annotation[] annotations)
+	{
+		for (Annotation a : annotations)
+			if (a.annotationType().getSimpleName().equals("Contended"))
+				return true;
+		return false;
+	}
+
+	private static int typeSize(Class<?> type)
+	{
+		if (!type.isPrimitive())
+			return referenceSize;
+		if (type == long.class || type == double.class)
+			return 8;
+		if (type == int.class || type == float.class)
+			return 4;
+		if (type == short.class || type == char.class)
+			return 2;
+		return 1;
+	}
+}
@@ -6,9 +6,20 @@ import java.lang.instrument.*;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A simple implementation of C++ keyword sizeof for Java 5+  
+ * 
+ * A SizeOf calculator is configured by a Builder and is immutable, so it can
+ * size concurrently from several threads with bounded cost: the traversal can
+ * be limited in depth, in count of objects and in time, and can exclude some
+ * classes and packages. The static methods use a default calculator, whose
+ * settings are changed by the static setters.
  *  
  * @author Nicola Santi
  * @author Marco Rosi
@@ -19,19 +30,256 @@ import java.util.*;
  */
 public class SizeOf
 {
-	private static OutputStream out = System.out;
-
 	/**
 	 * Instance of java.lang.instrument.Instrument injected by the Java VM 
 	 * @see premain(String options, Instrumentation inst) 
 	 */
 	private static Instrumentation inst;
 
-	private static long MIN_CLASS_SIZE_TO_LOG = 1024 * 1024;
-	private static boolean SKIP_STATIC_FIELD = false;
-	private static boolean SKIP_FINAL_FIELD = false;
-	private static boolean SKIP_FLYWEIGHT_FIELD = false;
-	private static boolean debug = false;
+	/**
+	 * The calculator used by the static methods. The static setters replace it
+	 * by a modified copy, so a sizing in progress keeps its settings.
+	 */
+	private static volatile SizeOf defaults = new Builder().build();
+
+	private final OutputStream out;
+	private final long minSizeToLog;
+	private final boolean skipStaticField;
+	private final boolean skipFinalField;
+	private final boolean skipFlyweightField;
+	private final boolean debug;
+	private final int maxDepth;
+	private final long maxObjects;
+	/** The time budget in nanoseconds */
+	private final long timeBudget;
+	private final Class<?>[] excludedClasses;
+	private final String[] excludedPackages;
+	/** Whether the instances of a class are excluded, null if nothing is excluded */
+	private final ClassValue<Boolean> excluded;
+
+	private SizeOf(Builder builder)
+	{
+		out = builder.out;
+		minSizeToLog = builder.minSizeToLog;
+		skipStaticField = builder.skipStaticField;
+		skipFinalField = builder.skipFinalField;
+		skipFlyweightField = builder.skipFlyweightField;
+		debug = builder.debug;
+		maxDepth = builder.maxDepth;
+		maxObjects = builder.maxObjects;
+		timeBudget = builder.timeBudget;
+		excludedClasses = builder.excludedClasses.toArray(new Class<?>[builder.excludedClasses.size()]);
+		excludedPackages = builder.excludedPackages.toArray(new String[builder.excludedPackages.size()]);
+		if (excludedClasses.length == 0 && excludedPackages.length == 0)
+			excluded = null;
+		else
+			excluded = new ClassValue<Boolean>()
+			{
+				@Override
+				protected Boolean computeValue(Class<?> type)
+				{
+					return computeExcluded(type);
+				}
+			};
+	}
+
+	/**
+	 * Returns a new Builder of a SizeOf calculator with the default settings.
+	 */
+	public static Builder builder()
+	{
+		return new Builder();
+	}
+
+	/**
+	 * Returns a new Builder initialized with the settings of this calculator.
+	 */
+	public Builder toBuilder()
+	{
+		Builder builder = new Builder();
+		builder.out = out;
+		builder.minSizeToLog = minSizeToLog;
+		builder.skipStaticField = skipStaticField;
+		builder.skipFinalField = skipFinalField;
+		builder.skipFlyweightField = skipFlyweightField;
+		builder.debug = debug;
+		builder.maxDepth = maxDepth;
+		builder.maxObjects = maxObjects;
+		builder.timeBudget = timeBudget;
+		builder.excludedClasses.addAll(Arrays.asList(excludedClasses));
+		builder.excludedPackages.addAll(Arrays.asList(excludedPackages));
+		return builder;
+	}
+
+	/**
+	 * The Builder of a SizeOf calculator. The default settings are the ones of
+	 * the static methods: nothing skipped, no limit, the objects of 1 megabyte
+	 * or more logged to System.out.
+	 */
+	public static final class Builder
+	{
+		private OutputStream out = System.out;
+		private long minSizeToLog = 1024 * 1024;
+		private boolean skipStaticField = false;
+		private boolean skipFinalField = false;
+		private boolean skipFlyweightField = false;
+		private boolean debug = false;
+		private int maxDepth = Integer.MAX_VALUE;
+		private long maxObjects = Long.MAX_VALUE;
+		private long timeBudget = Long.MAX_VALUE;
+		private final List<Class<?>> excludedClasses = new ArrayList<Class<?>>();
+		private final List<String> excludedPackages = new ArrayList<String>();
+
+		private Builder()
+		{
+		}
+
+		/**
+		 * Sets the OutputStream to use for logging.
+		 */
+		public Builder logOutputStream(OutputStream o)
+		{
+			if (o == null)
+				throw new IllegalArgumentException("Can't use a null OutputStream");
+
+			out = o;
+			return this;
+		}
+
+		/**
+		 * The objects are logged if their size (in byte) is greater than this
+		 * value, 0 turn off logging.
+		 */
+		public Builder minSizeToLog(long min)
+		{
+			minSizeToLog = min;
+			return this;
+		}
+
+		/**
+		 * If true the static fields of an object are not computed.
+		 */
+		public Builder skipStaticField(boolean skip)
+		{
+			skipStaticField = skip;
+			return this;
+		}
+
+		/**
+		 * If true the final fields of an object are not computed.
+		 */
+		public Builder skipFinalField(boolean skip)
+		{
+			skipFinalField = skip;
+			return this;
+		}
+
+		/**
+		 * If true flyweight objects has a size of 0.
+		 */
+		public Builder skipFlyweightObject(boolean skip)
+		{
+			skipFlyweightField = skip;
+			return this;
+		}
+
+		/**
+		 * If true the traversal is printed to the log output stream.
+		 */
+		public Builder debug(boolean on)
+		{
+			debug = on;
+			return this;
+		}
+
+		/**
+		 * The objects deeper than this are not sized, the root has the depth 0.
+		 */
+		public Builder maxDepth(int depth)
+		{
+			if (depth < 0)
+				throw new IllegalArgumentException(String.format("Illegal max depth: %d", depth));
+
+			maxDepth = depth;
+			return this;
+		}
+
+		/**
+		 * The traversal stops after sizing this count of objects.
+		 */
+		public Builder maxObjects(long count)
+		{
+			if (count <= 0)
+				throw new IllegalArgumentException(String.format("Illegal max objects: %d", count));
+
+			maxObjects = count;
+			return this;
+		}
+
+		/**
+		 * The traversal stops after this time, checked every 256 objects.
+		 */
+		public Builder timeBudget(long time, TimeUnit unit)
+		{
+			if (time <= 0)
+				throw new IllegalArgumentException(String.format("Illegal time budget: %d", time));
+
+			timeBudget = unit.toNanos(time);
+			return this;
+		}
+
+		/**
+		 * The instances of these classes and of their subclasses are not sized
+		 * and not traversed.
+		 */
+		public Builder excludeClass(Class<?>... classes)
+		{
+			excludedClasses.addAll(Arrays.asList(classes));
+			return this;
+		}
+
+		/**
+		 * The instances of the classes of these packages and of their
+		 * subpackages, and the arrays of them, are not sized and not traversed.
+		 */
+		public Builder excludePackage(String... packages)
+		{
+			excludedPackages.addAll(Arrays.asList(packages));
+			return this;
+		}
+
+		public SizeOf build()
+		{
+			return new SizeOf(this);
+		}
+	}
+
+	private boolean computeExcluded(Class<?> type)
+	{
+		for (Class<?> c : excludedClasses)
+			if (c.isAssignableFrom(type))
+				return true;
+
+		Class<?> element = type;
+		while (element.isArray())
+			element = element.getComponentType();
+		String name = element.getName();
+		int dot = name.lastIndexOf('.');
+		if (element.isPrimitive() || dot < 0)
+			return false;
+
+		String pkg = name.substring(0, dot);
+		for (String excludedPackage : excludedPackages)
+			if (pkg.equals(excludedPackage) || pkg.startsWith(excludedPackage + "."))
+				return true;
+
+		return false;
+	}
+
+	private boolean isExcluded(Object o)
+	{
+		return excluded != null && excluded.get(o.getClass());
+	}
 
 	/**
 	 * Callback method used by the Java VM to inject the java.lang.instrument.Instrument
@@ -45,22 +293,38 @@ public class SizeOf
 	}
 
 	/**
-	 * Calls java.lang.instrument.Instrument.getObjectSize(object).
+	 * Calls java.lang.instrument.Instrument.getObjectSize(object), or estimates
+	 * the size from the object layout of the Java VM if the javaagent is not
+	 * loaded.
 	 *  
 	 * @param object the object to size
 	 * @return an implementation-specific approximation of the amount of storage consumed 
 	 * 	by the specified object.  
 	 * 
 	 * @see java#lang#instrument#Instrument#Instrumentation#getObjectSize(Object objectToSize)
+	 * @see SizeEstimator#sizeOf(Object)
 	 */
 	public static long sizeOf(Object object)
 	{
-		if (inst == null)
-			throw new IllegalStateException("Instrumentation is null");
+		return defaults.shallowSize(object);
+	}
 
-		if (SKIP_FLYWEIGHT_FIELD && isSharedFlyweight(object))
+	/**
+	 * Same as sizeOf with the settings of this calculator.
+	 */
+	public long shallowSize(Object object)
+	{
+		if (skipFlyweightField && isSharedFlyweight(object))
 			return 0;
 
+		return objectSize(object);
+	}
+
+	private static long objectSize(Object object)
+	{
+		if (inst == null)
+			return SizeEstimator.sizeOf(object);
+
 		return inst.getObjectSize(object);
 	}
 
@@ -97,9 +361,131 @@ public class SizeOf
 	 */
 	public static long deepSizeOf(Object objectToSize)
 	{
-		//Set<Integer> doneObj = new HashSet<Integer>();
-		Map<Object,Object> doneObj = new IdentityHashMap<Object,Object>();
-		return deepSizeOf(objectToSize, doneObj, 0);
+		return defaults.deepSize(objectToSize);
+	}
+
+	/**
+	 * Same as deepSizeOf with the settings of this calculator. If a limit is
+	 * reached the result is the size of the objects sized so far.
+	 */
+	public long deepSize(Object objectToSize)
+	{
+		return deepSize(objectToSize, new IdentitySet(), null);
+	}
+
+	/**
+	 * Compute the same amount of storage as deepSizeOf, and fill the specified
+	 * report with the histogram of the classes, the largest subgraphs and the
+	 * sizes of the fields of objectToSize.
+	 * 
+	 * @param objectToSize
+	 * @param report the report to fill, or null for none
+	 * @return the amount of storage consumed by objectToSize and by all the
+	 * 	objects reachable from it
+	 * 
+	 * @see SizeReport
+	 */
+	public static long deepSizeOf(Object objectToSize, SizeReport report)
+	{
+		return defaults.deepSize(objectToSize, report);
+	}
+
+	/**
+	 * Same as deepSizeOf with the settings of this calculator. The report is
+	 * marked as truncated if a limit is reached.
+	 */
+	public long deepSize(Object objectToSize, SizeReport report)
+	{
+		return deepSize(objectToSize, new IdentitySet(), report);
+	}
+
+	/**
+	 * Compute the amount of storage consumed by objectToSize and by the objects
+	 * reachable from it which are not in doneObj yet, and add them to doneObj.
+	 * The objects in doneObj are skipped with the objects reachable only
+	 * through them, so several objects sharing parts of their graphs can be
+	 * sized one after the other. The settings of this calculator are used.
+	 */
+	long deepSize(Object objectToSize, IdentitySet doneObj)
+	{
+		return deepSize(objectToSize, doneObj, null);
+	}
+
+	/**
+	 * Compute the same amount of storage as deepSizeOf, visiting the objects
+	 * in parallel in a new fork/join pool with one worker per processor.
+	 * 
+	 * @param objectToSize
+	 * @return the amount of storage consumed by objectToSize and by all the
+	 * 	objects reachable from it
+	 * 
+	 * @see #parallelDeepSizeOf(Object, ForkJoinPool)
+	 */
+	public static long parallelDeepSizeOf(Object objectToSize)
+	{
+		return defaults.parallelDeepSize(objectToSize);
+	}
+
+	/**
+	 * Same as parallelDeepSizeOf with the settings of this calculator.
+	 */
+	public long parallelDeepSize(Object objectToSize)
+	{
+		ForkJoinPool pool = new ForkJoinPool();
+		try
+		{
+			return parallelDeepSize(objectToSize, pool);
+		} finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Compute the same amount of storage as deepSizeOf, visiting the objects
+	 * in parallel in the specified fork/join pool.
+	 * 
+	 * The large object arrays, which hold the elements of the collections, are
+	 * split in slices visited by different tasks, and the tasks give half of
+	 * their pending objects to the idle workers. Every object is sized once
+	 * through a striped identity set, so the total is exactly the one of
+	 * deepSizeOf as long as the graph is not modified meanwhile. The objects
+	 * are not printed when debugging and the big objects are not logged,
+	 * since the size of a subgraph depends on the order of the visit.
+	 * 
+	 * The method returns when the pool is quiescent, so the pool should not
+	 * run other long tasks at the same time.
+	 * 
+	 * @param objectToSize
+	 * @param pool the pool running the visit
+	 * @return the amount of storage consumed by objectToSize and by all the
+	 * 	objects reachable from it
+	 */
+	public static long parallelDeepSizeOf(Object objectToSize, ForkJoinPool pool)
+	{
+		return defaults.parallelDeepSize(objectToSize, pool);
+	}
+
+	/**
+	 * Same as parallelDeepSizeOf with the settings of this calculator. The
+	 * limits are applied as in deepSize, but the count of objects is checked by
+	 * every task and the objects sized when a limit is reached depend on the
+	 * order of the visit.
+	 */
+	public long parallelDeepSize(Object objectToSize, ForkJoinPool pool)
+	{
+		if (objectToSize == null)
+			return 0;
+
+		Traversal traversal = new Traversal(this, pool.getParallelism());
+		pool.invoke(new SizeTask(traversal, new Object[] { objectToSize }, 0, 1, 0, true));
+		Throwable failure = traversal.failure.get();
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (failure != null)
+			throw (RuntimeException) failure;
+
+		return traversal.total.get();
 	}
 
 	/**
@@ -111,60 +497,435 @@ public class SizeOf
 		return deepSizeOf(objectToSize);
 	}
 
+	/**
+	 * The maximum depth indented in the log, so the deep graphs like long
+	 * linked lists do not print lines growing with their depth.
+	 */
+	private static final int MAX_INDENT_DEPTH = 64;
+
 	private static String indent(int depth)
 	{
 		StringBuilder builder = new StringBuilder();
-		for (int i = 0; i < depth; i++)
+		for (int i = 0; i < Math.min(depth, MAX_INDENT_DEPTH); i++)
 			builder.append("  ");
 
 		return builder.toString();
 	}
 
-	private static long deepSizeOf(Object o, Map<Object,Object> doneObj, int depth)
+	/**
+	 * The fields of a class and all its superclasses, reflected once per class.
+	 */
+	private static final ClassValue<Layout> layouts = new ClassValue<Layout>()
 	{
-		if (o == null)
+		@Override
+		protected Layout computeValue(Class<?> type)
 		{
-			if (debug)
-				print("null\n");
-			return 0;
+			return new Layout(type);
 		}
+	};
 
-		long size = 0;
+	/**
+	 * The reference fields followed by deepSizeOf, and all the fields in
+	 * declaration order printed when debugging.
+	 */
+	private static final class Layout
+	{
+		final Field[] references;
+		final Field[] fields;
+		/**
+		 * The size of the instances, which only depends on the class, -1 if
+		 * not known yet.
+		 */
+		volatile long instanceSize = -1;
 
-		if (doneObj.containsKey(o))
+		Layout(Class<?> type)
 		{
-			if (debug)
-				print("\n%s{ yet computed }\n", indent(depth));
-			return 0;
+			List<Field> refs = new ArrayList<Field>();
+			List<Field> all = new ArrayList<Field>();
+			for (Class<?> c = type; c != null; c = c.getSuperclass())
+				for (Field field : c.getDeclaredFields())
+				{
+					try
+					{
+						field.setAccessible(true);
+					} catch (RuntimeException e)
+					{
+						// Not accessible (e.g. a module boundary), not followed.
+						continue;
+					}
+					all.add(field);
+					if (!isAPrimitiveType(field.getType()))
+						refs.add(field);
+				}
+			references = refs.toArray(new Field[refs.size()]);
+			fields = all.toArray(new Field[all.size()]);
 		}
+	}
 
-		if (debug)
-			print("\n%s{ %s\n", indent(depth), o.getClass().getName());
+	/**
+	 * The objects being sized, whose children are visited one by one. The
+	 * frames are stored in parallel arrays, so the stack grows with the depth
+	 * of the graph on the heap instead of the thread stack, without an object
+	 * per frame.
+	 */
+	private static final class Stack
+	{
+		Object[] objects = new Object[16];
+		/** The object arrays, or null for the other objects */
+		Object[][] arrays = new Object[16][];
+		Field[][] fields = new Field[16][];
+		int[] index = new int[16];
+		int[] depth = new int[16];
+		long[] size = new long[16];
+		int top = -1;
+		/** The count of the objects sized */
+		long count;
+		final long start = System.nanoTime();
+		/** Set when a limit of objects or time is reached, which stops the traversal */
+		boolean stopped;
+		/** Set when any limit is reached */
+		boolean truncated;
 
-		doneObj.put(o,null);
-		size = sizeOf(o);
+		void grow()
+		{
+			int n = objects.length * 2;
+			objects = Arrays.copyOf(objects, n);
+			arrays = Arrays.copyOf(arrays, n);
+			fields = Arrays.copyOf(fields, n);
+			index = Arrays.copyOf(index, n);
+			depth = Arrays.copyOf(depth, n);
+			size = Arrays.copyOf(size, n);
+		}
+	}
 
-		if (o instanceof Object[])
+	/**
+	 * The set of the objects already sized, compared by identity. The objects
+	 * are stored in an open addressing table without entries or values, so it
+	 * takes half the memory of an IdentityHashMap.
+	 */
+	static final class IdentitySet
+	{
+		private Object[] table = new Object[1 << 10];
+		private int size;
+
+		/**
+		 * @return true if the object was not in the set
+		 */
+		boolean add(Object o)
 		{
-			int i = 0;
-			for (Object obj : (Object[]) o)
+			Object[] t = table;
+			int mask = t.length - 1;
+			int i = System.identityHashCode(o) * 0x9E3779B9 >>> 1 & mask;
+			for (Object e; (e = t[i]) != null; i = i + 1 & mask)
+				if (e == o)
+					return false;
+			t[i] = o;
+			if (++size > t.length >>> 1)
+				resize();
+			return true;
+		}
+
+		private void resize()
+		{
+			Object[] old = table;
+			if (old.length == 1 << 30)
+				throw new IllegalStateException("Too many objects to size");
+			Object[] t = new Object[old.length * 2];
+			int mask = t.length - 1;
+			for (Object o : old)
+				if (o != null)
+				{
+					int i = System.identityHashCode(o) * 0x9E3779B9 >>> 1 & mask;
+					while (t[i] != null)
+						i = i + 1 & mask;
+					t[i] = o;
+				}
+			table = t;
+		}
+	}
+
+	/**
+	 * The identity set shared by the tasks of parallelDeepSizeOf, split in
+	 * segments locked separately so the workers seldom wait for each other.
+	 */
+	private static final class ConcurrentIdentitySet
+	{
+		private final IdentitySet[] segments;
+		private final int shift;
+
+		ConcurrentIdentitySet(int concurrency)
+		{
+			int n = Integer.highestOneBit(Math.max(concurrency, 1) * 16 - 1) << 1;
+			segments = new IdentitySet[n];
+			for (int i = 0; i < n; i++)
+				segments[i] = new IdentitySet();
+			shift = 32 - Integer.numberOfTrailingZeros(n);
+		}
+
+		/**
+		 * @return true if the object was not in the set
+		 */
+		boolean add(Object o)
+		{
+			// The high bits select the segment, the segments use the low bits.
+			IdentitySet segment = segments[System.identityHashCode(o) * 0x9E3779B9 >>> shift];
+			synchronized (segment)
 			{
-				if (debug)
-					print("%s [%d] = ", indent(depth), i++);
-				size += deepSizeOf(obj, doneObj, depth + 1);
+				return segment.add(o);
 			}
-		} else
+		}
+	}
+
+	/**
+	 * The state shared by the tasks of parallelDeepSizeOf.
+	 */
+	private static final class Traversal
+	{
+		final SizeOf sizer;
+		final ConcurrentIdentitySet doneObj;
+		final AtomicLong total = new AtomicLong();
+		/** The count of the objects sized, counted only if limited */
+		final AtomicLong count = new AtomicLong();
+		final long start = System.nanoTime();
+		/** The first failure, which stops the visit */
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		/** Set when a limit of objects or time is reached, which stops the visit */
+		volatile boolean stopped;
+
+		Traversal(SizeOf sizer, int parallelism)
+		{
+			this.sizer = sizer;
+			doneObj = new ConcurrentIdentitySet(parallelism);
+		}
+
+		boolean isStopped()
+		{
+			return stopped || failure.get() != null;
+		}
+	}
+
+	/**
+	 * The object arrays longer than this are split in slices of this length
+	 * visited by different tasks.
+	 */
+	private static final int SLICE_LENGTH = 1024;
+
+	/**
+	 * The number of objects visited by a task between two checks for idle
+	 * workers.
+	 */
+	private static final int SHARE_INTERVAL = 256;
+
+	/**
+	 * A task of parallelDeepSizeOf, which visits a slice of an object array
+	 * and then the objects reachable from it. The sized objects whose children
+	 * remain to visit are kept on a stack, half of which is forked as a new
+	 * task when the other workers are idle. The tasks are not joined, the root
+	 * task waits for the pool to be quiescent instead, so a deep graph does
+	 * not nest the joins on the thread stack.
+	 */
+	private static final class SizeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Traversal traversal;
+		private final SizeOf sizer;
+		private final Object[] array;
+		private final int from;
+		private final int to;
+		/** The depth of the elements of the array */
+		private final int depth;
+		private final boolean root;
+		private Object[] stack;
+		private int[] depths;
+		private int top;
+		private long size;
+		private int visited;
+
+		SizeTask(Traversal traversal, Object[] array, int from, int to, int depth, boolean root)
+		{
+			this.traversal = traversal;
+			this.sizer = traversal.sizer;
+			this.array = array;
+			this.from = from;
+			this.to = to;
+			this.depth = depth;
+			this.root = root;
+			stack = new Object[16];
+			depths = new int[16];
+		}
+
+		SizeTask(Traversal traversal, Object[] stack, int[] depths, int top)
+		{
+			this(traversal, null, 0, 0, 0, false);
+			this.stack = stack;
+			this.depths = depths;
+			this.top = top;
+		}
+
+		@Override
+		protected void compute()
 		{
+			try
+			{
+				if (array != null)
+					visit(array, from, to, depth);
+				drain();
+			} catch (RuntimeException | Error e)
+			{
+				// The forked tasks are not joined, their failures are kept.
+				traversal.failure.compareAndSet(null, e);
+			}
+			traversal.total.addAndGet(size);
 
-			Field[] fields = o.getClass().getDeclaredFields();
+			if (root)
+				helpQuiesce();
+		}
 
-			for (Field field : fields)
+		private void drain()
+		{
+			while (top > 0 && !traversal.isStopped())
 			{
-				field.setAccessible(true);
-				Object obj;
+				Object o = stack[--top];
+				int d = depths[top] + 1;
+				stack[top] = null;
+				if (o instanceof Object[])
+				{
+					Object[] a = (Object[]) o;
+					visit(a, 0, a.length, d);
+				} else
+					for (Field field : layouts.get(o.getClass()).references)
+						if (sizer.isComputable(field))
+							try
+							{
+								visit(field.get(o), d);
+							} catch (IllegalAccessException e)
+							{
+								throw new RuntimeException(e);
+							}
+
+				if (visited >= SHARE_INTERVAL)
+				{
+					visited = 0;
+					checkTime();
+					if (top > 1 && getSurplusQueuedTaskCount() <= 0)
+						share();
+				}
+			}
+		}
+
+		private void checkTime()
+		{
+			if (sizer.timeBudget != Long.MAX_VALUE && System.nanoTime() - traversal.start > sizer.timeBudget)
+				traversal.stopped = true;
+		}
+
+		/**
+		 * Fork the bottom half of the stack, whose objects are the closest to
+		 * the root and so likely to lead to the largest subgraphs.
+		 */
+		private void share()
+		{
+			int half = top >>> 1;
+			int length = Math.max(half * 2, 16);
+			Object[] shared = new Object[length];
+			int[] sharedDepths = new int[length];
+			System.arraycopy(stack, 0, shared, 0, half);
+			System.arraycopy(depths, 0, sharedDepths, 0, half);
+			System.arraycopy(stack, half, stack, 0, top - half);
+			System.arraycopy(depths, half, depths, 0, top - half);
+			Arrays.fill(stack, top - half, top, null);
+			top -= half;
+			new SizeTask(traversal, shared, sharedDepths, half).fork();
+		}
+
+		private void visit(Object[] a, int from, int to, int depth)
+		{
+			if (to - from > SLICE_LENGTH)
+			{
+				for (int i = from + SLICE_LENGTH; i < to; i += SLICE_LENGTH)
+					new SizeTask(traversal, a, i, Math.min(i + SLICE_LENGTH, to), depth, false).fork();
+				to = from + SLICE_LENGTH;
+			}
+			for (int i = from; i < to && !traversal.stopped; i++)
+				visit(a[i], depth);
+		}
+
+		/**
+		 * Size the specified object if it is not sized yet, and push it if it
+		 * may have children.
+		 */
+		private void visit(Object o, int depth)
+		{
+			if (o == null || depth > sizer.maxDepth || sizer.isExcluded(o) || !traversal.doneObj.add(o))
+				return;
+
+			if (sizer.maxObjects != Long.MAX_VALUE && traversal.count.incrementAndGet() > sizer.maxObjects)
+			{
+				traversal.stopped = true;
+				return;
+			}
+			visited++;
+
+			if (o instanceof Object[])
+			{
+				size += sizer.shallowSize(o);
+				Object[] a = (Object[]) o;
+				if (a.length > SLICE_LENGTH)
+				{
+					if (depth < sizer.maxDepth)
+						new SizeTask(traversal, a, 0, a.length, depth + 1, false).fork();
+					return;
+				}
+			} else
+			{
+				Layout layout = layouts.get(o.getClass());
+				size += sizer.sizeOf(o, layout);
+				if (layout.references.length == 0)
+					return;
+			}
+
+			if (top == stack.length)
+			{
+				stack = Arrays.copyOf(stack, top * 2);
+				depths = Arrays.copyOf(depths, top * 2);
+			}
+			stack[top] = o;
+			depths[top++] = depth;
+		}
+	}
+
+	private long deepSize(Object root, IdentitySet doneObj, SizeReport report)
+	{
+		if (root == null)
+		{
+			if (debug)
+				print("null\n");
+			return 0;
+		}
+
+		Stack stack = new Stack();
+		push(stack, root, doneObj, 0, report);
+		long total = 0;
+
+		while (stack.top >= 0)
+		{
+			int top = stack.top;
+			Object[] array = stack.arrays[top];
+			Object child;
+			// When a limit is reached the objects on the stack are popped.
+			if (!stack.stopped && array != null && stack.index[top] < array.length)
+			{
+				int i = stack.index[top]++;
+				if (debug)
+					print("%s [%d] = ", indent(stack.depth[top]), i);
+				child = array[i];
+			} else if (!stack.stopped && array == null && stack.index[top] < stack.fields[top].length)
+			{
+				Field field = stack.fields[top][stack.index[top]++];
 				try
 				{
-					obj = field.get(o);
+					child = field.get(stack.objects[top]);
 				} catch (IllegalArgumentException e)
 				{
 					throw new RuntimeException(e);
@@ -173,29 +934,195 @@ public class SizeOf
 					throw new RuntimeException(e);
 				}
 
-				if (isComputable(field))
+				if (!isComputable(field))
 				{
 					if (debug)
-						print("%s %s = ", indent(depth), field.getName());
-					size += deepSizeOf(obj, doneObj, depth + 1);
-				} else
+						print("%s %s = %s\n", indent(stack.depth[top]), field.getName(), child);
+					continue;
+				}
+				if (debug)
+					print("%s %s = ", indent(stack.depth[top]), field.getName());
+			} else
+			{
+				if (top == 0)
 				{
-					if (debug)
-						print("%s %s = %s\n", indent(depth), field.getName(), obj.toString());
+					total = stack.size[top];
+					if (report != null)
+						report.setTotal(root.getClass(), total, stack.truncated);
 				}
+				pop(stack, report);
+				continue;
 			}
+
+			if (child == null)
+			{
+				if (debug)
+					print("null\n");
+			} else
+				push(stack, child, doneObj, stack.depth[top] + 1, report);
+		}
+
+		return total;
+	}
+
+	/**
+	 * Push the specified object if it is not sized yet, and not beyond the
+	 * limits.
+	 */
+	private void push(Stack stack, Object o, IdentitySet doneObj, int depth, SizeReport report)
+	{
+		if (depth > maxDepth || isExcluded(o))
+		{
+			if (debug)
+				print("\n%s{ skipped }\n", indent(depth));
+			if (depth > maxDepth)
+				stack.truncated = true;
+			return;
+		}
+
+		if (!doneObj.add(o))
+		{
+			if (debug)
+				print("\n%s{ yet computed }\n", indent(depth));
+			return;
+		}
+
+		if (++stack.count > maxObjects || (stack.count & 0xFF) == 0 && timeBudget != Long.MAX_VALUE
+				&& System.nanoTime() - stack.start > timeBudget)
+		{
+			if (debug)
+				print("\n%s{ limit reached }\n", indent(depth));
+			stack.stopped = true;
+			stack.truncated = true;
+			return;
 		}
 
 		if (debug)
-			print("%s} size = %s\n", indent(depth), humanReadable(size));
+			print("\n%s{ %s\n", indent(depth), o.getClass().getName());
 
-		if (MIN_CLASS_SIZE_TO_LOG > 0 && size >= MIN_CLASS_SIZE_TO_LOG)
-			print("Found big object: %s%s@%s size: %s\n", indent(depth), o.getClass().getName(), System.identityHashCode(o),
-					humanReadable(size));
+		int top = ++stack.top;
+		if (top == stack.objects.length)
+			stack.grow();
+		stack.objects[top] = o;
+		stack.index[top] = 0;
+		stack.depth[top] = depth;
+		if (o instanceof Object[])
+		{
+			stack.size[top] = shallowSize(o);
+			stack.arrays[top] = (Object[]) o;
+		} else
+		{
+			Layout layout = layouts.get(o.getClass());
+			stack.size[top] = sizeOf(o, layout);
+			stack.fields[top] = debug ? layout.fields : layout.references;
+		}
 
+		if (report != null)
+			report.count(o.getClass(), stack.size[top]);
+	}
+
+	/**
+	 * Returns the size of the specified object, reading the size of the
+	 * instances of its class only once. The arrays must be sized by
+	 * {@link #shallowSize(Object)} since their size depends on their length.
+	 */
+	private long sizeOf(Object o, Layout layout)
+	{
+		if (o.getClass().isArray())
+			return shallowSize(o);
+
+		if (skipFlyweightField && isSharedFlyweight(o))
+			return 0;
+
+		long size = layout.instanceSize;
+		if (size < 0)
+			layout.instanceSize = size = objectSize(o);
 		return size;
 	}
 
+	/**
+	 * Pop the top object, which is completely sized, and add its size to its
+	 * parent.
+	 */
+	private void pop(Stack stack, SizeReport report)
+	{
+		int top = stack.top--;
+		Object o = stack.objects[top];
+		long size = stack.size[top];
+
+		if (debug)
+			print("%s} size = %s\n", indent(stack.depth[top]), humanReadable(size));
+
+		if (minSizeToLog > 0 && size >= minSizeToLog)
+			print("Found big object: %s%s@%s size: %s\n", indent(stack.depth[top]), o.getClass().getName(),
+					System.identityHashCode(o), humanReadable(size));
+
+		if (report != null && top > 0)
+		{
+			if (report.isLargest(size, top - 1))
+				report.addSubgraph(path(stack, top), o.getClass(), size);
+			if (top == 1)
+				report.addField(step(stack, 0), size);
+		}
+
+		// Release the references held by the reused frame.
+		stack.objects[top] = null;
+		stack.arrays[top] = null;
+		stack.fields[top] = null;
+		if (top > 0)
+			stack.size[top - 1] += size;
+	}
+
+	/**
+	 * The maximum count of steps in the path of a subgraph, the steps in the
+	 * middle of a deeper path are elided so building a path costs a bounded
+	 * time.
+	 */
+	private static final int MAX_PATH_STEPS = 32;
+
+	/**
+	 * Returns the path from the root to the object of the specified frame,
+	 * like root.table[3].value
+	 */
+	private static String path(Stack stack, int top)
+	{
+		StringBuilder builder = new StringBuilder("root");
+		int head = top <= MAX_PATH_STEPS ? top : MAX_PATH_STEPS * 3 / 4;
+		for (int i = 0; i < head; i++)
+			appendStep(builder, stack, i);
+		if (head < top)
+		{
+			builder.append("...");
+			for (int i = top - (MAX_PATH_STEPS - head); i < top; i++)
+				appendStep(builder, stack, i);
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Returns the field or the array index through which the child of the
+	 * specified frame was reached, like table or [3]
+	 */
+	private static String step(Stack stack, int parent)
+	{
+		StringBuilder builder = new StringBuilder();
+		appendStep(builder, stack, parent);
+		if (builder.charAt(0) == '.')
+			builder.deleteCharAt(0);
+
+		return builder.toString();
+	}
+
+	private static void appendStep(StringBuilder builder, Stack stack, int parent)
+	{
+		int i = stack.index[parent] - 1;
+		if (stack.arrays[parent] != null)
+			builder.append('[').append(i).append(']');
+		else
+			builder.append('.').append(stack.fields[parent][i].getName());
+	}
+
 	/**
 	 * Return true if the specified class is a primitive type
 	 */
@@ -236,15 +1163,15 @@ public class SizeOf
 	 * @param obj 
 	 * @return true if the field must be computed
 	 */
-	private static boolean isComputable(Field field)
+	private boolean isComputable(Field field)
 	{
 		int modificatori = field.getModifiers();
 
 		if (isAPrimitiveType(field.getType()))
 			return false;
-		else if (SKIP_STATIC_FIELD && Modifier.isStatic(modificatori))
+		else if (skipStaticField && Modifier.isStatic(modificatori))
 			return false;
-		else if (SKIP_FINAL_FIELD && Modifier.isFinal(modificatori))
+		else if (skipFinalField && Modifier.isFinal(modificatori))
 			return false;
 		else
 			return true;
@@ -296,39 +1223,39 @@ public class SizeOf
 	 * their size (in byte) is greater than this value.
 	 * The default value is 1024*1024 (1 megabyte), 0 turn off logging
 	 */
-	public static void setMinSizeToLog(long min_class_size_to_log)
+	public static synchronized void setMinSizeToLog(long min_class_size_to_log)
 	{
-		MIN_CLASS_SIZE_TO_LOG = min_class_size_to_log;
+		defaults = defaults.toBuilder().minSizeToLog(min_class_size_to_log).build();
 	}
 
 	/**
 	 * If true deepSizeOf() doesn't compute the final fields of an object.
 	 * Default value is false.
 	 */
-	public static void skipFinalField(boolean skip_final_field)
+	public static synchronized void skipFinalField(boolean skip_final_field)
 	{
-		SKIP_FINAL_FIELD = skip_final_field;
+		defaults = defaults.toBuilder().skipFinalField(skip_final_field).build();
 	}
 
 	/**
 	 * If true deepSizeOf() doesn't compute the static fields of an object.
 	 * Default value is false.
 	 */
-	public static void skipStaticField(boolean skip_static_field)
+	public static synchronized void skipStaticField(boolean skip_static_field)
 	{
-		SKIP_STATIC_FIELD = skip_static_field;
+		defaults = defaults.toBuilder().skipStaticField(skip_static_field).build();
 	}
 
 	/**
 	 * If true flyweight objects has a size of 0.
 	 * Default value is false.
 	 */
-	public static void skipFlyweightObject(boolean skip)
+	public static synchronized void skipFlyweightObject(boolean skip)
 	{
-		SKIP_FLYWEIGHT_FIELD = skip;
+		defaults = defaults.toBuilder().skipFlyweightObject(skip).build();
 	}
 
-	private static void print(String s)
+	private void print(String s)
 	{
 		try
 		{
@@ -339,7 +1266,7 @@ public class SizeOf
 		}
 	}
 
-	private static void print(String s, Object... args)
+	private void print(String s, Object... args)
 	{
 		try
 		{
@@ -355,27 +1282,24 @@ public class SizeOf
 	 * The default OutputStream is System.out
 	 * @param o
 	 */
-	public static void setLogOutputStream(OutputStream o)
+	public static synchronized void setLogOutputStream(OutputStream o)
 	{
-		if (o == null)
-			throw new IllegalArgumentException("Can't use a null OutputStream");
-
-		out = o;
+		defaults = defaults.toBuilder().logOutputStream(o).build();
 	}
 
 	/**
 	 * Turn on debugging information
 	 */
-	public static void turnOnDebug()
+	public static synchronized void turnOnDebug()
 	{
-		debug = true;
+		defaults = defaults.toBuilder().debug(true).build();
 	}
 
 	/**
 	 * Turn off debugging information
 	 */
-	public static void turnOffDebug()
+	public static synchronized void turnOffDebug()
 	{
-		debug = true;
+		defaults = defaults.toBuilder().debug(false).build();
 	}
 }
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * SizeReport.java is PROPRIETARY/CONFIDENTIAL built in 9:26:15 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The structured result of a traversal of {@linkplain SizeOf}.
+ * <p>
+ * The report collects the count and the bytes of the instances of every
+ * class, the largest subgraphs with their path from the root, and the bytes
+ * attributed to every field of the root. The size of a subgraph or a field is
+ * the size of the objects first reached through it in the depth-first order
+ * of the traversal, which approximates the retained size: an object shared by
+ * several fields is attributed to the first one only. The total is the sum of
+ * the shallow size of the root and of the sizes of its fields.
+ * </p>
+ * <p>
+ * The report is filled by {@linkplain SizeOf#deepSizeOf(Object, SizeReport)},
+ * the traversal without report is not slowed down. The report is exported as
+ * CSV or JSON. It is not thread safe.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class SizeReport
+{
+	/**
+	 * The default count of the largest subgraphs kept.
+	 */
+	public static final int						DEFAULT_TOP_COUNT	= 20;
+
+	/**
+	 * The instances of a class.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public static final class ClassStats
+	{
+		/**
+		 * The class of the instances.
+		 */
+		public final Class<?>	type;
+		/**
+		 * The count of the instances.
+		 */
+		public long				count;
+		/**
+		 * The shallow size of the instances in bytes.
+		 */
+		public long				bytes;
+
+		ClassStats(Class<?> type)
+		{
+			this.type = type;
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString()
+		{
+			return String.format("%s[count=%d, bytes=%d]", type.getName(), count, bytes);
+		}
+	}
+
+	/**
+	 * A subgraph of the traversal.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public static final class Subgraph
+	{
+		/**
+		 * The path of the fields and the array indices from the root.
+		 */
+		public final String		path;
+		/**
+		 * The class of the object at the top of the subgraph.
+		 */
+		public final Class<?>	type;
+		/**
+		 * The size of the objects first reached through the subgraph in bytes.
+		 */
+		public final long		bytes;
+
+		Subgraph(String path, Class<?> type, long bytes)
+		{
+			this.path = path;
+			this.type = type;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString()
+		{
+			return String.format("%s (%s) %d", path, type.getName(), bytes);
+		}
+	}
+
+	/**
+	 * The order of the subgraphs by the size, the smallest first.
+	 */
+	private static final Comparator<Subgraph>	BY_SIZE				= new Comparator<Subgraph>()
+	{
+		@Override
+		public int compare(Subgraph a, Subgraph b)
+		{
+			return Long.compare(a.bytes, b.bytes);
+		}
+	};
+
+	/**
+	 * The count of the largest subgraphs kept.
+	 */
+	protected final int							topCount;
+	/**
+	 * The instances of every class.
+	 */
+	private final Map<Class<?>, ClassStats>		classes				= new HashMap<Class<?>, ClassStats>();
+	/**
+	 * The last class counted, most of the objects are of the class of the
+	 * previous one.
+	 */
+	private ClassStats							last;
+	/**
+	 * The largest subgraphs, the smallest on the head.
+	 */
+	private final PriorityQueue<Subgraph>		largest;
+	/**
+	 * The bytes of every field of the root in the traversal order.
+	 */
+	private final Map<String, Long>				fields				= new LinkedHashMap<String, Long>();
+	/**
+	 * The class of the root.
+	 */
+	private Class<?>							rootType;
+	/**
+	 * The total size in bytes.
+	 */
+	private long								total;
+	/**
+	 * Whether a limit of the traversal was reached.
+	 */
+	private boolean								truncated;
+
+	/**
+	 * Construct an instance of <tt>SizeReport</tt> keeping the
+	 * {@value #DEFAULT_TOP_COUNT} largest subgraphs.
+	 */
+	public SizeReport()
+	{
+		this(DEFAULT_TOP_COUNT);
+	}
+
+	/**
+	 * Construct an instance of <tt>SizeReport</tt>.
+	 * 
+	 * @param topCount
+	 *            the count of the largest subgraphs kept, <code>0</code> to
+	 *            keep none
+	 */
+	public SizeReport(int topCount)
+	{
+		if (topCount < 0)
+			throw new IllegalArgumentException(String.format("Illegal top count: %d", topCount));
+		this.topCount = topCount;
+		largest = new PriorityQueue<Subgraph>(Math.max(topCount, 1), BY_SIZE);
+	}
+
+	/**
+	 * Count an object.
+	 * 
+	 * @param type
+	 *            the class of the object
+	 * @param size
+	 *            the shallow size of the object
+	 */
+	void count(Class<?> type, long size)
+	{
+		ClassStats stats = last;
+		if (stats == null || stats.type != type)
+		{
+			stats = classes.get(type);
+			if (stats == null)
+				classes.put(type, stats = new ClassStats(type));
+			last = stats;
+		}
+		stats.count++;
+		stats.bytes += size;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if a subgraph of the specified size is one of the
+	 * largest, so its path is worth building. A subgraph is never smaller than
+	 * its subgraphs, so a subgraph with as many ancestors as the kept count,
+	 * the root excluded, is never one of the largest.
+	 * 
+	 * @param size
+	 *            the size of the subgraph
+	 * @param ancestors
+	 *            the count of the ancestors of the subgraph, the root
+	 *            excluded
+	 * @return <tt>true</tt> if the subgraph would be kept
+	 */
+	boolean isLargest(long size, int ancestors)
+	{
+		return ancestors < topCount && (largest.size() < topCount || size > largest.peek().bytes);
+	}
+
+	/**
+	 * Keep a subgraph, which is one of the largest.
+	 */
+	void addSubgraph(String path, Class<?> type, long size)
+	{
+		if (largest.size() == topCount)
+			largest.poll();
+		largest.add(new Subgraph(path, type, size));
+	}
+
+	/**
+	 * Attribute the size of a subgraph to a field of the root.
+	 */
+	void addField(String field, long size)
+	{
+		Long bytes = fields.get(field);
+		fields.put(field, bytes == null ? size : bytes + size);
+	}
+
+	/**
+	 * Set the class of the root, the total size and whether a limit of the
+	 * traversal was reached.
+	 */
+	void setTotal(Class<?> type, long size, boolean truncated)
+	{
+		rootType = type;
+		total = size;
+		this.truncated = truncated;
+	}
+
+	/**
+	 * Returns the class of the root.
+	 * 
+	 * @return the class of the root, <code>null</code> if the report is empty
+	 */
+	public Class<?> getRootType()
+	{
+		return rootType;
+	}
+
+	/**
+	 * Returns the total size in bytes.
+	 * 
+	 * @return the total size
+	 */
+	public long getTotal()
+	{
+		return total;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if a limit of the depth, of the count of objects or
+	 * of the time was reached, so the sizes are lower bounds.
+	 * 
+	 * @return <tt>true</tt> if the traversal was truncated
+	 */
+	public boolean isTruncated()
+	{
+		return truncated;
+	}
+
+	/**
+	 * Returns the instances of every class, the largest bytes first.
+	 * 
+	 * @return the classes
+	 */
+	public List<ClassStats> getClasses()
+	{
+		List<ClassStats> list = new ArrayList<ClassStats>(classes.values());
+		Collections.sort(list, new Comparator<ClassStats>()
+		{
+			@Override
+			public int compare(ClassStats a, ClassStats b)
+			{
+				int c = Long.compare(b.bytes, a.bytes);
+				return c != 0 ? c : a.type.getName().compareTo(b.type.getName());
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Returns the largest subgraphs, the largest first. The root itself is
+	 * not included, the subgraphs may be nested.
+	 * 
+	 * @return the largest subgraphs
+	 */
+	public List<Subgraph> getLargestSubgraphs()
+	{
+		List<Subgraph> list = new ArrayList<Subgraph>(largest);
+		Collections.sort(list, Collections.reverseOrder(BY_SIZE));
+		return list;
+	}
+
+	/**
+	 * Returns the bytes attributed to the fields of the root, or to the
+	 * elements of the root array, in the traversal order. The fields which
+	 * reached no new object are not included.
+	 * 
+	 * @return the bytes of the fields
+	 */
+	public Map<String, Long> getFieldSizes()
+	{
+		return Collections.unmodifiableMap(fields);
+	}
+
+	/**
+	 * Write the report as CSV, one record per class, subgraph and field of the
+	 * root, with the columns <code>kind,name,class,count,bytes</code>.
+	 * 
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void writeCsv(Appendable out) throws IOException
+	{
+		out.append("kind,name,class,count,bytes\n");
+		if (rootType != null)
+			csv(out, "total", "", rootType.getName(), "", total);
+		for (ClassStats stats : getClasses())
+			csv(out, "class", "", stats.type.getName(), Long.toString(stats.count), stats.bytes);
+		for (Subgraph subgraph : getLargestSubgraphs())
+			csv(out, "subgraph", subgraph.path, subgraph.type.getName(), "", subgraph.bytes);
+		for (Map.Entry<String, Long> e : fields.entrySet())
+			csv(out, "field", e.getKey(), "", "", e.getValue());
+	}
+
+	private static void csv(Appendable out, String kind, String name, String type, String count, long bytes)
+			throws IOException
+	{
+		out.append(kind).append(',');
+		csvField(out, name);
+		out.append(',');
+		csvField(out, type);
+		out.append(',').append(count).append(',').append(Long.toString(bytes)).append('\n');
+	}
+
+	private static void csvField(Appendable out, String s) throws IOException
+	{
+		boolean quote = false;
+		for (int i = 0; i < s.length() && !quote; i++)
+		{
+			char c = s.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote)
+		{
+			out.append(s);
+			return;
+		}
+		out.append('"').append(s.replace("\"", "\"\"")).append('"');
+	}
+
+	/**
+	 * Write the report as a JSON object with the members <code>root</code>,
+	 * <code>total</code>, <code>truncated</code>, <code>classes</code>,
+	 * <code>subgraphs</code> and <code>fields</code>.
+	 * 
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void writeJson(Appendable out) throws IOException
+	{
+		out.append("{\"root\":");
+		if (rootType == null)
+			out.append("null");
+		else
+			json(out, rootType.getName());
+		out.append(",\"total\":").append(Long.toString(total));
+		out.append(",\"truncated\":").append(Boolean.toString(truncated)).append(",\"classes\":[");
+		String separator = "";
+		for (ClassStats stats : getClasses())
+		{
+			out.append(separator).append("{\"class\":");
+			json(out, stats.type.getName());
+			out.append(",\"count\":").append(Long.toString(stats.count));
+			out.append(",\"bytes\":").append(Long.toString(stats.bytes)).append('}');
+			separator = ",";
+		}
+		out.append("],\"subgraphs\":[");
+		separator = "";
+		for (Subgraph subgraph : getLargestSubgraphs())
+		{
+			out.append(separator).append("{\"path\":");
+			json(out, subgraph.path);
+			out.append(",\"class\":");
+			json(out, subgraph.type.getName());
+			out.append(",\"bytes\":").append(Long.toString(subgraph.bytes)).append('}');
+			separator = ",";
+		}
+		out.append("],\"fields\":[");
+		separator = "";
+		for (Map.Entry<String, Long> e : fields.entrySet())
+		{
+			out.append(separator).append("{\"field\":");
+			json(out, e.getKey());
+			out.append(",\"bytes\":").append(e.getValue().toString()).append('}');
+			separator = ",";
+		}
+		out.append("]}");
+	}
+
+	private static void json(Appendable out, String s) throws IOException
+	{
+		out.append('"');
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				out.append('\\').append(c);
+			else if (c < 0x20)
+				out.append(String.format("\\u%04x", (int) c));
+			else
+				out.append(c);
+		}
+		out.append('"');
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return String.format("SizeReport[root=%s, total=%d, truncated=%b, classes=%d, subgraphs=%d, fields=%d]",
+				rootType == null ? null : rootType.getName(), total, truncated, classes.size(), largest.size(),
+				fields.size());
+	}
+}
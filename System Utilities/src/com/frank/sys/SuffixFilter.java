@@ -8,6 +8,7 @@
 package com.frank.sys;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FilenameFilter;
 
 /**
@@ -16,19 +17,44 @@ import java.io.FilenameFilter;
  * Implemenetation of a {@link FilenameFilter} that filters the files according
  * to their suffix.
  * </p>
+ * <p>
+ * The {@link FileFilter} of {@link #asFileFilter()} always accepts the
+ * directories, so it can be used for recursive iteration, see
+ * {@linkplain FileIterator}, {@linkplain ParallelFileWalker} and
+ * {@linkplain SystemUtils#loadFiles(java.util.Collection, File, FileFilter)}.
+ * </p>
  * 
  * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
  * @version 1.0.0
  */
 public class SuffixFilter implements FilenameFilter
 {
+	/**
+	 * The count of the buckets indexed by the last char of the suffix.
+	 */
+	private static final int	BUCKETS	= 128;
+
 	/**
 	 * The accepted filename suffix.
 	 */
-	protected String[]	suffix;
+	protected String[]			suffix;
+	/**
+	 * The suffixes grouped by their lower case last char, the suffixes ending
+	 * with a non-ASCII char are in the last bucket.
+	 */
+	protected String[][]		table;
+	/**
+	 * Whether the empty suffix is accepted, which matches every name.
+	 */
+	protected boolean			matchAll;
 
 	/**
 	 * Construct an instance of <tt>SuffixFilter</tt>.
+	 * <p>
+	 * The suffixes are compiled into a table indexed by their last char, so a
+	 * name is only compared with the suffixes ending with the same char. The
+	 * names are compared ignoring case and no string is allocated.
+	 * </p>
 	 * 
 	 * @param suffix
 	 *            the accpeted filename suffix
@@ -38,6 +64,61 @@ public class SuffixFilter implements FilenameFilter
 		if (suffix.length == 0)
 			throw new IllegalArgumentException("The suffix is not specified!");
 		this.suffix = suffix;
+		int[] counts = new int[BUCKETS + 1];
+		for (String s : suffix)
+			if (s.isEmpty())
+				matchAll = true;
+			else
+				counts[bucket(s.charAt(s.length() - 1))]++;
+		table = new String[BUCKETS + 1][];
+		for (int i = 0; i < table.length; i++)
+			table[i] = new String[counts[i]];
+		for (String s : suffix)
+			if (!s.isEmpty())
+			{
+				int b = bucket(s.charAt(s.length() - 1));
+				table[b][--counts[b]] = s;
+			}
+	}
+
+	/**
+	 * Returns the bucket of the specified last char.
+	 * 
+	 * @param c
+	 *            the last char
+	 * @return the index of the bucket
+	 */
+	private static int bucket(char c)
+	{
+		if (c >= 'A' && c <= 'Z')
+			return c + ('a' - 'A');
+		if (c < BUCKETS)
+			return c;
+		return BUCKETS;
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the specified name ends with any accepted
+	 * suffix, ignoring case.
+	 * 
+	 * @param name
+	 *            the name to test
+	 * @return <tt>true</tt> if the name is accepted
+	 */
+	public boolean matches(String name)
+	{
+		if (matchAll)
+			return true;
+		int n = name.length();
+		if (n == 0)
+			return false;
+		for (String s : table[bucket(name.charAt(n - 1))])
+		{
+			int len = s.length();
+			if (len <= n && name.regionMatches(true, n - len, s, 0, len))
+				return true;
+		}
+		return false;
 	}
 
 	/**
@@ -46,15 +127,25 @@ public class SuffixFilter implements FilenameFilter
 	@Override
 	public boolean accept(File dir, String name)
 	{
-		boolean b = false;
-		name = name.toLowerCase();
-		for (String s : suffix)
-			if (name.endsWith(s))
+		return matches(name);
+	}
+
+	/**
+	 * Returns a file filter accepting the files with an accepted suffix and
+	 * all the directories.
+	 * 
+	 * @return the file filter
+	 */
+	public FileFilter asFileFilter()
+	{
+		return new FileFilter()
+		{
+			@Override
+			public boolean accept(File file)
 			{
-				b = true;
-				break;
+				return matches(file.getName()) || file.isDirectory();
 			}
-		return b;
+		};
 	}
 
 	/**
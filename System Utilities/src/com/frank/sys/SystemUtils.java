@@ -21,6 +21,7 @@ import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -29,12 +30,14 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.nio.CharBuffer;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 
 import javax.imageio.ImageIO;
@@ -55,11 +58,16 @@ public class SystemUtils
 	 * 8192 is always used in all kinds of IO affairs.
 	 * </p>
 	 */
-	public static final int		BUFFER_SIZE	= 8192;
+	public static final int			BUFFER_SIZE		= 8192;
 	/**
 	 * The header of BASE64 image.
 	 */
-	public static final String	BASE64IMAGE	= "base64image:";
+	public static final String		BASE64IMAGE		= "base64image:";
+	/**
+	 * The serializer of {@link #writeObject(File, Object)} and
+	 * {@link #readObject(File)}.
+	 */
+	private static final Serializer	JAVA_SERIALIZER	= new JavaSerializer();
 
 	/**
 	 * Returns the texts in the system clip board.
@@ -297,11 +305,45 @@ public class SystemUtils
 			files.add(file);
 	}
 
+	/**
+	 * Load all the files accepted by the specified file filter under the
+	 * specified directory into the specified <code>File</code> collection,
+	 * listing the directories in parallel.
+	 * <p>
+	 * The files are added in the same order as
+	 * {@link #loadFiles(Collection, File, FileFilter)}.
+	 * </p>
+	 * 
+	 * @param files
+	 *            the specified <code>File</code> collection
+	 * @param file
+	 *            the specified file or directory
+	 * @param filter
+	 *            the specified file filter, if <tt>null</tt> than accept all
+	 *            the file types.
+	 * @param parallelism
+	 *            the count of the directories listed concurrently
+	 * @see ParallelFileWalker
+	 */
+	public static void loadFiles(Collection<File> files, File file, FileFilter filter, int parallelism)
+	{
+		ParallelFileWalker walker = new ParallelFileWalker(filter, parallelism);
+		try
+		{
+			walker.walk(file, files);
+		}
+		finally
+		{
+			walker.shutdown();
+		}
+	}
+
 	/**
 	 * Read the specified text input stream and fill the content to the
 	 * specified appendable.
 	 * <p>
-	 * The input stream will be read to the end and will be closed after read.
+	 * The input stream will be read to the end and will be closed after read,
+	 * even if an error occurs.
 	 * </p>
 	 * 
 	 * @param in
@@ -315,19 +357,14 @@ public class SystemUtils
 	 *            the capacity of the buffer
 	 * @throws IOException
 	 *             if an IO error occurs
+	 * @see TextDecoder
 	 */
 	public static void read(InputStream in, Charset cs, Appendable appendable, int capacity) throws IOException
 	{
-		InputStreamReader isr = new InputStreamReader(in, cs == null ? Charset.defaultCharset() : cs);
-		CharBuffer cbuf = CharBuffer.allocate(capacity);
-		int r = 0;
-		while (r > -1)
+		try (InputStream input = in)
 		{
-			cbuf.clear();
-			appendable.append(cbuf, 0, r);
-			r = isr.read(cbuf);
+			new TextDecoder(cs, capacity).decode(input, appendable);
 		}
-		isr.close();
 	}
 
 	/**
@@ -460,8 +497,62 @@ public class SystemUtils
 		read(filename, Charset.defaultCharset(), appendable, 8192);
 	}
 
+	/**
+	 * Read the specified text input stream and pass every line to the
+	 * specified handler.
+	 * <p>
+	 * The input stream will be read to the end and will be closed after read,
+	 * even if an error occurs. The whole text is never kept in memory.
+	 * </p>
+	 * 
+	 * @param in
+	 *            the input stream to read
+	 * @param cs
+	 *            the character set of the input stream, <code>null</code> if
+	 *            use environment character set
+	 * @param handler
+	 *            the line handler
+	 * @return the count of the lines read
+	 * @throws IOException
+	 *             if an IO error occurs
+	 * @see TextDecoder#decodeLines(InputStream, LineHandler)
+	 */
+	public static long readLines(InputStream in, Charset cs, LineHandler handler) throws IOException
+	{
+		try (InputStream input = in)
+		{
+			return new TextDecoder(cs).decodeLines(input, handler);
+		}
+	}
+
+	/**
+	 * Read the specified text file and pass every line to the specified
+	 * handler.
+	 * 
+	 * @param file
+	 *            the file to read
+	 * @param cs
+	 *            the character set of the file, <code>null</code> if use
+	 *            environment character set
+	 * @param handler
+	 *            the line handler
+	 * @return the count of the lines read
+	 * @throws IOException
+	 *             if an IO error occurs
+	 * @see TextDecoder#decodeLines(InputStream, LineHandler)
+	 */
+	public static long readLines(File file, Charset cs, LineHandler handler) throws IOException
+	{
+		return readLines(new FileInputStream(file), cs, handler);
+	}
+
 	/**
 	 * Read raw byte data from the specified input stream.
+	 * <p>
+	 * The input stream will be read to the end and will not be closed. The
+	 * bytes are read in bulk into a growable primitive buffer, see
+	 * {@linkplain ByteBuilder}.
+	 * </p>
 	 * 
 	 * @param in
 	 *            the specified input stream
@@ -473,25 +564,19 @@ public class SystemUtils
 	 */
 	public static byte[] readRawBytes(InputStream in, int size) throws IOException
 	{
-		ArrayList<Byte> list = new ArrayList<Byte>();
-		BufferedInputStream bis = new BufferedInputStream(in, size);
-		byte[] b = new byte[size];
-		int r = 0, i;
-		while (r > -1)
-		{
-			for (i = 0; i < r; i++)
-				list.add(b[i]);
-			r = bis.read(b);
-		}
-		byte[] a = new byte[list.size()];
-		i = 0;
-		for (Byte e : list)
-			a[i++] = e;
-		return a;
+		ByteBuilder builder = new ByteBuilder(size);
+		builder.readFrom(in, size);
+		builder.trimToSize();
+		return builder.array();
 	}
 
 	/**
 	 * Read raw byte data from the specified file.
+	 * <p>
+	 * The result array is allocated with the length of the file, so the content
+	 * is read without any intermediate copy. If the file is growing while it is
+	 * read, the rest bytes are read as well.
+	 * </p>
 	 * 
 	 * @param file
 	 *            the specified file
@@ -503,7 +588,17 @@ public class SystemUtils
 	 */
 	public static byte[] readRawBytes(File file, int size) throws IOException
 	{
-		return readRawBytes(new FileInputStream(file), size);
+		try (FileInputStream in = new FileInputStream(file))
+		{
+			long length = in.getChannel().size();
+			if (length > ByteBuilder.MAX_ARRAY_SIZE)
+				throw new IOException(String.format("The file %s is too large to read into an array: %d bytes.", file,
+						length));
+			ByteBuilder builder = new ByteBuilder(length > 0 ? (int) length : size);
+			builder.readFrom(in, size);
+			builder.trimToSize();
+			return builder.array();
+		}
 	}
 
 	/**
@@ -519,7 +614,7 @@ public class SystemUtils
 	 */
 	public static byte[] readRawBytes(String filename, int size) throws IOException
 	{
-		return readRawBytes(new FileInputStream(filename), size);
+		return readRawBytes(new File(filename), size);
 	}
 
 	/**
@@ -533,21 +628,7 @@ public class SystemUtils
 	 */
 	public static byte[] readRawBytes(InputStream in) throws IOException
 	{
-		ArrayList<Byte> list = new ArrayList<Byte>();
-		BufferedInputStream bis = new BufferedInputStream(in, 8192);
-		byte[] b = new byte[8192];
-		int r = 0, i;
-		while (r > -1)
-		{
-			for (i = 0; i < r; i++)
-				list.add(b[i]);
-			r = bis.read(b);
-		}
-		byte[] a = new byte[list.size()];
-		i = 0;
-		for (Byte e : list)
-			a[i++] = e;
-		return a;
+		return readRawBytes(in, BUFFER_SIZE);
 	}
 
 	/**
@@ -561,7 +642,7 @@ public class SystemUtils
 	 */
 	public static byte[] readRawBytes(File file) throws IOException
 	{
-		return readRawBytes(file, 8192);
+		return readRawBytes(file, BUFFER_SIZE);
 	}
 
 	/**
@@ -575,11 +656,242 @@ public class SystemUtils
 	 */
 	public static byte[] readRawBytes(String filename) throws IOException
 	{
-		return readRawBytes(filename, 8192);
+		return readRawBytes(filename, BUFFER_SIZE);
+	}
+
+	/**
+	 * Read raw byte data from the specified input stream into the specified
+	 * buffer.
+	 * <p>
+	 * The input stream is read until the specified length of bytes are read or
+	 * the end of the stream is reached, so the memory used is bounded by the
+	 * buffer. The input stream will not be closed.
+	 * </p>
+	 * 
+	 * @param in
+	 *            the specified input stream
+	 * @param buffer
+	 *            the buffer to fill
+	 * @param off
+	 *            the offset of the buffer to start filling
+	 * @param len
+	 *            the maximum count of the bytes to read
+	 * @return the count of the bytes read, less than <code>len</code> only if
+	 *         the end of the stream is reached
+	 * @throws IOException
+	 *             if any IO error occurs
+	 */
+	public static int readRawBytes(InputStream in, byte[] buffer, int off, int len) throws IOException
+	{
+		if (off < 0 || len < 0 || off > buffer.length - len)
+			throw new IndexOutOfBoundsException();
+		int n = 0;
+		while (n < len)
+		{
+			int r = in.read(buffer, off + n, len - n);
+			if (r == -1)
+				break;
+			n += r;
+		}
+		return n;
 	}
 
 	/**
-	 * Write one object to the specified file.
+	 * Read raw byte data from the specified input stream into the specified
+	 * buffer.
+	 * 
+	 * @param in
+	 *            the specified input stream
+	 * @param buffer
+	 *            the buffer to fill
+	 * @return the count of the bytes read, less than the buffer length only if
+	 *         the end of the stream is reached
+	 * @throws IOException
+	 *             if any IO error occurs
+	 * @see #readRawBytes(InputStream, byte[], int, int)
+	 */
+	public static int readRawBytes(InputStream in, byte[] buffer) throws IOException
+	{
+		return readRawBytes(in, buffer, 0, buffer.length);
+	}
+
+	/**
+	 * Read the leading raw byte data of the specified file into the specified
+	 * buffer.
+	 * 
+	 * @param file
+	 *            the specified file
+	 * @param buffer
+	 *            the buffer to fill
+	 * @return the count of the bytes read, less than the buffer length only if
+	 *         the file is shorter than the buffer
+	 * @throws IOException
+	 *             if any IO error occurs
+	 */
+	public static int readRawBytes(File file, byte[] buffer) throws IOException
+	{
+		try (FileInputStream in = new FileInputStream(file))
+		{
+			return readRawBytes(in, buffer, 0, buffer.length);
+		}
+	}
+
+	/**
+	 * Map the specified file into memory read-only.
+	 * <p>
+	 * The content is not copied into the heap, the pages are loaded by the
+	 * operating system on demand. The mapping stays valid after this method
+	 * returns until the buffer is garbage collected. A single mapping can not
+	 * be larger than 2 GB, use {@link #readMapped(Path, int)} for larger
+	 * files.
+	 * </p>
+	 * 
+	 * @param path
+	 *            the path of the file to map
+	 * @return the read-only mapped buffer
+	 * @throws IOException
+	 *             if an IO error occurs or the file is larger than 2 GB
+	 */
+	public static MappedByteBuffer readMapped(Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(String.format(
+						"The file %s is too large to map in one buffer: %d bytes, map it in chunks.", path, size));
+			return channel.map(MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	/**
+	 * Map the specified file into memory read-only in chunks.
+	 * <p>
+	 * Every chunk except the last one contains exactly <code>chunkSize</code>
+	 * bytes, so the byte at the file position <code>p</code> is at the index
+	 * <code>p % chunkSize</code> of the chunk <code>p / chunkSize</code>.
+	 * </p>
+	 * 
+	 * @param path
+	 *            the path of the file to map
+	 * @param chunkSize
+	 *            the size of each chunk in bytes
+	 * @return the read-only mapped chunks, an empty array if the file is empty
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public static MappedByteBuffer[] readMapped(Path path, int chunkSize) throws IOException
+	{
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException(String.format("Illegal chunk size: %d", chunkSize));
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + chunkSize - 1) / chunkSize)];
+			for (int i = 0; i < chunks.length; i++)
+			{
+				long position = (long) i * chunkSize;
+				chunks[i] = channel.map(MapMode.READ_ONLY, position, Math.min(chunkSize, size - position));
+			}
+			return chunks;
+		}
+	}
+
+	/**
+	 * Read the leading bytes of the specified file into the specified buffer.
+	 * <p>
+	 * The bytes are read from the position of the buffer up to its limit or
+	 * the end of the file, the position of the buffer is advanced by the count
+	 * of the read bytes. With a direct buffer which is reused among calls, the
+	 * content is read without any copy in the heap.
+	 * </p>
+	 * 
+	 * @param path
+	 *            the path of the file to read
+	 * @param buffer
+	 *            the buffer to fill
+	 * @return the count of the bytes read
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public static int readChannel(Path path, ByteBuffer buffer) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			int n = 0;
+			while (buffer.hasRemaining())
+			{
+				int r = channel.read(buffer);
+				if (r == -1)
+					break;
+				n += r;
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * Read the whole specified file through the specified buffer.
+	 * <p>
+	 * The buffer is cleared, filled from the file and passed to the handler
+	 * repeatedly until the end of the file is reached. The bytes which the
+	 * handler leaves remaining are moved to the beginning of the buffer and
+	 * passed again with the next chunk, the last chunk is passed until the
+	 * handler stops consuming. So a file of any size is read with the memory of
+	 * the buffer only.
+	 * </p>
+	 * 
+	 * @param path
+	 *            the path of the file to read
+	 * @param buffer
+	 *            the buffer to reuse, a direct buffer is recommended
+	 * @param handler
+	 *            the handler of the chunks
+	 * @return the count of the bytes read
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public static long readChannel(Path path, ByteBuffer buffer, ChunkHandler handler) throws IOException
+	{
+		if (buffer.capacity() == 0)
+			throw new IllegalArgumentException("The buffer has no capacity.");
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long total = 0;
+			buffer.clear();
+			while (true)
+			{
+				int r = channel.read(buffer);
+				if (r == -1)
+					break;
+				total += r;
+				if (!buffer.hasRemaining())
+				{
+					buffer.flip();
+					handler.handle(buffer);
+					if (!buffer.hasRemaining())
+						buffer.clear();
+					else if (buffer.position() == 0)
+						throw new IOException("The handler does not consume any byte of a full buffer.");
+					else
+						buffer.compact();
+				}
+			}
+			buffer.flip();
+			while (buffer.hasRemaining())
+			{
+				int remaining = buffer.remaining();
+				handler.handle(buffer);
+				if (buffer.remaining() == remaining)
+					break;
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * Write one object to the specified file with Java<sup>TM</sup>
+	 * serialization.
 	 * 
 	 * @param file
 	 *            the specified file
@@ -587,17 +899,41 @@ public class SystemUtils
 	 *            the object to write
 	 * @throws IOException
 	 *             if IO error occurs
+	 * @see #writeObject(File, Object, Serializer)
 	 */
 	public static void writeObject(File file, Object obj) throws IOException
+	{
+		writeObject(file, obj, JAVA_SERIALIZER);
+	}
+
+	/**
+	 * Write one object to the specified file with the specified serializer.
+	 * <p>
+	 * The file is written through a buffer, so the serializer writes to
+	 * memory and the file is written in blocks.
+	 * </p>
+	 * 
+	 * @param file
+	 *            the specified file
+	 * @param obj
+	 *            the object to write
+	 * @param serializer
+	 *            the serializer
+	 * @throws IOException
+	 *             if IO error occurs
+	 */
+	public static void writeObject(File file, Object obj, Serializer serializer) throws IOException
 	{
 		createFileIfNotExist(file);
-		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file));
-		oos.writeObject(obj);
-		oos.close();
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))
+		{
+			serializer.write(out, obj);
+		}
 	}
 
 	/**
-	 * Read an object from the specified file.
+	 * Read an object from the specified file with Java<sup>TM</sup>
+	 * serialization.
 	 * 
 	 * @param file
 	 *            the specified to read
@@ -606,13 +942,32 @@ public class SystemUtils
 	 *             if IO error occurs
 	 * @throws ClassNotFoundException
 	 *             if the class is not found
+	 * @see #readObject(File, Serializer)
 	 */
 	public static Object readObject(File file) throws IOException, ClassNotFoundException
 	{
-		ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file));
-		Object obj = ois.readObject();
-		ois.close();
-		return obj;
+		return readObject(file, JAVA_SERIALIZER);
+	}
+
+	/**
+	 * Read an object from the specified file with the specified serializer.
+	 * 
+	 * @param file
+	 *            the specified to read
+	 * @param serializer
+	 *            the serializer which wrote the file
+	 * @return the read object
+	 * @throws IOException
+	 *             if IO error occurs
+	 * @throws ClassNotFoundException
+	 *             if the class is not found
+	 */
+	public static Object readObject(File file, Serializer serializer) throws IOException, ClassNotFoundException
+	{
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))
+		{
+			return serializer.read(in);
+		}
 	}
 
 	/**
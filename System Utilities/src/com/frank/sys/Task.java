@@ -6,9 +6,52 @@
  */
 package com.frank.sys;
 
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * A controlled runnable task.
  * <p>
+ * The status is changed atomically and is visible to all the threads. A
+ * paused task parks its thread until it is resumed or terminated, so it uses
+ * no processor time and resumes as soon as it is unparked.
+ * </p>
+ * <p>
+ * A task either occupies its own thread by {@link #run()}, or is stepped
+ * cooperatively with many other tasks on the workers of a
+ * {@linkplain TaskExecutor}.
+ * </p>
+ * <p>
+ * By default {@link #taskRunning()} is called again as soon as it returns. A
+ * {@linkplain Pacing} set by {@link #setPacing(Pacing)} delays the calls to a
+ * fixed rate, a fixed delay or a rate limit, the task waits without using any
+ * processor time or worker.
+ * </p>
+ * <p>
+ * A terminated task calls {@link #taskStopped()} on its thread and completes,
+ * which is awaited by {@link #awaitTermination(long, TimeUnit)} or the
+ * {@linkplain Future} of {@link #getFuture()}. {@link #shutdown(long, TimeUnit)}
+ * forces a task not completed before the deadline to stop, and
+ * {@link #shutdown(Collection, long, TimeUnit)} shuts down many tasks with one
+ * deadline.
+ * </p>
+ * <p>
+ * A task with nothing to do calls {@link #idle()} in
+ * <code>taskRunning()</code>, then it waits the same way until another thread
+ * calls {@link #signal()}, e.g. after handing new work to it.
+ * </p>
+ * <p>
+ * The {@linkplain TaskMetrics} enabled by {@link #enableMetrics()} record
+ * the time in every status, the latencies of the calls to
+ * <code>taskRunning()</code> and the errors.
  * </p>
  * 
  * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
@@ -48,18 +91,338 @@ public abstract class Task implements Runnable
 		Error
 	}
 
+	/**
+	 * The pacing of the calls to {@link Task#taskRunning()}.
+	 * <p>
+	 * The pacing keeps the state of the schedule, so an instance paces only
+	 * one task. All the times are in nanoseconds of {@link System#nanoTime()}.
+	 * </p>
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public static abstract class Pacing
+	{
+		/**
+		 * Returns the earliest time to start the next call.
+		 * 
+		 * @param now
+		 *            the current time
+		 * @return the time to start the next call, not after <code>now</code>
+		 *         if it may start immediately
+		 */
+		protected abstract long next(long now);
+
+		/**
+		 * Record a call to {@link Task#taskRunning()}.
+		 * 
+		 * @param start
+		 *            the time the call started
+		 * @param end
+		 *            the time the call returned
+		 */
+		protected abstract void called(long start, long end);
+
+		/**
+		 * Returns the pacing calling at a fixed rate.
+		 * <p>
+		 * The calls are scheduled at the multiples of the period from the
+		 * first call, so the slow calls do not shift the schedule. If the task
+		 * falls behind, one late call starts immediately and the other missed
+		 * calls are skipped.
+		 * </p>
+		 * 
+		 * @param period
+		 *            the period between the starts of the calls
+		 * @param unit
+		 *            the unit of the period
+		 * @return the pacing
+		 */
+		public static Pacing fixedRate(long period, TimeUnit unit)
+		{
+			final long p = positive(unit.toNanos(period), "period");
+			return new Pacing()
+			{
+				private boolean	started;
+				private long	next;
+
+				@Override
+				protected long next(long now)
+				{
+					return started ? next : now;
+				}
+
+				@Override
+				protected void called(long start, long end)
+				{
+					if (!started)
+					{
+						started = true;
+						next = start;
+					}
+					next += p;
+					long behind = end - next;
+					if (behind > 0)
+						next += behind / p * p;
+				}
+
+				@Override
+				public String toString()
+				{
+					return String.format("FixedRate[%dns]", p);
+				}
+			};
+		}
+
+		/**
+		 * Returns the pacing calling with a fixed delay between the end of a
+		 * call and the start of the next one.
+		 * 
+		 * @param delay
+		 *            the delay between the calls
+		 * @param unit
+		 *            the unit of the delay
+		 * @return the pacing
+		 */
+		public static Pacing fixedDelay(long delay, TimeUnit unit)
+		{
+			final long d = positive(unit.toNanos(delay), "delay");
+			return new Pacing()
+			{
+				private boolean	started;
+				private long	next;
+
+				@Override
+				protected long next(long now)
+				{
+					return started ? next : now;
+				}
+
+				@Override
+				protected void called(long start, long end)
+				{
+					started = true;
+					next = end + d;
+				}
+
+				@Override
+				public String toString()
+				{
+					return String.format("FixedDelay[%dns]", d);
+				}
+			};
+		}
+
+		/**
+		 * Returns the pacing limiting the rate of the calls by a token bucket.
+		 * <p>
+		 * The bucket holds at most <code>burst</code> tokens and is refilled
+		 * at the specified rate, every call takes a token. So the calls never
+		 * exceed the rate on average, while up to <code>burst</code> calls may
+		 * start back to back after an idle period. The bucket is full
+		 * initially.
+		 * </p>
+		 * 
+		 * @param permitsPerSecond
+		 *            the rate of the calls
+		 * @param burst
+		 *            the capacity of the bucket, at least <code>1</code>
+		 * @return the pacing
+		 */
+		public static Pacing rateLimited(double permitsPerSecond, int burst)
+		{
+			if (!(permitsPerSecond > 0))
+				throw new IllegalArgumentException(String.format("The rate %f must be positive.", permitsPerSecond));
+			if (burst < 1)
+				throw new IllegalArgumentException(String.format("The burst %d must be positive.", burst));
+			final long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+			final long tolerance = interval * (burst - 1);
+			return new Pacing()
+			{
+				private boolean	started;
+				/**
+				 * The time the bucket is empty if no more token is taken.
+				 */
+				private long	empty;
+
+				@Override
+				protected long next(long now)
+				{
+					return started ? empty - tolerance : now;
+				}
+
+				@Override
+				protected void called(long start, long end)
+				{
+					if (!started || empty - start < 0)
+					{
+						started = true;
+						empty = start;
+					}
+					empty += interval;
+				}
+
+				@Override
+				public String toString()
+				{
+					return String.format("RateLimited[%dns, %d]", interval, tolerance / interval + 1);
+				}
+			};
+		}
+
+		private static long positive(long nanos, String name)
+		{
+			if (nanos <= 0)
+				throw new IllegalArgumentException(String.format("The %s %dns must be positive.", name, nanos));
+			return nanos;
+		}
+	}
+
 	/**
 	 * The current task status.
 	 */
-	protected Status	status		= Status.Init;
+	protected volatile Status	status		= Status.Init;
 	/**
 	 * The milliseconds to sleep when the task is paused.
+	 * 
+	 * @deprecated the paused task is parked until it is resumed
 	 */
-	protected long		sleepTime	= 40;
+	@Deprecated
+	protected long				sleepTime	= 40;
 	/**
 	 * The exception ({@linkplain Throwable}) catched in the task.
 	 */
-	protected Throwable	throwable;
+	protected volatile Throwable	throwable;
+	/**
+	 * The thread running the task or stepping it for an executor,
+	 * <code>null</code> if it is not running.
+	 */
+	volatile Thread				runner;
+	/**
+	 * The lock of {@link #runner}, held to interrupt it so that a thread is
+	 * never interrupted after it stops running the task.
+	 */
+	private final Object		runnerLock	= new Object();
+	/**
+	 * The entry of the executor stepping the task, <code>null</code> if it is
+	 * not submitted to an executor.
+	 */
+	volatile TaskExecutor.Entry	entry;
+	/**
+	 * The pacing of the calls to {@link #taskRunning()}, <code>null</code> if
+	 * not paced.
+	 */
+	private volatile Pacing		pacing;
+	/**
+	 * The metrics of the task, <code>null</code> if not enabled.
+	 */
+	private volatile TaskMetrics	metrics;
+	/**
+	 * Whether the task waits for a {@link #signal()}.
+	 */
+	private volatile boolean		idle;
+	/**
+	 * Whether {@link #taskStarted()} is called.
+	 */
+	private volatile boolean		started;
+	/**
+	 * The completion of the task.
+	 */
+	private final Completion		completion	= new Completion();
+
+	/**
+	 * The completion of a task, done after the task is stopped or failed.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	private final class Completion implements Future<Void>
+	{
+		private final CountDownLatch	latch		= new CountDownLatch(1);
+		/**
+		 * Whether the completion is claimed by a thread finishing the task.
+		 */
+		private final AtomicBoolean		finishing	= new AtomicBoolean();
+		/**
+		 * Whether the task is forced to stop.
+		 */
+		private final AtomicBoolean		forced		= new AtomicBoolean();
+		private volatile boolean		cancelled;
+
+		/**
+		 * Terminate the task, the task completes after it is stopped.
+		 */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			if (isDone())
+				return false;
+			cancelled = true;
+			terminate();
+			if (mayInterruptIfRunning)
+				interruptRunner();
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone()
+		{
+			return cancelled || latch.getCount() == 0;
+		}
+
+		@Override
+		public Void get() throws InterruptedException, ExecutionException
+		{
+			if (!cancelled)
+				latch.await();
+			return result();
+		}
+
+		@Override
+		public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+				TimeoutException
+		{
+			if (!cancelled && !latch.await(timeout, unit))
+				throw new TimeoutException(String.format("%s is not completed in %d %s.", Task.this, timeout,
+						unit));
+			return result();
+		}
+
+		private Void result() throws ExecutionException
+		{
+			if (cancelled)
+				throw new CancellationException(String.format("%s is cancelled.", Task.this));
+			if (status == Status.Error)
+				throw new ExecutionException(throwable);
+			return null;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%s[done=%s]", Task.this, isDone());
+		}
+	}
+
+	/**
+	 * The updater of the {@link #status}.
+	 */
+	private static final AtomicReferenceFieldUpdater<Task, Status>				STATUS	= AtomicReferenceFieldUpdater
+																							.newUpdater(Task.class, Status.class,
+																									"status");
+	/**
+	 * The updater of the {@link #entry}.
+	 */
+	private static final AtomicReferenceFieldUpdater<Task, TaskExecutor.Entry>	ENTRY	= AtomicReferenceFieldUpdater
+																							.newUpdater(Task.class,
+																									TaskExecutor.Entry.class,
+																									"entry");
 
 	/**
 	 * The action when the task is started.
@@ -77,15 +440,24 @@ public abstract class Task implements Runnable
 	 * The action when the task is paused.
 	 * <p>
 	 * No need to change the {@link #status} values, the value will be changed
-	 * before this method.
+	 * before this method. The method is called repeatedly while the task is
+	 * paused, by default it parks the thread until the task is resumed or
+	 * terminated.
 	 * </p>
 	 * 
 	 * @throws Throwable
 	 *             any throwable occurs in the task
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while paused
 	 */
 	protected void taskPaused() throws Throwable
 	{
-		Thread.sleep(sleepTime);
+		while (status == Status.Pause)
+		{
+			LockSupport.park(this);
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
 	}
 
 	/**
@@ -116,7 +488,8 @@ public abstract class Task implements Runnable
 	 * The action when the task is stopped.
 	 * <p>
 	 * No need to change the {@link #status} values, the value will be changed
-	 * before this method.
+	 * before this method. It is called once by the thread running the task
+	 * after it is terminated, if the task is started.
 	 * </p>
 	 * 
 	 * @throws Throwable
@@ -126,6 +499,11 @@ public abstract class Task implements Runnable
 
 	/**
 	 * The action when the task is forced to stop.
+	 * <p>
+	 * Called by the thread shutting down the task when the task is not
+	 * completed before the deadline, e.g. to close the resources the task is
+	 * blocked on. The thread running the task is interrupted after it.
+	 * </p>
 	 */
 	abstract protected void taskForcedStop();
 
@@ -135,44 +513,319 @@ public abstract class Task implements Runnable
 	@Override
 	public void run()
 	{
+		if (entry != null)
+			throw new IllegalStateException(String.format("%s is submitted to an executor.", this));
+		if (completion.latch.getCount() == 0)
+			return;
+		runner = Thread.currentThread();
 		try
 		{
-			while (status != Status.Stop)
+			for (;;)
 			{
 				switch (status)
 				{
 				case Init:
-					status = Status.Run;
-					taskStarted();
+					if (transit(Status.Init, Status.Run))
+					{
+						started = true;
+						taskStarted();
+					}
 					break;
 				case Pause:
 					taskPaused();
 					break;
 				case Run:
-					taskRunning();
+					long delay = idle ? Long.MAX_VALUE : delay();
+					if (delay <= 0)
+						step();
+					else
+					{
+						if (delay == Long.MAX_VALUE)
+							LockSupport.park(this);
+						else
+							LockSupport.parkNanos(this, delay);
+						if (Thread.interrupted())
+							throw new InterruptedException();
+					}
 					break;
-				default:
 				case Stop:
-					taskStopped();
-					break;
+				default:
+					return;
 				}
 			}
 		}
 		catch (Throwable e)
 		{
+			fail(e);
+		}
+		finally
+		{
+			try
+			{
+				complete();
+			}
+			finally
+			{
+				unbindRunner();
+			}
+		}
+	}
+
+	/**
+	 * Call {@link #taskStopped()} if the task is started and stopped, then
+	 * complete the task. Only the first call takes effect.
+	 */
+	final void complete()
+	{
+		if (!completion.finishing.compareAndSet(false, true))
+			return;
+		try
+		{
+			if (started && status == Status.Stop)
+				taskStopped();
+		}
+		catch (Throwable e)
+		{
+			fail(e);
+		}
+		finally
+		{
+			completion.latch.countDown();
+		}
+	}
+
+	/**
+	 * Perform one step of the task: start it or run it once.
+	 * 
+	 * @return <code>false</code> if the task is paused or finished and nothing
+	 *         is performed
+	 * @throws Throwable
+	 *             any throwable occurs in the task
+	 */
+	final boolean step() throws Throwable
+	{
+		switch (status)
+		{
+		case Init:
+			if (transit(Status.Init, Status.Run))
+			{
+				started = true;
+				taskStarted();
+			}
+			return true;
+		case Run:
+			Pacing p = pacing;
+			TaskMetrics m = metrics;
+			if (p == null && m == null)
+				taskRunning();
+			else
+			{
+				long start = System.nanoTime();
+				if (m != null)
+					m.stepStarted(start);
+				taskRunning();
+				long end = System.nanoTime();
+				if (p != null)
+					p.called(start, end);
+				if (m != null)
+					m.stepped(start, end);
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the task waits for a {@link #signal()}.
+	 * 
+	 * @return <tt>true</tt> if the task is idle
+	 */
+	final boolean isIdle()
+	{
+		return idle;
+	}
+
+	/**
+	 * Returns the nanoseconds to wait before the next step by the pacing.
+	 * 
+	 * @return the nanoseconds to wait, not positive if the next step may be
+	 *         performed immediately
+	 */
+	final long delay()
+	{
+		Pacing p = pacing;
+		if (p == null || status != Status.Run)
+			return 0;
+		long now = System.nanoTime();
+		return p.next(now) - now;
+	}
+
+	/**
+	 * Record the throwable interrupting the task, printed only if the metrics
+	 * are not enabled to report it.
+	 * 
+	 * @param e
+	 *            the throwable occurs in the task
+	 */
+	final void fail(Throwable e)
+	{
+		throwable = e;
+		Status from = STATUS.getAndSet(this, Status.Error);
+		TaskMetrics m = metrics;
+		if (m != null)
+		{
+			m.failed(e);
+			m.statusChanged(from, Status.Error);
+		}
+		else
 			e.printStackTrace();
-			throwable = e;
-			status = Status.Error;
+		done();
+	}
+
+	/**
+	 * Called after the task is stopped or failed, by the thread changing the
+	 * status.
+	 */
+	void done()
+	{
+	}
+
+	/**
+	 * Change the status atomically and report the change to the metrics.
+	 * 
+	 * @param from
+	 *            the expected status
+	 * @param to
+	 *            the new status
+	 * @return <tt>true</tt> if the status is changed
+	 */
+	private boolean transit(Status from, Status to)
+	{
+		if (!STATUS.compareAndSet(this, from, to))
+			return false;
+		TaskMetrics m = metrics;
+		if (m != null)
+			m.statusChanged(from, to);
+		return true;
+	}
+
+	/**
+	 * Bind the task to the entry of an executor.
+	 * 
+	 * @param e
+	 *            the entry
+	 * @throws IllegalStateException
+	 *             if the task is running or already submitted
+	 */
+	final void bind(TaskExecutor.Entry e)
+	{
+		if (runner != null || !ENTRY.compareAndSet(this, null, e))
+			throw new IllegalStateException(String.format("%s is already running.", this));
+	}
+
+	/**
+	 * Wake up the thread or the executor running the task.
+	 */
+	private void wake()
+	{
+		LockSupport.unpark(runner);
+		TaskExecutor.Entry e = entry;
+		if (e != null)
+			e.wake();
+	}
+
+	/**
+	 * Returns the pacing of the calls to {@link #taskRunning()}.
+	 * 
+	 * @return the pacing, <code>null</code> if not paced
+	 */
+	public Pacing getPacing()
+	{
+		return pacing;
+	}
+
+	/**
+	 * Set the pacing of the calls to {@link #taskRunning()}, the next call is
+	 * rescheduled immediately.
+	 * 
+	 * @param pacing
+	 *            the pacing, <code>null</code> to call it continuously
+	 */
+	public void setPacing(Pacing pacing)
+	{
+		this.pacing = pacing;
+		wake();
+	}
+
+	/**
+	 * Enable the metrics of the task, the times and the latencies are
+	 * recorded from now on.
+	 * 
+	 * @return the metrics
+	 */
+	public synchronized TaskMetrics enableMetrics()
+	{
+		if (metrics == null)
+			metrics = new TaskMetrics(this);
+		return metrics;
+	}
+
+	/**
+	 * Returns the metrics of the task.
+	 * 
+	 * @return the metrics, <code>null</code> if not enabled
+	 * @see #enableMetrics()
+	 */
+	public TaskMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Mark the task idle, called in {@link #taskRunning()} when there is
+	 * nothing to do. After <code>taskRunning()</code> returns, it is not called
+	 * again until the task is signalled.
+	 * <p>
+	 * To not miss a signal sent before this call, check the condition of the
+	 * work again after this call and call {@link #signal()} if it is already
+	 * satisfied.
+	 * </p>
+	 */
+	protected final void idle()
+	{
+		idle = true;
+	}
+
+	/**
+	 * Signal an idle task that there may be work to do, no effect if the task
+	 * is not idle.
+	 */
+	public void signal()
+	{
+		if (idle)
+		{
+			idle = false;
+			wake();
 		}
 	}
 
+	/**
+	 * Returns the current task status.
+	 * 
+	 * @return the status
+	 */
+	public Status getStatus()
+	{
+		return status;
+	}
+
 	/**
 	 * Pause the current task.
 	 */
 	public void pause()
 	{
-		if (status == Status.Run)
-			status = Status.Pause;
+		transit(Status.Run, Status.Pause);
 	}
 
 	/**
@@ -180,9 +833,8 @@ public abstract class Task implements Runnable
 	 */
 	public void resume()
 	{
-		if (status == Status.Pause)
+		if (transit(Status.Pause, Status.Run))
 		{
-			status = Status.Run;
 			try
 			{
 				taskResumed();
@@ -191,6 +843,10 @@ public abstract class Task implements Runnable
 			{
 				throw new RuntimeException(e);
 			}
+			finally
+			{
+				wake();
+			}
 		}
 	}
 
@@ -217,10 +873,169 @@ public abstract class Task implements Runnable
 	}
 
 	/**
-	 * Teriminate the current task.
+	 * Teriminate the current task, a paused task is unparked to stop.
+	 * <p>
+	 * The task calls {@link #taskStopped()} and completes on its own thread, a
+	 * task not started yet completes immediately.
+	 * </p>
 	 */
 	public void terminate()
 	{
-		status = Status.Stop;
+		for (Status s = status; s != Status.Stop && s != Status.Error; s = status)
+			if (transit(s, Status.Stop))
+			{
+				done();
+				if (s == Status.Init)
+					complete();
+				break;
+			}
+		wake();
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the task is completed: stopped after
+	 * {@link #taskStopped()} or failed.
+	 * 
+	 * @return <tt>true</tt> if the task is completed
+	 */
+	public boolean isTerminated()
+	{
+		return completion.latch.getCount() == 0;
+	}
+
+	/**
+	 * Wait until the task is completed.
+	 * 
+	 * @param timeout
+	 *            the time to wait
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return <tt>true</tt> if the task is completed, <tt>false</tt> if the
+	 *         timeout elapsed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return completion.latch.await(timeout, unit);
+	}
+
+	/**
+	 * Returns the future of the completion of the task.
+	 * <p>
+	 * The future returns <code>null</code> after the task is stopped, throws
+	 * an {@linkplain ExecutionException} of the throwable if the task failed,
+	 * and cancelling it terminates the task.
+	 * </p>
+	 * 
+	 * @return the future
+	 */
+	public Future<Void> getFuture()
+	{
+		return completion;
+	}
+
+	/**
+	 * Terminate the task and wait until it is completed, if it is not
+	 * completed before the timeout, it is forced to stop by
+	 * {@link #taskForcedStop()} and its thread is interrupted.
+	 * 
+	 * @param timeout
+	 *            the time to wait for the graceful stop
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return <tt>true</tt> if the task is completed in time, <tt>false</tt>
+	 *         if it is forced to stop
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		terminate();
+		if (awaitTermination(timeout, unit))
+			return true;
+		forceStop();
+		return false;
+	}
+
+	/**
+	 * Terminate all the specified tasks at once and wait until they are
+	 * completed, the tasks not completed before the timeout are forced to
+	 * stop. So the time to shut down is bounded by the timeout, not by the
+	 * count of the tasks.
+	 * 
+	 * @param tasks
+	 *            the tasks
+	 * @param timeout
+	 *            the time to wait for the graceful stop
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return <tt>true</tt> if all the tasks are completed in time,
+	 *         <tt>false</tt> if any is forced to stop
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @see #shutdown(long, TimeUnit)
+	 */
+	public static boolean shutdown(Collection<? extends Task> tasks, long timeout, TimeUnit unit)
+			throws InterruptedException
+	{
+		for (Task t : tasks)
+			t.terminate();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		boolean completed = true;
+		for (Task t : tasks)
+			if (!t.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+			{
+				completed = false;
+				break;
+			}
+		if (!completed)
+			for (Task t : tasks)
+				if (!t.isTerminated())
+					t.forceStop();
+		return completed;
+	}
+
+	/**
+	 * Call {@link #taskForcedStop()} once and interrupt the thread running the
+	 * task.
+	 */
+	private void forceStop()
+	{
+		if (!completion.forced.compareAndSet(false, true))
+			return;
+		try
+		{
+			taskForcedStop();
+		}
+		finally
+		{
+			interruptRunner();
+		}
+	}
+
+	/**
+	 * Interrupt the thread running the task, if it still runs the task.
+	 */
+	private void interruptRunner()
+	{
+		synchronized (runnerLock)
+		{
+			Thread t = runner;
+			if (t != null)
+				t.interrupt();
+		}
+	}
+
+	/**
+	 * Unbind the thread running the task, it is not interrupted for the task
+	 * any more.
+	 */
+	final void unbindRunner()
+	{
+		synchronized (runnerLock)
+		{
+			runner = null;
+		}
 	}
 }
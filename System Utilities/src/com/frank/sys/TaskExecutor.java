@@ -0,0 +1,601 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * TaskExecutor.java is PROPRIETARY/CONFIDENTIAL built in 9:41:05 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The executor stepping many {@linkplain Task}s cooperatively on a bounded
+ * pool of workers.
+ * <p>
+ * Instead of occupying a thread for its whole lifetime, a submitted task is
+ * queued while it is runnable and a worker calls its
+ * {@link Task#taskRunning()} repeatedly for a time quantum, then queues it
+ * again behind the other tasks. A paused task leaves the queue, it is queued
+ * again by {@link Task#resume()}, and a terminated or failed task is removed
+ * from the executor. So the tasks must return from
+ * <code>taskRunning()</code> promptly, and {@link Task#taskPaused()} is never
+ * called by the executor.
+ * </p>
+ * <p>
+ * A task paced by {@linkplain Task.Pacing} is delayed without occupying a
+ * worker until its next step, and is queued immediately when it is paused,
+ * resumed or terminated. An idle task leaves the queue until it is signalled.
+ * </p>
+ * <p>
+ * The count of the steps and the time spent in them are measured for every
+ * task by its {@linkplain Entry}, and for the whole executor.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class TaskExecutor
+{
+	/**
+	 * The default time quantum in nanoseconds.
+	 */
+	public static final long				DEFAULT_QUANTUM	= TimeUnit.MILLISECONDS.toNanos(1);
+	/**
+	 * The sequence number of the executors.
+	 */
+	private static final AtomicInteger		sequence		= new AtomicInteger();
+	/**
+	 * The updater of {@link Entry#scheduled}.
+	 */
+	private static final AtomicIntegerFieldUpdater<Entry>	SCHEDULED	= AtomicIntegerFieldUpdater.newUpdater(
+																				Entry.class, "scheduled");
+
+	/**
+	 * The pool of the workers.
+	 */
+	protected final ScheduledThreadPoolExecutor	pool;
+	/**
+	 * The nanoseconds a task is stepped before it is queued again.
+	 */
+	protected final long						quantum;
+	/**
+	 * The entries of the tasks not finished.
+	 */
+	private final Set<Entry>					entries		= Collections.newSetFromMap(new ConcurrentHashMap<Entry, Boolean>());
+	/**
+	 * The count of the steps of all the tasks.
+	 */
+	private final AtomicLong					steps		= new AtomicLong();
+	/**
+	 * The nanoseconds spent in the steps of all the tasks.
+	 */
+	private final AtomicLong					busyTime	= new AtomicLong();
+	/**
+	 * The time the executor is created, by {@link System#nanoTime()}.
+	 */
+	private final long							startTime	= System.nanoTime();
+
+	/**
+	 * Construct an instance of <tt>TaskExecutor</tt> with the workers as many
+	 * as the processors.
+	 */
+	public TaskExecutor()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Construct an instance of <tt>TaskExecutor</tt> with the default time
+	 * quantum.
+	 * 
+	 * @param threads
+	 *            the count of the workers
+	 */
+	public TaskExecutor(int threads)
+	{
+		this(threads, DEFAULT_QUANTUM, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Construct an instance of <tt>TaskExecutor</tt>.
+	 * 
+	 * @param threads
+	 *            the count of the workers
+	 * @param quantum
+	 *            the time a task is stepped before the other tasks are given
+	 *            the worker, <code>0</code> to step it only once
+	 * @param unit
+	 *            the unit of the quantum
+	 */
+	public TaskExecutor(int threads, long quantum, TimeUnit unit)
+	{
+		if (threads <= 0)
+			throw new IllegalArgumentException(String.format("The count of the threads %d must be positive.",
+					threads));
+		if (quantum < 0)
+			throw new IllegalArgumentException(String.format("The quantum %d must not be negative.", quantum));
+		this.quantum = unit.toNanos(quantum);
+		final String prefix = String.format("TaskExecutor-%d-", sequence.incrementAndGet());
+		pool = new ScheduledThreadPoolExecutor(threads, new ThreadFactory()
+		{
+			private final AtomicInteger	count	= new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, prefix + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		pool.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Submit the specified task to be stepped by the executor.
+	 * <p>
+	 * A task in {@linkplain Task.Status#Init} is started by a worker, a
+	 * paused task is stepped after it is resumed.
+	 * </p>
+	 * 
+	 * @param task
+	 *            the task
+	 * @return the entry measuring the task
+	 * @throws IllegalStateException
+	 *             if the task is running on a thread or submitted already
+	 * @throws RejectedExecutionException
+	 *             if the executor is shut down
+	 */
+	public Entry submit(Task task)
+	{
+		if (pool.isShutdown())
+			throw new RejectedExecutionException("The executor is shut down.");
+		Entry e = new Entry(task);
+		task.bind(e);
+		entries.add(e);
+		e.wake();
+		return e;
+	}
+
+	/**
+	 * Returns the entries of the tasks not finished.
+	 * 
+	 * @return the entries
+	 */
+	public List<Entry> getEntries()
+	{
+		return new ArrayList<Entry>(entries);
+	}
+
+	/**
+	 * Returns the count of the tasks not finished, including the paused ones.
+	 * 
+	 * @return the count of the tasks
+	 */
+	public int getTaskCount()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the count of the tasks queued for a worker, including the
+	 * delayed ones.
+	 * 
+	 * @return the count of the queued tasks
+	 */
+	public int getQueuedCount()
+	{
+		return pool.getQueue().size();
+	}
+
+	/**
+	 * Returns the count of the workers.
+	 * 
+	 * @return the count of the workers
+	 */
+	public int getThreadCount()
+	{
+		return pool.getCorePoolSize();
+	}
+
+	/**
+	 * Returns the count of the steps of all the tasks.
+	 * 
+	 * @return the count of the steps
+	 */
+	public long getSteps()
+	{
+		return steps.get();
+	}
+
+	/**
+	 * Returns the time spent in the steps of all the tasks.
+	 * 
+	 * @param unit
+	 *            the time unit
+	 * @return the busy time
+	 */
+	public long getBusyTime(TimeUnit unit)
+	{
+		return unit.convert(busyTime.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the average count of the steps per second since the executor is
+	 * created.
+	 * 
+	 * @return the steps per second
+	 */
+	public double getThroughput()
+	{
+		return throughput(steps.get(), startTime);
+	}
+
+	/**
+	 * Returns the ratio of the busy time of the workers since the executor is
+	 * created, from <code>0</code> to <code>1</code>.
+	 * 
+	 * @return the utilization
+	 */
+	public double getUtilization()
+	{
+		long elapsed = Math.max(1, System.nanoTime() - startTime);
+		return Math.min(1.0, (double) busyTime.get() / elapsed / pool.getCorePoolSize());
+	}
+
+	/**
+	 * Terminate all the tasks and shut down the workers after the terminated
+	 * tasks are removed.
+	 */
+	public void shutdown()
+	{
+		for (Entry e : getEntries())
+			e.task.terminate();
+		pool.shutdown();
+	}
+
+	/**
+	 * Shut down all the tasks by {@link Task#shutdown(Collection, long, TimeUnit)}
+	 * then shut down the workers.
+	 * 
+	 * @param timeout
+	 *            the time to wait for the graceful stop of the tasks
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return <tt>true</tt> if all the tasks are completed in time,
+	 *         <tt>false</tt> if any is forced to stop
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		List<Task> tasks = new ArrayList<Task>();
+		for (Entry e : getEntries())
+			tasks.add(e.task);
+		try
+		{
+			return Task.shutdown(tasks, timeout, unit);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Wait until the workers are shut down.
+	 * 
+	 * @param timeout
+	 *            the time to wait
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return <tt>true</tt> if the workers are shut down, <tt>false</tt> if
+	 *         the timeout elapsed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return pool.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Returns <tt>true</tt> if the executor is shut down.
+	 * 
+	 * @return <tt>true</tt> if the executor is shut down
+	 */
+	public boolean isShutdown()
+	{
+		return pool.isShutdown();
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("TaskExecutor[threads=%d, tasks=%d, queued=%d, steps=%d, throughput=%.1f/s]",
+				getThreadCount(), getTaskCount(), getQueuedCount(), getSteps(), getThroughput());
+	}
+
+	private static double throughput(long steps, long since)
+	{
+		long elapsed = Math.max(1, System.nanoTime() - since);
+		return steps * 1e9 / elapsed;
+	}
+
+	/**
+	 * The entry of a task submitted to the executor.
+	 * <p>
+	 * The entry is queued at most once, so the task is stepped by one worker
+	 * at a time and its counters have a single writer.
+	 * </p>
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public final class Entry
+	{
+		private final Task						task;
+		private final long						submitTime	= System.nanoTime();
+		/**
+		 * The runnable queued for a worker.
+		 */
+		private final Runnable					quantum		= new Runnable()
+															{
+																@Override
+																public void run()
+																{
+																	runQuantum();
+																}
+															};
+		/**
+		 * <code>1</code> if the entry is queued or being stepped.
+		 */
+		volatile int							scheduled;
+		/**
+		 * The delayed quantum of a paced task, <code>null</code> if it is not
+		 * delayed or it is taken to run.
+		 */
+		private final AtomicReference<Delayed>	delayed		= new AtomicReference<Delayed>();
+		private volatile long					entrySteps;
+		private volatile long					entryBusyTime;
+
+		Entry(Task task)
+		{
+			this.task = task;
+		}
+
+		/**
+		 * The quantum delayed by the pacing. It is run by whichever of the
+		 * timer and {@link Entry#wake()} takes it out of {@link Entry#delayed}
+		 * first, so it is never run twice.
+		 */
+		private final class Delayed implements Runnable
+		{
+			/**
+			 * The scheduled future, <code>null</code> until it is scheduled.
+			 */
+			volatile Future<?>	future;
+
+			@Override
+			public void run()
+			{
+				if (delayed.compareAndSet(this, null))
+					runQuantum();
+			}
+		}
+
+		/**
+		 * Queue the entry unless it is queued already, a delayed entry is
+		 * queued immediately.
+		 */
+		void wake()
+		{
+			if (SCHEDULED.compareAndSet(this, 0, 1))
+				execute();
+			else
+				hurry();
+		}
+
+		/**
+		 * Queue the delayed quantum immediately if it is not taken yet.
+		 */
+		private void hurry()
+		{
+			// Only the taker of the delayed quantum queues it again.
+			Delayed d = delayed.get();
+			if (d != null && delayed.compareAndSet(d, null))
+			{
+				Future<?> f = d.future;
+				if (f != null)
+					f.cancel(false);
+				execute();
+			}
+		}
+
+		/**
+		 * Queue the quantum of the scheduled entry.
+		 */
+		private void execute()
+		{
+			try
+			{
+				pool.execute(quantum);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// The executor is shut down, the task is abandoned.
+				scheduled = 0;
+				entries.remove(this);
+			}
+		}
+
+		/**
+		 * Step the task for a quantum, then queue it again if it is still
+		 * runnable, or delay it until the next step by its pacing.
+		 */
+		private void runQuantum()
+		{
+			long start = System.nanoTime(), now = start;
+			long n = 0, delay = 0;
+			task.runner = Thread.currentThread();
+			try
+			{
+				while (!task.isIdle() && (delay = task.delay()) <= 0 && task.step())
+				{
+					n++;
+					now = System.nanoTime();
+					if (now - start >= TaskExecutor.this.quantum)
+						break;
+				}
+			}
+			catch (Throwable e)
+			{
+				task.fail(e);
+				now = System.nanoTime();
+			}
+			finally
+			{
+				task.unbindRunner();
+				// Interrupted for the task before it is unbound, not to
+				// interrupt the next task on the worker.
+				Thread.interrupted();
+			}
+			if (n > 0)
+			{
+				entrySteps += n;
+				entryBusyTime += now - start;
+				steps.addAndGet(n);
+				busyTime.addAndGet(now - start);
+			}
+			if (isRunnable() && !task.isIdle())
+			{
+				try
+				{
+					if (delay > 0)
+					{
+						Delayed d = new Delayed();
+						// Published before it is scheduled, so the timer
+						// always finds it.
+						delayed.set(d);
+						d.future = pool.schedule(d, delay, TimeUnit.NANOSECONDS);
+						// Paused, stopped or waiting before it is published,
+						// the waking thread did not find it.
+						if (!isRunnable() || task.isIdle())
+							hurry();
+					}
+					else
+						pool.execute(quantum);
+					return;
+				}
+				catch (RejectedExecutionException e)
+				{
+					// The executor is shut down, the task is abandoned.
+					delayed.set(null);
+				}
+			}
+			scheduled = 0;
+			// Resumed or signalled after the last step, the waking thread did
+			// not queue it.
+			if (isRunnable())
+			{
+				if (!task.isIdle())
+					wake();
+			}
+			else if (task.status != Task.Status.Pause)
+			{
+				task.runner = Thread.currentThread();
+				try
+				{
+					task.complete();
+				}
+				finally
+				{
+					task.unbindRunner();
+					Thread.interrupted();
+					entries.remove(this);
+				}
+			}
+		}
+
+		private boolean isRunnable()
+		{
+			Task.Status s = task.status;
+			return s == Task.Status.Init || s == Task.Status.Run;
+		}
+
+		/**
+		 * Returns the task.
+		 * 
+		 * @return the task
+		 */
+		public Task getTask()
+		{
+			return task;
+		}
+
+		/**
+		 * Returns <tt>true</tt> if the task is queued or being stepped.
+		 * 
+		 * @return <tt>true</tt> if the task is scheduled
+		 */
+		public boolean isScheduled()
+		{
+			return scheduled != 0;
+		}
+
+		/**
+		 * Returns the count of the steps of the task.
+		 * 
+		 * @return the count of the steps
+		 */
+		public long getSteps()
+		{
+			return entrySteps;
+		}
+
+		/**
+		 * Returns the time spent in the steps of the task.
+		 * 
+		 * @param unit
+		 *            the time unit
+		 * @return the busy time
+		 */
+		public long getBusyTime(TimeUnit unit)
+		{
+			return unit.convert(entryBusyTime, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Returns the average count of the steps per second since the task is
+		 * submitted.
+		 * 
+		 * @return the steps per second
+		 */
+		public double getThroughput()
+		{
+			return throughput(entrySteps, submitTime);
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%s[status=%s, steps=%d, throughput=%.1f/s]", task, task.status, entrySteps,
+					getThroughput());
+		}
+	}
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * TaskMetrics.java is PROPRIETARY/CONFIDENTIAL built in 10:31:52 PM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.frank.sys.Task.Status;
+
+/**
+ * The metrics of the lifecycle of a {@linkplain Task}.
+ * <p>
+ * The metrics record the time the task spends in every status, the latency
+ * of every call to {@link Task#taskRunning()} in a {@linkplain Histogram},
+ * the time of the current call to detect a stuck task, and the errors. They
+ * are enabled by {@link Task#enableMetrics()}, reported to a
+ * {@linkplain Listener} and optionally exposed by JMX with
+ * {@link #register(String)}.
+ * </p>
+ * <p>
+ * Recording a step does not allocate any object.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class TaskMetrics implements TaskMetricsMXBean
+{
+	/**
+	 * The listener of the metrics of a task.
+	 * <p>
+	 * The methods are called by the threads changing the status or stepping
+	 * the task, so they must be quick and thread safe.
+	 * </p>
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public static interface Listener
+	{
+		/**
+		 * Called after the status of the task is changed.
+		 * 
+		 * @param task
+		 *            the task
+		 * @param from
+		 *            the previous status
+		 * @param to
+		 *            the new status
+		 */
+		void statusChanged(Task task, Status from, Status to);
+
+		/**
+		 * Called after a call to {@link Task#taskRunning()} returns.
+		 * 
+		 * @param task
+		 *            the task
+		 * @param latency
+		 *            the nanoseconds of the call
+		 */
+		void stepped(Task task, long latency);
+
+		/**
+		 * Called after the task is interrupted by an error.
+		 * 
+		 * @param task
+		 *            the task
+		 * @param error
+		 *            the error
+		 */
+		void failed(Task task, Throwable error);
+	}
+
+	/**
+	 * The histogram of the latencies in nanoseconds.
+	 * <p>
+	 * The buckets are log-linear: the values below <code>32</code> are
+	 * counted exactly, and every power of two above is divided into
+	 * <code>16</code> buckets, so a value is reported within
+	 * <code>6.25%</code>. The buckets are allocated once, recording a value is
+	 * lock free and allocates nothing.
+	 * </p>
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	public static final class Histogram
+	{
+		/**
+		 * The bits of the sub-buckets of a power of two.
+		 */
+		private static final int		SUB_BITS	= 4;
+		/**
+		 * The count of the sub-buckets of a power of two.
+		 */
+		private static final int		SUB_COUNT	= 1 << SUB_BITS;
+
+		private final AtomicLongArray	counts		= new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+		private final AtomicLong		sum			= new AtomicLong();
+		private final AtomicLong		max			= new AtomicLong();
+
+		private static int index(long value)
+		{
+			int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+			return (shift << SUB_BITS) + (int) (value >>> shift);
+		}
+
+		/**
+		 * Returns the highest value counted in the bucket.
+		 */
+		private static long highest(int index)
+		{
+			if (index < SUB_COUNT << 1)
+				return index;
+			int shift = (index >> SUB_BITS) - 1;
+			long sub = (index & SUB_COUNT - 1) + SUB_COUNT;
+			return ((sub + 1) << shift) - 1;
+		}
+
+		/**
+		 * Record a value.
+		 * 
+		 * @param value
+		 *            the value, the negative values are recorded as
+		 *            <code>0</code>
+		 */
+		public void record(long value)
+		{
+			if (value < 0)
+				value = 0;
+			counts.incrementAndGet(index(value));
+			sum.addAndGet(value);
+			for (long m = max.get(); value > m; m = max.get())
+				if (max.compareAndSet(m, value))
+					break;
+		}
+
+		/**
+		 * Returns the count of the recorded values.
+		 * 
+		 * @return the count
+		 */
+		public long getCount()
+		{
+			long n = 0;
+			for (int i = 0; i < counts.length(); i++)
+				n += counts.get(i);
+			return n;
+		}
+
+		/**
+		 * Returns the maximum recorded value.
+		 * 
+		 * @return the maximum, <code>0</code> if none is recorded
+		 */
+		public long getMax()
+		{
+			return max.get();
+		}
+
+		/**
+		 * Returns the mean of the recorded values.
+		 * 
+		 * @return the mean, <code>0</code> if none is recorded
+		 */
+		public double getMean()
+		{
+			long n = getCount();
+			return n == 0 ? 0 : (double) sum.get() / n;
+		}
+
+		/**
+		 * Returns the value at the specified percentile, the highest value of
+		 * its bucket but not above the maximum.
+		 * 
+		 * @param percentile
+		 *            the percentile, from <code>0</code> to <code>100</code>
+		 * @return the value, <code>0</code> if none is recorded
+		 */
+		public long getValueAtPercentile(double percentile)
+		{
+			if (percentile < 0 || percentile > 100)
+				throw new IllegalArgumentException(String.format("The percentile %f is out of [0, 100].", percentile));
+			long n = getCount();
+			if (n == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+			long seen = 0;
+			for (int i = 0; i < counts.length(); i++)
+			{
+				seen += counts.get(i);
+				if (seen >= rank)
+					return Math.min(highest(i), max.get());
+			}
+			return max.get();
+		}
+
+		/**
+		 * Clear the recorded values.
+		 */
+		public void reset()
+		{
+			for (int i = 0; i < counts.length(); i++)
+				counts.set(i, 0);
+			sum.set(0);
+			max.set(0);
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("count=%d, mean=%.0f, p50=%d, p99=%d, p99.9=%d, max=%d", getCount(), getMean(),
+					getValueAtPercentile(50), getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+		}
+	}
+
+	private final Task				task;
+	private final Histogram			latencies	= new Histogram();
+	/**
+	 * The nanoseconds spent in every status before the current one.
+	 */
+	private final long[]			times		= new long[Status.values().length];
+	/**
+	 * The status the time is accounted to.
+	 */
+	private Status					current;
+	/**
+	 * The time the current status is entered.
+	 */
+	private long					since;
+	/**
+	 * The time the current step is started, <code>0</code> if the task is not
+	 * in a step. It is written by the ordered stores without the fences.
+	 */
+	private final AtomicLong		stepStart	= new AtomicLong();
+	private final AtomicLong		errors		= new AtomicLong();
+	private volatile Throwable		lastError;
+	private volatile Listener		listener;
+	private volatile ObjectName		objectName;
+
+	/**
+	 * Construct an instance of <tt>TaskMetrics</tt>.
+	 * 
+	 * @param task
+	 *            the task to measure
+	 */
+	TaskMetrics(Task task)
+	{
+		this.task = task;
+		current = task.status;
+		since = System.nanoTime();
+	}
+
+	/**
+	 * Account the time to the previous status.
+	 * <p>
+	 * The concurrent changes may be reported out of order, so the time is
+	 * accounted to the status read from the task, which is the latest one.
+	 * </p>
+	 */
+	void statusChanged(Status from, Status to)
+	{
+		synchronized (times)
+		{
+			long now = System.nanoTime();
+			times[current.ordinal()] += now - since;
+			current = task.status;
+			since = now;
+		}
+		Listener l = listener;
+		if (l != null)
+			l.statusChanged(task, from, to);
+	}
+
+	void stepStarted(long start)
+	{
+		// 0 means not in a step.
+		stepStart.lazySet(start == 0 ? 1 : start);
+	}
+
+	void stepped(long start, long end)
+	{
+		stepStart.lazySet(0);
+		long latency = end - start;
+		latencies.record(latency);
+		Listener l = listener;
+		if (l != null)
+			l.stepped(task, latency);
+	}
+
+	void failed(Throwable e)
+	{
+		stepStart.lazySet(0);
+		errors.incrementAndGet();
+		lastError = e;
+		Listener l = listener;
+		if (l != null)
+			l.failed(task, e);
+	}
+
+	/**
+	 * Returns the task measured.
+	 * 
+	 * @return the task
+	 */
+	public Task getTask()
+	{
+		return task;
+	}
+
+	/**
+	 * Returns the listener.
+	 * 
+	 * @return the listener, <code>null</code> if none
+	 */
+	public Listener getListener()
+	{
+		return listener;
+	}
+
+	/**
+	 * Set the listener.
+	 * 
+	 * @param listener
+	 *            the listener, <code>null</code> to remove it
+	 */
+	public void setListener(Listener listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns the time the task spends in the specified status.
+	 * 
+	 * @param status
+	 *            the status
+	 * @return the nanoseconds in the status
+	 */
+	public long getTime(Status status)
+	{
+		synchronized (times)
+		{
+			long t = times[status.ordinal()];
+			return current == status ? t + System.nanoTime() - since : t;
+		}
+	}
+
+	/**
+	 * Returns the histogram of the latencies of the calls to
+	 * {@link Task#taskRunning()}.
+	 * 
+	 * @return the histogram
+	 */
+	public Histogram getLatencies()
+	{
+		return latencies;
+	}
+
+	/**
+	 * Returns the last error.
+	 * 
+	 * @return the last error, <code>null</code> if none
+	 */
+	public Throwable getLastThrowable()
+	{
+		return lastError;
+	}
+
+	@Override
+	public String getStatus()
+	{
+		return task.status.name();
+	}
+
+	@Override
+	public long getRunTime()
+	{
+		return getTime(Status.Run);
+	}
+
+	@Override
+	public long getPauseTime()
+	{
+		return getTime(Status.Pause);
+	}
+
+	@Override
+	public long getSteps()
+	{
+		return latencies.getCount();
+	}
+
+	@Override
+	public double getMeanLatency()
+	{
+		return latencies.getMean();
+	}
+
+	@Override
+	public long getMedianLatency()
+	{
+		return latencies.getValueAtPercentile(50);
+	}
+
+	@Override
+	public long get99thPercentileLatency()
+	{
+		return latencies.getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getMaxLatency()
+	{
+		return latencies.getMax();
+	}
+
+	@Override
+	public long getCurrentStepTime()
+	{
+		long start = stepStart.get();
+		return start == 0 ? 0 : System.nanoTime() - start;
+	}
+
+	@Override
+	public long getErrorCount()
+	{
+		return errors.get();
+	}
+
+	@Override
+	public String getLastError()
+	{
+		Throwable e = lastError;
+		return e == null ? null : e.toString();
+	}
+
+	/**
+	 * Register the metrics to the platform MBean server as
+	 * <code>com.frank.sys:type=Task,name=<i>name</i></code>.
+	 * 
+	 * @param name
+	 *            the name of the task
+	 * @return the object name registered
+	 * @throws JMException
+	 *             if the registration fails
+	 */
+	public ObjectName register(String name) throws JMException
+	{
+		ObjectName on = new ObjectName(String.format("com.frank.sys:type=Task,name=%s", ObjectName.quote(name)));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		objectName = on;
+		return on;
+	}
+
+	/**
+	 * Unregister the metrics from the platform MBean server if registered.
+	 * 
+	 * @throws JMException
+	 *             if the unregistration fails
+	 */
+	public void unregister() throws JMException
+	{
+		ObjectName on = objectName;
+		if (on != null)
+		{
+			objectName = null;
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(on);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s[status=%s, run=%dms, pause=%dms, latency{%s}, errors=%d]", task, task.status,
+				getRunTime() / 1000000, getPauseTime() / 1000000, latencies, getErrorCount());
+	}
+}
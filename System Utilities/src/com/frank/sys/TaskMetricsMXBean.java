@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * TaskMetricsMXBean.java is PROPRIETARY/CONFIDENTIAL built in 10:36:18 PM,
+ * Oct 18, 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+/**
+ * The management interface of the {@linkplain TaskMetrics} of a task.
+ * <p>
+ * All the times are in nanoseconds.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ * @see TaskMetrics#register(String)
+ */
+public interface TaskMetricsMXBean
+{
+	/**
+	 * Returns the current status of the task.
+	 * 
+	 * @return the name of the status
+	 */
+	String getStatus();
+
+	/**
+	 * Returns the time the task has been running.
+	 * 
+	 * @return the running time
+	 */
+	long getRunTime();
+
+	/**
+	 * Returns the time the task has been paused.
+	 * 
+	 * @return the paused time
+	 */
+	long getPauseTime();
+
+	/**
+	 * Returns the count of the completed calls to {@link Task#taskRunning()}.
+	 * 
+	 * @return the count of the steps
+	 */
+	long getSteps();
+
+	/**
+	 * Returns the mean latency of the steps.
+	 * 
+	 * @return the mean latency
+	 */
+	double getMeanLatency();
+
+	/**
+	 * Returns the median latency of the steps.
+	 * 
+	 * @return the median latency
+	 */
+	long getMedianLatency();
+
+	/**
+	 * Returns the 99th percentile of the latency of the steps.
+	 * 
+	 * @return the 99th percentile latency
+	 */
+	long get99thPercentileLatency();
+
+	/**
+	 * Returns the maximum latency of the steps.
+	 * 
+	 * @return the maximum latency
+	 */
+	long getMaxLatency();
+
+	/**
+	 * Returns the time the current step has been running, a large value
+	 * indicates a stuck task.
+	 * 
+	 * @return the time of the current step, <code>0</code> if the task is not
+	 *         in a step
+	 */
+	long getCurrentStepTime();
+
+	/**
+	 * Returns the count of the errors.
+	 * 
+	 * @return the count of the errors
+	 */
+	long getErrorCount();
+
+	/**
+	 * Returns the description of the last error.
+	 * 
+	 * @return the last error, <code>null</code> if none
+	 */
+	String getLastError();
+}
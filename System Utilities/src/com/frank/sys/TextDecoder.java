@@ -0,0 +1,529 @@
+/*
+ * Copyright (c) 2011, 2020, Frank Jiang and/or its affiliates. All rights
+ * reserved.
+ * TextDecoder.java is PROPRIETARY/CONFIDENTIAL built in 11:08:52 AM, Oct 18,
+ * 2026.
+ * Use is subject to license terms.
+ */
+package com.frank.sys;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * The streaming text decoder.
+ * <p>
+ * The decoder reads bytes from an input stream and decodes them with a
+ * {@linkplain CharsetDecoder} into a fixed size char buffer, which is emptied
+ * into an {@linkplain Appendable} or split into lines for a
+ * {@linkplain LineHandler} every time it is full. The byte buffer, the char
+ * buffer and the decoder are allocated once and reused by every call, so a text
+ * of any size is decoded with constant memory.
+ * </p>
+ * <p>
+ * For US-ASCII, UTF-8 and ISO-8859-1 the runs of single byte characters are
+ * copied directly into the char buffer without calling the charset decoder.
+ * </p>
+ * <p>
+ * Malformed input and unmappable characters are replaced, which is what
+ * {@linkplain java.io.InputStreamReader} does. The decoder is not thread safe.
+ * </p>
+ * 
+ * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+ * @version 1.0.0
+ */
+public class TextDecoder
+{
+	/**
+	 * The minimum capacity of the buffers.
+	 */
+	public static final int				MIN_CAPACITY	= 16;
+	/**
+	 * No fast path is applied.
+	 */
+	private static final int			FAST_NONE		= 0;
+	/**
+	 * The bytes lower than <code>0x80</code> are copied as chars.
+	 */
+	private static final int			FAST_ASCII		= 1;
+	/**
+	 * All the bytes are copied as chars.
+	 */
+	private static final int			FAST_LATIN1		= 2;
+
+	/**
+	 * The character set to decode.
+	 */
+	protected final Charset				charset;
+	/**
+	 * The reused charset decoder.
+	 */
+	protected final CharsetDecoder		decoder;
+	/**
+	 * The reused byte buffer.
+	 */
+	protected final ByteBuffer			bytes;
+	/**
+	 * The reused char buffer.
+	 */
+	protected final CharBuffer			chars;
+	/**
+	 * The fast path mode.
+	 */
+	private final int					fastPath;
+	/**
+	 * The reused line buffer keeping the part of the line which crosses the
+	 * char buffers.
+	 */
+	private final StringBuilder			line;
+	/**
+	 * The reused line view on the char buffer.
+	 */
+	private final CharArraySequence		view;
+
+	/**
+	 * The appendable to fill in the current call.
+	 */
+	private Appendable					appendable;
+	/**
+	 * The line handler of the current call.
+	 */
+	private LineHandler					handler;
+	/**
+	 * The record delimiter of the current call, <code>-1</code> for the line
+	 * terminators.
+	 */
+	private int							delimiter;
+	/**
+	 * Whether the last char handled is a carriage return.
+	 */
+	private boolean						pendingCR;
+	/**
+	 * The count of the lines handled in the current call.
+	 */
+	private long						lines;
+
+	/**
+	 * Construct an instance of <tt>TextDecoder</tt> with the default capacity
+	 * {@linkplain SystemUtils#BUFFER_SIZE}.
+	 * 
+	 * @param cs
+	 *            the character set to decode, <code>null</code> if use
+	 *            environment character set
+	 */
+	public TextDecoder(Charset cs)
+	{
+		this(cs, SystemUtils.BUFFER_SIZE);
+	}
+
+	/**
+	 * Construct an instance of <tt>TextDecoder</tt>.
+	 * 
+	 * @param cs
+	 *            the character set to decode, <code>null</code> if use
+	 *            environment character set
+	 * @param capacity
+	 *            the capacity of the byte buffer and the char buffer, at least
+	 *            {@link #MIN_CAPACITY}
+	 */
+	public TextDecoder(Charset cs, int capacity)
+	{
+		charset = cs == null ? Charset.defaultCharset() : cs;
+		capacity = Math.max(capacity, MIN_CAPACITY);
+		decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		bytes = ByteBuffer.allocate(capacity);
+		chars = CharBuffer.allocate(capacity);
+		String name = charset.name();
+		if ("ISO-8859-1".equals(name))
+			fastPath = FAST_LATIN1;
+		else if ("UTF-8".equals(name) || "US-ASCII".equals(name))
+			fastPath = FAST_ASCII;
+		else
+			fastPath = FAST_NONE;
+		line = new StringBuilder();
+		view = new CharArraySequence();
+	}
+
+	/**
+	 * Returns the character set to decode.
+	 * 
+	 * @return the character set
+	 */
+	public Charset getCharset()
+	{
+		return charset;
+	}
+
+	/**
+	 * Decode the specified input stream to the end and fill the text to the
+	 * specified appendable.
+	 * <p>
+	 * The input stream will not be closed.
+	 * </p>
+	 * 
+	 * @param in
+	 *            the input stream to decode
+	 * @param appendable
+	 *            the appendable to append
+	 * @return the count of the decoded chars
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public long decode(InputStream in, Appendable appendable) throws IOException
+	{
+		if (appendable == null)
+			throw new NullPointerException("The appendable is null.");
+		this.appendable = appendable;
+		try
+		{
+			return run(in);
+		}
+		finally
+		{
+			this.appendable = null;
+		}
+	}
+
+	/**
+	 * Decode the specified input stream to the end and pass every line to the
+	 * specified handler.
+	 * <p>
+	 * A line is terminated by any one of a line feed ('\n'), a carriage return
+	 * ('\r'), or a carriage return followed immediately by a line feed, which
+	 * is what {@linkplain java.io.BufferedReader#readLine()} does. The input
+	 * stream will not be closed.
+	 * </p>
+	 * 
+	 * @param in
+	 *            the input stream to decode
+	 * @param handler
+	 *            the line handler
+	 * @return the count of the lines handled
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public long decodeLines(InputStream in, LineHandler handler) throws IOException
+	{
+		return split(in, -1, handler);
+	}
+
+	/**
+	 * Decode the specified input stream to the end and pass every record
+	 * terminated by the specified delimiter to the specified handler.
+	 * <p>
+	 * The last record is handled only if it is not empty. The input stream
+	 * will not be closed.
+	 * </p>
+	 * 
+	 * @param in
+	 *            the input stream to decode
+	 * @param delimiter
+	 *            the record delimiter
+	 * @param handler
+	 *            the record handler
+	 * @return the count of the records handled
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	public long decodeRecords(InputStream in, char delimiter, LineHandler handler) throws IOException
+	{
+		return split(in, delimiter, handler);
+	}
+
+	private long split(InputStream in, int delimiter, LineHandler handler) throws IOException
+	{
+		if (handler == null)
+			throw new NullPointerException("The line handler is null.");
+		this.handler = handler;
+		this.delimiter = delimiter;
+		pendingCR = false;
+		lines = 0;
+		line.setLength(0);
+		try
+		{
+			run(in);
+			if (line.length() > 0)
+			{
+				lines++;
+				handler.handle(line);
+			}
+			return lines;
+		}
+		finally
+		{
+			this.handler = null;
+			line.setLength(0);
+		}
+	}
+
+	/**
+	 * Decode the whole input stream.
+	 * 
+	 * @param in
+	 *            the input stream
+	 * @return the count of the decoded chars
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	private long run(InputStream in) throws IOException
+	{
+		decoder.reset();
+		bytes.clear();
+		chars.clear();
+		long total = 0;
+		boolean eof = false;
+		while (!eof)
+		{
+			int r = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+			if (r == -1)
+				eof = true;
+			else
+				bytes.position(bytes.position() + r);
+			bytes.flip();
+			total += decodeChunk(eof);
+			bytes.compact();
+		}
+		bytes.flip();
+		while (decoder.decode(bytes, chars, true).isOverflow())
+			total += drain();
+		while (decoder.flush(chars).isOverflow())
+			total += drain();
+		total += drain();
+		return total;
+	}
+
+	/**
+	 * Decode the bytes remaining in the byte buffer.
+	 * 
+	 * @param endOfInput
+	 *            whether no more input is available
+	 * @return the count of the chars drained
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	private long decodeChunk(boolean endOfInput) throws IOException
+	{
+		long drained = 0;
+		byte[] b = bytes.array();
+		char[] c = chars.array();
+		while (bytes.hasRemaining())
+		{
+			if (!chars.hasRemaining())
+				drained += drain();
+			if (fastPath == FAST_NONE)
+			{
+				if (!decoder.decode(bytes, chars, endOfInput).isOverflow())
+					break;
+				drained += drain();
+				continue;
+			}
+			int pos = bytes.position(), lim = bytes.limit();
+			int cpos = chars.position();
+			int n = Math.min(lim - pos, chars.limit() - cpos);
+			int i = 0;
+			if (fastPath == FAST_LATIN1)
+				for (; i < n; i++)
+					c[cpos + i] = (char) (b[pos + i] & 0xff);
+			else
+				for (; i < n && b[pos + i] >= 0; i++)
+					c[cpos + i] = (char) b[pos + i];
+			bytes.position(pos + i);
+			chars.position(cpos + i);
+			if (i == n)
+				continue;
+			// A multiple byte sequence never contains any byte lower than
+			// 0x80, so the next such byte is a safe boundary to return to the
+			// fast path.
+			pos += i;
+			int j = pos;
+			while (j < lim && b[j] < 0)
+				j++;
+			int window = Math.min(j + 1, lim);
+			bytes.limit(window);
+			CoderResult cr = decoder.decode(bytes, chars, endOfInput && window == lim);
+			bytes.limit(lim);
+			// A surrogate pair may overflow a buffer which is not full yet.
+			if (cr.isOverflow())
+				drained += drain();
+			else if (bytes.position() < window)
+				break;
+		}
+		return drained;
+	}
+
+	/**
+	 * Empty the char buffer.
+	 * 
+	 * @return the count of the chars drained
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	private int drain() throws IOException
+	{
+		chars.flip();
+		int n = chars.limit();
+		char[] c = chars.array();
+		if (n > 0)
+		{
+			if (appendable != null)
+				append(c, n);
+			else
+				split(c, n);
+		}
+		chars.clear();
+		return n;
+	}
+
+	/**
+	 * Append the drained chars to the appendable.
+	 * 
+	 * @param c
+	 *            the drained chars
+	 * @param n
+	 *            the count of the drained chars
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	private void append(char[] c, int n) throws IOException
+	{
+		if (appendable instanceof StringBuilder)
+			((StringBuilder) appendable).append(c, 0, n);
+		else if (appendable instanceof Writer)
+			((Writer) appendable).write(c, 0, n);
+		else
+			appendable.append(chars, 0, n);
+	}
+
+	/**
+	 * Split the drained chars into lines or records.
+	 * 
+	 * @param c
+	 *            the drained chars
+	 * @param n
+	 *            the count of the drained chars
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	private void split(char[] c, int n) throws IOException
+	{
+		int start = 0, i = 0;
+		if (delimiter >= 0)
+		{
+			char d = (char) delimiter;
+			for (; i < n; i++)
+				if (c[i] == d)
+				{
+					emit(c, start, i);
+					start = i + 1;
+				}
+		}
+		else
+		{
+			if (pendingCR && c[0] == '\n')
+				start = i = 1;
+			pendingCR = false;
+			while (i < n)
+			{
+				char ch = c[i];
+				while (ch != '\n' && ch != '\r' && ++i < n)
+					ch = c[i];
+				if (i == n)
+					break;
+				emit(c, start, i);
+				if (ch == '\r')
+				{
+					if (i + 1 == n)
+						pendingCR = true;
+					else if (c[i + 1] == '\n')
+						i++;
+				}
+				start = ++i;
+			}
+		}
+		line.append(c, start, n - start);
+	}
+
+	/**
+	 * Pass the line ending in the specified chars to the handler.
+	 * 
+	 * @param c
+	 *            the chars
+	 * @param start
+	 *            the index of the line start in the chars
+	 * @param end
+	 *            the index of the line end in the chars, exclusive
+	 * @throws IOException
+	 *             if an IO error occurs
+	 */
+	private void emit(char[] c, int start, int end) throws IOException
+	{
+		lines++;
+		if (line.length() == 0)
+		{
+			view.set(c, start, end - start);
+			handler.handle(view);
+		}
+		else
+		{
+			line.append(c, start, end - start);
+			handler.handle(line);
+			line.setLength(0);
+		}
+	}
+
+	/**
+	 * The reusable char sequence view on a char array.
+	 * 
+	 * @author <a href="mailto:jiangfan0576@gmail.com">Frank Jiang</a>
+	 * @version 1.0.0
+	 */
+	private static final class CharArraySequence implements CharSequence
+	{
+		private char[]	array;
+		private int		offset;
+		private int		length;
+
+		void set(char[] array, int offset, int length)
+		{
+			this.array = array;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length()
+		{
+			return length;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			if (index < 0 || index >= length)
+				throw new IndexOutOfBoundsException(String.format("Index: %d, Length: %d", index, length));
+			return array[offset + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end)
+		{
+			if (start < 0 || end > length || start > end)
+				throw new IndexOutOfBoundsException();
+			return new String(array, offset + start, end - start);
+		}
+
+		@Override
+		public String toString()
+		{
+			return new String(array, offset, length);
+		}
+	}
+}